@@ -0,0 +1,136 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferFrame;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTransferMessageCodecBenchmark {
+
+    @State(Scope.Thread)
+    public static class ControlState {
+
+        private FileTransferMessage initMessage;
+        private ByteBuffer buffer;
+        private ByteBuffer encodedInit;
+        private ByteBuffer encodedFin;
+        private FileTransferFrame frame;
+
+        @Setup
+        public void setup() {
+            String fileName = "benchmark-file-name.bin";
+            initMessage = FileTransferMessage.init(fileName, 104857600, 42, new byte[32], 0, 104857600, 1);
+            buffer = ByteBuffer.allocateDirect(FileTransferMessageCodec.MAX_FRAME_SIZE);
+            encodedInit = ByteBuffer.allocateDirect(FileTransferMessageCodec.getEncodedSize(initMessage));
+            FileTransferMessageCodec.encode(initMessage, encodedInit);
+            encodedInit.flip();
+            encodedFin = ByteBuffer.allocateDirect(FileTransferMessageCodec.FIN_SIZE);
+            FileTransferMessageCodec.encodeFin(42, encodedFin);
+            encodedFin.flip();
+            frame = new FileTransferFrame();
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class DataState {
+
+        @Param({"1024", "8192", "32768"})
+        public int payloadSize;
+
+        private ByteBuffer payload;
+        private ByteBuffer buffer;
+        private ByteBuffer encodedData;
+        private FileTransferFrame frame;
+        private CRC32C checksum;
+
+        @Setup
+        public void setup() {
+            byte[] payloadBytes = new byte[payloadSize];
+            new Random(42).nextBytes(payloadBytes);
+            payload = ByteBuffer.allocateDirect(payloadSize).put(payloadBytes).flip();
+            buffer = ByteBuffer.allocateDirect(FileTransferMessageCodec.MAX_FRAME_SIZE);
+            checksum = new CRC32C();
+            checksum.update(payloadBytes);
+            encodedData = ByteBuffer.allocateDirect(FileTransferMessageCodec.DATA_HEADER_SIZE + payloadSize);
+            FileTransferMessageCodec.encodeDataHeader(payloadSize, (int) checksum.getValue(), encodedData);
+            encodedData.put(payloadBytes).flip();
+            frame = new FileTransferFrame();
+        }
+
+    }
+
+    @Benchmark
+    public ByteBuffer encodeInit(ControlState state) {
+        state.buffer.clear();
+        FileTransferMessageCodec.encode(state.initMessage, state.buffer);
+        return state.buffer;
+    }
+
+    @Benchmark
+    public FileTransferFrame decodeInit(ControlState state) throws IOException {
+        state.encodedInit.rewind();
+        FileTransferMessageCodec.decodeFrameHeader(state.encodedInit, state.frame);
+        return state.frame;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeFin(ControlState state) {
+        state.buffer.clear();
+        FileTransferMessageCodec.encodeFin(42, state.buffer);
+        return state.buffer;
+    }
+
+    @Benchmark
+    public FileTransferFrame decodeFin(ControlState state) throws IOException {
+        state.encodedFin.rewind();
+        FileTransferMessageCodec.decodeFrameHeader(state.encodedFin, state.frame);
+        return state.frame;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeData(DataState state) {
+        state.checksum.reset();
+        state.checksum.update(state.payload.rewind());
+        state.buffer.clear();
+        FileTransferMessageCodec.encodeDataHeader(state.payloadSize, (int) state.checksum.getValue(), state.buffer);
+        state.buffer.put(state.payload.rewind());
+        return state.buffer;
+    }
+
+    @Benchmark
+    public FileTransferFrame decodeData(DataState state) throws IOException {
+        ByteBuffer source = state.encodedData.rewind();
+        FileTransferMessageCodec.decodeFrameHeader(source, state.frame);
+        source.limit(source.position() + state.frame.getDataSize());
+        state.checksum.reset();
+        state.checksum.update(source);
+        source.limit(source.capacity());
+        if ((int) state.checksum.getValue() != state.frame.getChecksum()) {
+            throw new IOException("Data message checksum mismatch!");
+        }
+        return state.frame;
+    }
+
+}
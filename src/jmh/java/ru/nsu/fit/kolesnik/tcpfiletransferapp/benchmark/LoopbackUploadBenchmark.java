@@ -0,0 +1,224 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.client.BatchClient;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.client.Client;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.Server;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ServerEngine;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.nio.NioServer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class LoopbackUploadBenchmark {
+
+    private static final String HOSTNAME = "localhost";
+    private static final int SMALL_FILES_NUMBER = 10000;
+    private static final int SMALL_FILE_SIZE = 1024;
+    private static final long MEDIUM_FILE_SIZE = 104857600;
+    private static final long SPARSE_FILE_SIZE = 4294967296L;
+    private static final int KEY_SIZE = 32;
+
+    public enum Workload {
+        SMALL_FILES, MEDIUM_FILE, SPARSE_FILE
+    }
+
+    @State(Scope.Benchmark)
+    public static class LoopbackState {
+
+        @Param({"SMALL_FILES", "MEDIUM_FILE", "SPARSE_FILE"})
+        public Workload workload;
+
+        @Param({"1", "16", "256"})
+        public int clients;
+
+        @Param({"BLOCKING"})
+        public ServerEngine engine;
+
+        @Param({"false", "true"})
+        public boolean encryption;
+
+        private Server server;
+        private NioServer nioServer;
+        private int port;
+        private TransportConfig transportConfig;
+        private Path filesDirectory;
+        private List<List<String>> clientPaths;
+        private long workloadBytes;
+        private ExecutorService clientPool;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            filesDirectory = Files.createTempDirectory("loopback-benchmark");
+            transportConfig = encryption ? createEncryptingTransportConfig() : TransportConfig.DEFAULT;
+            if (engine == ServerEngine.NIO) {
+                nioServer = new NioServer(0, Runtime.getRuntime().availableProcessors(), null, transportConfig,
+                        new BandwidthController(0, 0, Map.of()), false, Server.DEFAULT_FILE_CACHE_SIZE,
+                        List.of(Server.UPLOADS_DIRECTORY_NAME), new AdmissionController(),
+                        Server.DEFAULT_DRAIN_TIMEOUT_MILLIS);
+                port = nioServer.getPort();
+                startDaemon(nioServer::start);
+            } else {
+                server = new Server(0, engine, null, transportConfig, new BandwidthController(0, 0, Map.of()), false,
+                        Server.DEFAULT_FILE_CACHE_SIZE, List.of(Server.UPLOADS_DIRECTORY_NAME),
+                        new AdmissionController(), Server.DEFAULT_DRAIN_TIMEOUT_MILLIS);
+                port = server.getPort();
+                startDaemon(server::start);
+            }
+            clientPaths = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                clientPaths.add(new ArrayList<>());
+            }
+            switch (workload) {
+                case SMALL_FILES -> createSmallFiles();
+                case MEDIUM_FILE -> createFile("medium.bin", MEDIUM_FILE_SIZE, false);
+                case SPARSE_FILE -> createFile("sparse.bin", SPARSE_FILE_SIZE, true);
+            }
+            clientPool = Executors.newFixedThreadPool(clients);
+        }
+
+        @TearDown(Level.Invocation)
+        public void deleteUploads() throws IOException {
+            Path uploadsDirectory = Path.of(Server.UPLOADS_DIRECTORY_NAME);
+            try (Stream<Path> uploads = Files.walk(uploadsDirectory)) {
+                for (Path upload : uploads.sorted(Comparator.reverseOrder()).toList()) {
+                    if (!upload.equals(uploadsDirectory)) {
+                        Files.deleteIfExists(upload);
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            clientPool.shutdownNow();
+            if (nioServer != null) {
+                nioServer.stop();
+            } else {
+                server.stop();
+            }
+            try (Stream<Path> files = Files.walk(filesDirectory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        private void startDaemon(Runnable runnable) {
+            Thread thread = new Thread(runnable, "benchmark-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private TransportConfig createEncryptingTransportConfig() throws IOException {
+            byte[] key = new byte[KEY_SIZE];
+            new Random(42).nextBytes(key);
+            Path keyFile = Files.write(filesDirectory.resolve("key"), key);
+            Properties properties = new Properties();
+            properties.setProperty(TransportConfig.KEY_FILE, keyFile.toString());
+            return new TransportConfig(properties);
+        }
+
+        private void createSmallFiles() throws IOException {
+            Random random = new Random(42);
+            byte[] content = new byte[SMALL_FILE_SIZE];
+            for (int i = 0; i < SMALL_FILES_NUMBER; i++) {
+                random.nextBytes(content);
+                Path file = Files.write(filesDirectory.resolve(String.format("small-%05d.bin", i)), content);
+                clientPaths.get(i % clients).add(file.toString());
+            }
+            workloadBytes = (long) SMALL_FILES_NUMBER * SMALL_FILE_SIZE;
+        }
+
+        private void createFile(String fileName, long fileSize, boolean sparse) throws IOException {
+            Path file = filesDirectory.resolve(fileName);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+                if (sparse) {
+                    randomAccessFile.setLength(fileSize);
+                } else {
+                    Random random = new Random(42);
+                    byte[] chunk = new byte[1048576];
+                    for (long written = 0; written < fileSize; written += chunk.length) {
+                        random.nextBytes(chunk);
+                        randomAccessFile.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+                    }
+                }
+            }
+            clientPaths.get(0).add(file.toString());
+            workloadBytes = fileSize;
+        }
+
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class TransferCounters {
+
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+
+    }
+
+    @Benchmark
+    public void upload(LoopbackState state, TransferCounters counters) throws Exception {
+        if (state.workload == Workload.SMALL_FILES) {
+            uploadSmallFiles(state);
+        } else {
+            new Client(state.clientPaths.get(0).get(0), HOSTNAME, state.port, state.clients,
+                    CompressionCodecs.NONE, state.transportConfig, false, false).start();
+        }
+        counters.megabytes += state.workloadBytes / 1e6;
+    }
+
+    private void uploadSmallFiles(LoopbackState state) throws Exception {
+        List<Future<?>> uploads = new ArrayList<>();
+        for (List<String> paths : state.clientPaths) {
+            uploads.add(state.clientPool.submit(
+                    () -> new BatchClient(paths, HOSTNAME, state.port, CompressionCodecs.NONE,
+                            state.transportConfig, false).start()));
+        }
+        for (Future<?> upload : uploads) {
+            upload.get();
+        }
+    }
+
+}
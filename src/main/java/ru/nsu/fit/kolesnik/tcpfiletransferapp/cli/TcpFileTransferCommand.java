@@ -1,30 +1,129 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.cli;
 
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.client.BatchClient;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.client.Client;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.client.Downloader;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.Server;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ServerEngine;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.nio.NioServer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Command(name = "tcp-file-transfer", version = "tcp-file-transfer 1.0", mixinStandardHelpOptions = true)
 public class TcpFileTransferCommand implements Runnable {
 
     @Command(name = "server", description = "Starts server")
     public void startServer(
-            @Option(names = {"--port"}, description = "server port", paramLabel = "<port>", required = true) int port) {
-        Server server = new Server(port);
-        server.start();
+            @Option(names = {"--port"}, description = "server port", paramLabel = "<port>", required = true) int port,
+            @Option(names = {"--engine"}, description = "server engine: ${COMPLETION-CANDIDATES}",
+                    paramLabel = "<engine>", defaultValue = "BLOCKING") ServerEngine engine,
+            @Option(names = {"--event-loops"}, description = "number of event loop threads of NIO engine",
+                    paramLabel = "<number>") Integer eventLoopsNumber,
+            @Option(names = {"--metrics-port"}, description = "local port of Prometheus metrics endpoint",
+                    paramLabel = "<port>") Integer metricsPort,
+            @Option(names = {"--max-client-rate"}, description = "maximum transfer rate of one client address in "
+                    + "bytes/s, e.g. 5M", paramLabel = "<rate>") String maxClientRate,
+            @Option(names = {"--client-weight"}, description = "fair share weight of client address, may be given "
+                    + "several times", paramLabel = "<address>=<weight>") Map<String, Double> clientWeights,
+            @Option(names = {"--dedup"}, description = "store uploads with already stored content as links")
+            boolean deduplication,
+            @Option(names = {"--file-cache-size"}, description = "total size of files kept mapped for downloads, "
+                    + "e.g. 256M", paramLabel = "<size>", defaultValue = "256M") String fileCacheSize,
+            @Option(names = {"--storage-root"}, description = "directory of storage volume, may be given several "
+                    + "times", paramLabel = "<path>") List<String> storageRoots,
+            @Option(names = {"--max-transfers"}, description = "maximum number of concurrent uploads, 0 for no limit",
+                    paramLabel = "<number>", defaultValue = "0") int maxTransfers,
+            @Option(names = {"--max-in-flight-bytes"}, description = "maximum total size of concurrent uploads, "
+                    + "e.g. 1G, 0 for no limit", paramLabel = "<size>", defaultValue = "0") String maxInFlightBytes,
+            @Option(names = {"--max-queued-transfers"}, description = "maximum number of uploads waiting for "
+                    + "admission", paramLabel = "<number>", defaultValue = "1024") int maxQueuedTransfers,
+            @Option(names = {"--queue-timeout"}, description = "seconds upload may wait for admission",
+                    paramLabel = "<seconds>", defaultValue = "30") long queueTimeout,
+            @Option(names = {"--drain-timeout"}, description = "seconds running transfers may take to finish on "
+                    + "shutdown", paramLabel = "<seconds>", defaultValue = "30") long drainTimeout,
+            @Mixin TransportOptions transportOptions) {
+        TransportConfig transportConfig = transportOptions.toTransportConfig();
+        BandwidthController bandwidthController = new BandwidthController(transportConfig.getMaxRate(),
+                maxClientRate != null ? TransportConfig.parseSize("max-client-rate", maxClientRate, 0, Long.MAX_VALUE)
+                        : 0,
+                clientWeights != null ? clientWeights : Map.of());
+        long fileCacheCapacity = TransportConfig.parseSize("file-cache-size", fileCacheSize, 0, Long.MAX_VALUE);
+        List<String> uploadsDirectoryNames = storageRoots != null ? storageRoots
+                : List.of(Server.UPLOADS_DIRECTORY_NAME);
+        AdmissionController admissionController = new AdmissionController(maxTransfers,
+                TransportConfig.parseSize("max-in-flight-bytes", maxInFlightBytes, 0, Long.MAX_VALUE),
+                maxQueuedTransfers, TimeUnit.SECONDS.toMillis(queueTimeout));
+        long drainTimeoutMillis = TimeUnit.SECONDS.toMillis(drainTimeout);
+        if (engine == ServerEngine.NIO) {
+            NioServer server = new NioServer(port,
+                    eventLoopsNumber != null ? eventLoopsNumber : Runtime.getRuntime().availableProcessors(),
+                    metricsPort, transportConfig, bandwidthController, deduplication, fileCacheCapacity,
+                    uploadsDirectoryNames, admissionController, drainTimeoutMillis);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
+            server.start();
+        } else {
+            Server server = new Server(port, engine, metricsPort, transportConfig, bandwidthController,
+                    deduplication, fileCacheCapacity, uploadsDirectoryNames, admissionController, drainTimeoutMillis);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
+            server.start();
+        }
     }
 
     @Command(name = "client", description = "Starts client")
     public void startClient(
-            @Option(names = {"--path"}, description = "file path", paramLabel = "<path>", required = true)
-            String filePath,
+            @Option(names = {"--path"}, description = "file or directory path, may be given several times",
+                    paramLabel = "<path>", required = true, arity = "1..*")
+            List<String> paths,
+            @Option(names = {"--hostname"}, description = "server hostname", paramLabel = "<hostname>", required = true)
+            String serverHostname,
+            @Option(names = {"--port"}, description = "server port", paramLabel = "<port>", required = true)
+            int serverPort,
+            @Option(names = {"--streams"}, description = "number of parallel connections used to upload file",
+                    paramLabel = "<number>", defaultValue = "1") int streamsNumber,
+            @Option(names = {"--compression"}, description = "compression of transferred data: none, deflate or "
+                    + "name of pluggable codec", paramLabel = "<codec>", defaultValue = "none") String compression,
+            @Option(names = {"--dedup"}, description = "skip upload of files whose content is already stored on server")
+            boolean deduplication,
+            @Option(names = {"--delta"}, description = "upload only blocks changed since the version stored on server")
+            boolean delta,
+            @Mixin TransportOptions transportOptions) {
+        if (paths.size() == 1 && !Files.isDirectory(Path.of(paths.get(0)))) {
+            Client client = new Client(paths.get(0), serverHostname, serverPort, streamsNumber, compression,
+                    transportOptions.toTransportConfig(), deduplication, delta);
+            client.start();
+        } else {
+            BatchClient batchClient = new BatchClient(paths, serverHostname, serverPort, compression,
+                    transportOptions.toTransportConfig(), deduplication);
+            batchClient.start();
+        }
+    }
+
+    @Command(name = "download", description = "Downloads stored file from server")
+    public void startDownload(
+            @Option(names = {"--name"}, description = "name of stored file", paramLabel = "<name>", required = true)
+            String fileName,
             @Option(names = {"--hostname"}, description = "server hostname", paramLabel = "<hostname>", required = true)
             String serverHostname,
             @Option(names = {"--port"}, description = "server port", paramLabel = "<port>", required = true)
-            int serverPort) {
-        Client client = new Client(filePath, serverHostname, serverPort);
-        client.start();
+            int serverPort,
+            @Option(names = {"--output"}, description = "path of downloaded file, stored file name by default",
+                    paramLabel = "<path>") String outputPath,
+            @Option(names = {"--streams"}, description = "number of parallel connections used to download file",
+                    paramLabel = "<number>", defaultValue = "1") int streamsNumber,
+            @Mixin TransportOptions transportOptions) {
+        Downloader downloader = new Downloader(fileName, outputPath, serverHostname, serverPort, streamsNumber,
+                transportOptions.toTransportConfig());
+        downloader.start();
     }
 
     @Override
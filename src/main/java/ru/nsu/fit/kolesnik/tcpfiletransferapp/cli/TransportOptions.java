@@ -0,0 +1,75 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.cli;
+
+import picocli.CommandLine.Option;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.nio.file.Path;
+import java.util.Properties;
+
+public class TransportOptions {
+
+    @Option(names = {"--transport-config"}, description = "transport configuration properties file",
+            paramLabel = "<path>")
+    private Path configPath;
+
+    @Option(names = {"--send-buffer-size"}, description = "socket send buffer size, e.g. 4M",
+            paramLabel = "<size>")
+    private String sendBufferSize;
+
+    @Option(names = {"--receive-buffer-size"}, description = "socket receive buffer size, e.g. 4M",
+            paramLabel = "<size>")
+    private String receiveBufferSize;
+
+    @Option(names = {"--tcp-no-delay"}, description = "disable Nagle's algorithm (default true)",
+            paramLabel = "<boolean>")
+    private String tcpNoDelay;
+
+    @Option(names = {"--frame-size"}, description = "maximum size of data frame from 32K to 8M",
+            paramLabel = "<size>")
+    private String frameSize;
+
+    @Option(names = {"--backlog"}, description = "maximum number of pending connections", paramLabel = "<number>")
+    private String backlog;
+
+    @Option(names = {"--write-buffer-size"}, description = "size of buffer coalescing small writes",
+            paramLabel = "<size>")
+    private String writeBufferSize;
+
+    @Option(names = {"--auto-tune"}, description = "size socket buffers from measured round trip time",
+            paramLabel = "<boolean>", arity = "0..1", fallbackValue = "true")
+    private String autoTune;
+
+    @Option(names = {"--target-bandwidth"}, description = "bandwidth in bytes/s used by auto tune, e.g. 125M",
+            paramLabel = "<size>")
+    private String targetBandwidth;
+
+    @Option(names = {"--max-rate"}, description = "maximum total transfer rate in bytes/s, e.g. 10M",
+            paramLabel = "<rate>")
+    private String maxRate;
+
+    @Option(names = {"--key-file"}, description = "file with pre-shared key encrypting transferred data",
+            paramLabel = "<path>")
+    private String keyFile;
+
+    TransportConfig toTransportConfig() {
+        Properties properties = configPath != null ? TransportConfig.load(configPath) : new Properties();
+        override(properties, TransportConfig.SEND_BUFFER_SIZE, sendBufferSize);
+        override(properties, TransportConfig.RECEIVE_BUFFER_SIZE, receiveBufferSize);
+        override(properties, TransportConfig.TCP_NO_DELAY, tcpNoDelay);
+        override(properties, TransportConfig.FRAME_SIZE, frameSize);
+        override(properties, TransportConfig.BACKLOG, backlog);
+        override(properties, TransportConfig.WRITE_BUFFER_SIZE, writeBufferSize);
+        override(properties, TransportConfig.AUTO_TUNE, autoTune);
+        override(properties, TransportConfig.TARGET_BANDWIDTH, targetBandwidth);
+        override(properties, TransportConfig.MAX_RATE, maxRate);
+        override(properties, TransportConfig.KEY_FILE, keyFile);
+        return new TransportConfig(properties);
+    }
+
+    private void override(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
+
+public class BatchClient {
+
+    private static final int MAX_FILE_PATH_UTF8_LENGTH = 4096;
+    private static final long MAX_FILE_SIZE = 1099511627776L;
+    private static final long MAX_BUFFERED_FILE_SIZE = 262144;
+
+    private static final Logger logger = LogManager.getLogger(BatchClient.class);
+
+    private final List<File> uploadingFiles;
+    private final String compression;
+    private final TransportConfig transportConfig;
+    private final boolean deduplication;
+    private final TokenBucket rateLimiter;
+    private final String serverHostname;
+    private final int serverPort;
+    private SocketChannel socketChannel;
+    private Socket socket;
+    private FileBodyWriter fileBodyWriter;
+    private int uploadedFilesNumber;
+    private int storedFilesNumber;
+
+    public BatchClient(List<String> paths, String serverHostname, int serverPort, String compression,
+                       TransportConfig transportConfig, boolean deduplication) {
+        uploadingFiles = collectUploadingFiles(paths);
+        if (uploadingFiles.isEmpty()) {
+            logger.error("No files to upload!");
+            throw new IllegalArgumentException("No files to upload!");
+        }
+        if (!CompressionCodecs.isSupported(compression)) {
+            logger.error("Unknown compression {}!", compression);
+            throw new IllegalArgumentException(String.format("Unknown compression %s!", compression));
+        }
+        this.compression = compression;
+        this.transportConfig = transportConfig;
+        this.deduplication = deduplication;
+        rateLimiter = new TokenBucket(transportConfig.getMaxRate());
+        this.serverHostname = serverHostname;
+        this.serverPort = serverPort;
+        connect();
+        logger.info("Client created successfully");
+    }
+
+    public void start() {
+        ExecutorService resultReceiver = Executors.newSingleThreadExecutor();
+        try {
+            List<File> pendingFiles = uploadingFiles;
+            int busyRepliesNumber = 0;
+            while (true) {
+                List<File> rejectedFiles = new ArrayList<>();
+                FileTransferMessage busyMessage = uploadFiles(pendingFiles, rejectedFiles, resultReceiver);
+                if (busyMessage == null) {
+                    break;
+                }
+                logger.info("{} files were not accepted by server", rejectedFiles.size());
+                Client.awaitRetry(busyMessage, ++busyRepliesNumber);
+                closeConnection();
+                connect();
+                pendingFiles = rejectedFiles;
+            }
+            logger.info("Files upload finished");
+            logger.info("{} of {} files uploaded successfully", uploadedFilesNumber + storedFilesNumber,
+                    uploadingFiles.size());
+        } catch (IOException | ExecutionException e) {
+            logger.error("Error occurred while uploading files!");
+            shutdown();
+            throw new ClientException("Error occurred while uploading files!", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Files upload was interrupted!");
+            shutdown();
+            throw new ClientException("Files upload was interrupted!", e);
+        } finally {
+            resultReceiver.shutdownNow();
+        }
+        shutdown();
+    }
+
+    private void connect() {
+        try {
+            socketChannel = transportConfig.connect(serverHostname, serverPort);
+            socket = socketChannel.socket();
+        } catch (IOException e) {
+            logger.error("Could not connect to server {}:{}!", serverHostname, serverPort);
+            throw new ClientException(
+                    String.format("Could not connect to server %s:%s!", serverHostname, serverPort), e);
+        }
+        fileBodyWriter = new FileBodyWriter(socketChannel, rateLimiter);
+    }
+
+    private FileTransferMessage uploadFiles(List<File> files, List<File> rejectedFiles,
+                                            ExecutorService resultReceiver)
+            throws IOException, ExecutionException, InterruptedException {
+        DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), transportConfig.getWriteBufferSize()));
+        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+        DataFrameWriter dataFrameWriter = negotiateConnection(dataOutputStream, dataInputStream);
+        FrameCipher frameCipher = dataFrameWriter.getFrameCipher();
+        Set<File> storedFiles = deduplication
+                ? lookUpStoredFiles(files, frameCipher, dataOutputStream, dataInputStream) : Set.of();
+        if (!storedFiles.isEmpty()) {
+            logger.info("{} files are already stored on server, their upload skipped", storedFiles.size());
+            storedFilesNumber += storedFiles.size();
+        }
+        List<File> sentFiles = new ArrayList<>();
+        for (File file : files) {
+            if (!storedFiles.contains(file)) {
+                sentFiles.add(file);
+            }
+        }
+        logger.info("Uploading {} files to server...", sentFiles.size());
+        BlockingQueue<File> unacknowledgedFiles = new LinkedBlockingQueue<>();
+        Future<FileTransferMessage> busyMessageFuture = resultReceiver.submit(() -> receiveUploadResults(
+                sentFiles.size(), unacknowledgedFiles, frameCipher, dataInputStream));
+        int sentFilesNumber = 0;
+        try {
+            for (File sentFile : sentFiles) {
+                unacknowledgedFiles.add(sentFile);
+                sentFilesNumber++;
+                uploadFile(sentFile, dataFrameWriter, dataOutputStream);
+            }
+            dataOutputStream.flush();
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            socket.close();
+            if (receiveBusyMessage(busyMessageFuture) == null) {
+                throw e;
+            }
+        }
+        FileTransferMessage busyMessage = busyMessageFuture.get();
+        if (dataFrameWriter.isCompressing() && dataFrameWriter.getWireBytesWritten() > 0) {
+            logger.info("Compression ratio: {}", String.format("%.2f",
+                    (double) dataFrameWriter.getRawBytesWritten() / dataFrameWriter.getWireBytesWritten()));
+        }
+        if (busyMessage != null) {
+            rejectedFiles.addAll(unacknowledgedFiles);
+            rejectedFiles.addAll(sentFiles.subList(sentFilesNumber, sentFiles.size()));
+        }
+        return busyMessage;
+    }
+
+    private List<File> collectUploadingFiles(List<String> paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            if (Files.isDirectory(Path.of(path))) {
+                try (Stream<Path> directoryFiles = Files.walk(Path.of(path))) {
+                    directoryFiles.filter(Files::isRegularFile).sorted().map(Path::toFile).forEach(files::add);
+                } catch (IOException e) {
+                    logger.error("Could not list directory {}!", path);
+                    throw new ClientException(String.format("Could not list directory %s!", path), e);
+                }
+            } else {
+                files.add(new File(path));
+            }
+        }
+        for (File file : files) {
+            if (file.getPath().getBytes(StandardCharsets.UTF_8).length > MAX_FILE_PATH_UTF8_LENGTH) {
+                logger.error("File path {} is too long!", file.getPath());
+                throw new IllegalArgumentException(String.format("File path %s is too long!", file.getPath()));
+            }
+            if (file.length() > MAX_FILE_SIZE) {
+                logger.error("File {} is too big!", file.getPath());
+                throw new IllegalArgumentException(String.format("File %s is too big!", file.getPath()));
+            }
+        }
+        return files;
+    }
+
+    private DataFrameWriter negotiateConnection(DataOutputStream dataOutputStream, DataInputStream dataInputStream)
+            throws IOException {
+        EncryptionKey encryptionKey = transportConfig.getEncryptionKey();
+        if (CompressionCodecs.NONE.equals(compression)
+                && transportConfig.getFrameSize() == FileTransferMessage.DEFAULT_DATA_SIZE && encryptionKey == null) {
+            return new DataFrameWriter(CompressionCodecs.find(compression), null,
+                    FileTransferMessage.DEFAULT_DATA_SIZE, rateLimiter);
+        }
+        byte[] clientNonce = encryptionKey != null ? encryptionKey.generateNonce() : new byte[0];
+        sendFileTransferMessage(FileTransferMessage.hello(compression,
+                transportConfig.getFrameSize(), clientNonce), dataOutputStream);
+        FileTransferMessage helloMessage = receiveFileTransferMessage(dataInputStream);
+        if (helloMessage.getType() != FileTransferMessageType.HELLO) {
+            throw new IOException("Server did not answer hello message!");
+        }
+        if (!helloMessage.getCompression().equals(compression)) {
+            logger.warn("Server does not support {} compression, uploading uncompressed data", compression);
+        }
+        if (helloMessage.getDataSize() < FileTransferMessage.DEFAULT_DATA_SIZE
+                || helloMessage.getDataSize() > transportConfig.getFrameSize()) {
+            throw new IOException("Server sent invalid frame size!");
+        }
+        FrameCipher frameCipher = encryptionKey != null ? SessionEncryption.establish(encryptionKey, clientNonce,
+                helloMessage, dataOutputStream, dataInputStream) : null;
+        return new DataFrameWriter(CompressionCodecs.find(helloMessage.getCompression()), frameCipher,
+                helloMessage.getDataSize(), rateLimiter);
+    }
+
+    private FileTransferMessage receiveBusyMessage(Future<FileTransferMessage> busyMessageFuture)
+            throws InterruptedException {
+        try {
+            return busyMessageFuture.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private Set<File> lookUpStoredFiles(List<File> files, FrameCipher frameCipher, DataOutputStream dataOutputStream,
+                                        DataInputStream dataInputStream) throws IOException {
+        List<File> lookedUpFiles = new ArrayList<>();
+        for (File uploadingFile : files) {
+            try (FileChannel fileChannel = FileChannel.open(uploadingFile.toPath(), StandardOpenOption.READ)) {
+                long fileSize = fileChannel.size();
+                if (fileSize < ContentDigest.MIN_FILE_SIZE) {
+                    continue;
+                }
+                String fileName = uploadingFile.getName();
+                writeFileTransferMessage(FileTransferMessage.lookup(fileName, fileSize,
+                        ContentDigest.compute(fileChannel)), frameCipher, dataOutputStream);
+                lookedUpFiles.add(uploadingFile);
+            }
+        }
+        dataOutputStream.flush();
+        Set<File> storedFiles = new HashSet<>();
+        for (File lookedUpFile : lookedUpFiles) {
+            FileTransferMessage lookupResultMessage = receiveFileTransferMessage(dataInputStream, frameCipher);
+            if (lookupResultMessage.getType() == FileTransferMessageType.SUCCESS) {
+                storedFiles.add(lookedUpFile);
+            } else if (lookupResultMessage.getType() != FileTransferMessageType.MISSING) {
+                throw new IOException("Server did not answer lookup message!");
+            }
+        }
+        return storedFiles;
+    }
+
+    private void uploadFile(File uploadingFile, DataFrameWriter dataFrameWriter, DataOutputStream dataOutputStream)
+            throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(uploadingFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            String fileName = uploadingFile.getName();
+            byte[] contentDigest = ContentDigest.compute(fileChannel);
+            writeFileTransferMessage(FileTransferMessage.init(fileName, fileSize,
+                    Client.computeTransferId(fileName, fileSize, contentDigest), contentDigest, 0, fileSize, 1),
+                    dataFrameWriter.getFrameCipher(), dataOutputStream);
+            CRC32C fileChecksum = new CRC32C();
+            if (fileSize <= MAX_BUFFERED_FILE_SIZE || dataFrameWriter.isCompressing()
+                    || dataFrameWriter.isEncrypting()) {
+                dataFrameWriter.writeFileData(fileChannel, 0, fileSize, fileChecksum, dataOutputStream);
+            } else {
+                fileBodyWriter.writeFileBody(fileChannel, 0, fileSize, fileChecksum, dataOutputStream);
+            }
+            writeFileTransferMessage(FileTransferMessage.fin((int) fileChecksum.getValue()),
+                    dataFrameWriter.getFrameCipher(), dataOutputStream);
+        }
+    }
+
+    private FileTransferMessage receiveUploadResults(int filesNumber, BlockingQueue<File> unacknowledgedFiles,
+                                                     FrameCipher frameCipher, DataInputStream dataInputStream)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < filesNumber; i++) {
+            FileTransferMessage transferResultMessage = receiveFileTransferMessage(dataInputStream, frameCipher);
+            if (transferResultMessage.getType() == FileTransferMessageType.BUSY) {
+                socket.close();
+                return transferResultMessage;
+            }
+            File uploadedFile = unacknowledgedFiles.take();
+            if (transferResultMessage.getType() == FileTransferMessageType.SUCCESS) {
+                uploadedFilesNumber++;
+            } else {
+                logger.error("File {} upload failed! Server did not receive whole file!", uploadedFile.getPath());
+            }
+        }
+        return null;
+    }
+
+    private void closeConnection() throws IOException {
+        fileBodyWriter.shutdown();
+        socket.close();
+    }
+
+    private void shutdown() {
+        logger.info("Shutting client down");
+        try {
+            closeConnection();
+        } catch (IOException e) {
+            logger.error("Failed to shutdown client gracefully!");
+            throw new ClientException("Failed to shutdown client gracefully!", e);
+        }
+        logger.info("Client shutdown");
+    }
+
+}
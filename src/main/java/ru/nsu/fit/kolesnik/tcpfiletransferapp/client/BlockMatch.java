@@ -0,0 +1,27 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import lombok.Getter;
+
+@Getter
+class BlockMatch {
+
+    private final long position;
+    private final long basisOffset;
+    private long length;
+
+    BlockMatch(long position, long basisOffset, long length) {
+        this.position = position;
+        this.basisOffset = basisOffset;
+        this.length = length;
+    }
+
+    boolean extend(BlockMatch next, long maxLength) {
+        if (next.position != position + length || next.basisOffset != basisOffset + length
+                || length + next.length > maxLength) {
+            return false;
+        }
+        length += next.length;
+        return true;
+    }
+
+}
@@ -2,28 +2,43 @@ package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
-import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
-
-import java.io.*;
-import java.net.Socket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-
-import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
-import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class Client {
 
     private static final int MAX_FILE_PATH_UTF8_LENGTH = 4096;
     private static final long MAX_FILE_SIZE = 1099511627776L;
+    private static final long MIN_STREAM_RANGE_SIZE = 4194304;
+    private static final int MAX_BUSY_REPLIES_NUMBER = 30;
 
     private static final Logger logger = LogManager.getLogger(Client.class);
 
     private final File uploadingFile;
-    private final Socket socket;
+    private final List<FilePartUploader> partUploaders;
+    private final boolean deduplication;
 
-    public Client(String filePath, String serverHostname, int serverPort) {
+    public Client(String filePath, String serverHostname, int serverPort, int streamsNumber, String compression,
+                  TransportConfig transportConfig, boolean deduplication, boolean delta) {
         uploadingFile = new File(filePath);
         if (filePath.getBytes(StandardCharsets.UTF_8).length > MAX_FILE_PATH_UTF8_LENGTH) {
             logger.error("File path is too long!");
@@ -33,31 +48,38 @@ public class Client {
             logger.error("File is too big!");
             throw new IllegalArgumentException("File is too big!");
         }
-        try {
-            socket = new Socket(serverHostname, serverPort);
-        } catch (IOException e) {
-            logger.error("Could not connect to server {}:{}!", serverHostname, serverPort);
-            throw new ClientException(
-                    String.format("Could not connect to server %s:%s!", serverHostname, serverPort), e);
+        if (streamsNumber <= 0) {
+            logger.error("Number of streams must be positive!");
+            throw new IllegalArgumentException("Number of streams must be positive!");
         }
+        if (!CompressionCodecs.isSupported(compression)) {
+            logger.error("Unknown compression {}!", compression);
+            throw new IllegalArgumentException(String.format("Unknown compression %s!", compression));
+        }
+        this.deduplication = deduplication;
+        partUploaders = new ArrayList<>();
+        createPartUploaders(serverHostname, serverPort, delta ? 1 : streamsNumber, compression, delta,
+                transportConfig);
         logger.info("Client created successfully");
     }
 
     public void start() {
-        try (FileInputStream fileInputStream = new FileInputStream(uploadingFile);
-             DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-             DataInputStream dataInputStream = new DataInputStream(socket.getInputStream())) {
-            logger.info("Initializing file upload...");
-            initializeFileUpload(dataOutputStream);
-            logger.info("File upload initialized");
-            logger.info("Uploading file to server...");
-            boolean fileUploadedSuccessfully = uploadFile(fileInputStream, dataOutputStream, dataInputStream);
+        try (FileChannel fileChannel = FileChannel.open(uploadingFile.toPath(), StandardOpenOption.READ)) {
+            byte[] contentDigest = ContentDigest.compute(fileChannel);
+            if (isStoredOnServer(fileChannel, contentDigest)) {
+                logger.info("File is already stored on server, upload skipped");
+                shutdown();
+                return;
+            }
+            logger.info("Uploading file to server over {} stream(s)...", partUploaders.size());
+            boolean fileUploadedSuccessfully = uploadFile(fileChannel, contentDigest);
             logger.info("File upload finished");
             if (fileUploadedSuccessfully) {
                 logger.info("File uploaded successfully");
             } else {
                 logger.error("File upload failed! Server did not receive whole file!");
             }
+            printCompressionRatio();
         } catch (IOException e) {
             logger.error("Error occurred while starting client!");
             shutdown();
@@ -66,51 +88,103 @@ public class Client {
         shutdown();
     }
 
-    private void initializeFileUpload(DataOutputStream dataOutputStream) {
-        FileTransferMessage transferInitializingMessage = new FileTransferMessage(FileTransferMessageType.INIT,
-                uploadingFile.getName().getBytes(StandardCharsets.UTF_8).length, uploadingFile.getName(),
-                uploadingFile.length());
+    private void createPartUploaders(String serverHostname, int serverPort, int streamsNumber, String compression,
+                                     boolean delta, TransportConfig transportConfig) {
+        long fileSize = uploadingFile.length();
+        int usedStreamsNumber = (int) Math.max(1, Math.min(streamsNumber, fileSize / MIN_STREAM_RANGE_SIZE));
+        long rangeSize = fileSize / usedStreamsNumber;
+        TokenBucket rateLimiter = new TokenBucket(transportConfig.getMaxRate());
         try {
-            sendFileTransferMessage(transferInitializingMessage, dataOutputStream);
-        } catch (IOException e) {
-            logger.error("Error occurred while initializing file upload!");
+            for (int i = 0; i < usedStreamsNumber; i++) {
+                long offset = i * rangeSize;
+                long length = i == usedStreamsNumber - 1 ? fileSize - offset : rangeSize;
+                partUploaders.add(new FilePartUploader(uploadingFile.getName(), fileSize, offset, length,
+                        usedStreamsNumber, compression, delta, serverHostname, serverPort, transportConfig,
+                        rateLimiter));
+            }
+        } catch (ClientException e) {
             shutdown();
-            throw new ClientException("Error occurred while initializing file upload!", e);
+            throw e;
         }
     }
 
-    private boolean uploadFile(FileInputStream fileInputStream, DataOutputStream dataOutputStream,
-                               DataInputStream dataInputStream) {
+    static long computeTransferId(String fileName, long fileSize, byte[] contentDigest) {
         try {
-            byte[] buffer = new byte[FileTransferMessage.MAX_DATA_SIZE];
-            int bytesRead;
-            while ((bytesRead = fileInputStream.read(buffer, 0, FileTransferMessage.MAX_DATA_SIZE)) != -1) {
-                byte[] data = Arrays.copyOfRange(buffer, 0, bytesRead);
-                FileTransferMessage dataMessage = new FileTransferMessage(FileTransferMessageType.DATA, data.length,
-                        data);
-                sendFileTransferMessage(dataMessage, dataOutputStream);
-            }
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(fileName.getBytes(StandardCharsets.UTF_8));
+            messageDigest.update(ByteBuffer.allocate(Long.BYTES).putLong(fileSize).array());
+            messageDigest.update(contentDigest);
+            return ByteBuffer.wrap(messageDigest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Could not compute transfer id!");
+            throw new ClientException("Could not compute transfer id!", e);
+        }
+    }
 
-            FileTransferMessage transferFinalizingMessage = new FileTransferMessage(FileTransferMessageType.FIN);
-            sendFileTransferMessage(transferFinalizingMessage, dataOutputStream);
+    static void awaitRetry(FileTransferMessage busyMessage, int busyRepliesNumber) throws IOException {
+        if (busyRepliesNumber > MAX_BUSY_REPLIES_NUMBER) {
+            throw new IOException("Server is busy!");
+        }
+        logger.info("Server is busy with {} queued transfer(s), retrying in {} ms",
+                busyMessage.getQueuedTransfersNumber(), busyMessage.getRetryAfterMillis());
+        TokenBucket.pause(TimeUnit.MILLISECONDS.toNanos(busyMessage.getRetryAfterMillis()));
+    }
 
-            FileTransferMessage transferResultMessage = receiveFileTransferMessage(dataInputStream);
+    private boolean isStoredOnServer(FileChannel fileChannel, byte[] contentDigest) throws IOException {
+        if (!deduplication || fileChannel.size() < ContentDigest.MIN_FILE_SIZE) {
+            return false;
+        }
+        return partUploaders.get(0).isStoredOnServer(contentDigest);
+    }
 
-            return transferResultMessage.getType() == FileTransferMessageType.SUCCESS;
-        } catch (IOException e) {
+    private boolean uploadFile(FileChannel fileChannel, byte[] contentDigest) {
+        if (partUploaders.size() == 1) {
+            return partUploaders.get(0).upload(fileChannel, contentDigest);
+        }
+        ExecutorService threadPool = Executors.newFixedThreadPool(partUploaders.size());
+        try {
+            List<Future<Boolean>> partUploadResults = new ArrayList<>();
+            for (FilePartUploader partUploader : partUploaders) {
+                partUploadResults.add(threadPool.submit(() -> partUploader.upload(fileChannel, contentDigest)));
+            }
+            boolean fileUploadedSuccessfully = true;
+            for (Future<Boolean> partUploadResult : partUploadResults) {
+                fileUploadedSuccessfully &= partUploadResult.get();
+            }
+            return fileUploadedSuccessfully;
+        } catch (ExecutionException e) {
             logger.error("Error occurred while uploading file!");
             shutdown();
-            throw new ClientException("Error occurred while uploading file!", e);
+            throw new ClientException("Error occurred while uploading file!", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("File upload was interrupted!");
+            shutdown();
+            throw new ClientException("File upload was interrupted!", e);
+        } finally {
+            threadPool.shutdown();
+        }
+    }
+
+    private void printCompressionRatio() {
+        long rawBytesWritten = 0;
+        long wireBytesWritten = 0;
+        for (FilePartUploader partUploader : partUploaders) {
+            DataFrameWriter dataFrameWriter = partUploader.getDataFrameWriter();
+            if (dataFrameWriter != null && dataFrameWriter.isCompressing()) {
+                rawBytesWritten += dataFrameWriter.getRawBytesWritten();
+                wireBytesWritten += dataFrameWriter.getWireBytesWritten();
+            }
+        }
+        if (wireBytesWritten > 0) {
+            logger.info("Compression ratio: {}", String.format("%.2f", (double) rawBytesWritten / wireBytesWritten));
         }
     }
 
     private void shutdown() {
         logger.info("Shutting client down");
-        try {
-            socket.close();
-        } catch (IOException e) {
-            logger.error("Failed to shutdown client gracefully!");
-            throw new ClientException("Failed to shutdown client gracefully!", e);
+        for (FilePartUploader partUploader : partUploaders) {
+            partUploader.shutdown();
         }
         logger.info("Client shutdown");
     }
@@ -1,7 +1,12 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
 
+import java.io.Serial;
+
 public class ClientException extends RuntimeException {
 
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     public ClientException(String message, Throwable cause) {
         super(message, cause);
     }
@@ -0,0 +1,77 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+class ConnectionPool {
+
+    private final String serverHostname;
+    private final int serverPort;
+    private final String compression;
+    private final TransportConfig transportConfig;
+    private final TokenBucket rateLimiter;
+    private final Deque<PooledConnection> idleConnections;
+    private boolean closed;
+
+    ConnectionPool(String serverHostname, int serverPort, String compression, TransportConfig transportConfig,
+                   TokenBucket rateLimiter) {
+        this.serverHostname = serverHostname;
+        this.serverPort = serverPort;
+        this.compression = compression;
+        this.transportConfig = transportConfig;
+        this.rateLimiter = rateLimiter;
+        idleConnections = new ArrayDeque<>();
+        closed = false;
+    }
+
+    PooledConnection acquire() throws IOException {
+        synchronized (idleConnections) {
+            PooledConnection connection;
+            while ((connection = idleConnections.pollFirst()) != null) {
+                if (connection.isOpen()) {
+                    return connection;
+                }
+            }
+        }
+        return connect();
+    }
+
+    PooledConnection connect() throws IOException {
+        return new PooledConnection(serverHostname, serverPort, compression, transportConfig, rateLimiter);
+    }
+
+    void release(PooledConnection connection) {
+        synchronized (idleConnections) {
+            if (!closed && connection.isOpen()) {
+                idleConnections.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    void warmUp(int connectionsNumber) throws IOException {
+        for (int i = 0; i < connectionsNumber; i++) {
+            release(connect());
+        }
+    }
+
+    void close() {
+        synchronized (idleConnections) {
+            closed = true;
+            for (PooledConnection connection : idleConnections) {
+                connection.close();
+            }
+            idleConnections.clear();
+        }
+    }
+
+    String getServerAddress() {
+        return serverHostname + ":" + serverPort;
+    }
+
+}
@@ -0,0 +1,120 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodec;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.Compressor;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeCompressedFileTransferData;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeSealedFileTransferData;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.COMPRESSED_HEADER_SIZE;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.DATA_HEADER_SIZE;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferData;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.SEALED_HEADER_SIZE;
+
+class DataFrameWriter {
+
+    private final Compressor compressor;
+    @Getter
+    private final FrameCipher frameCipher;
+    private final int dataSize;
+    private final ByteBuffer rawBuffer;
+    private final ByteBuffer compressedBuffer;
+    private final CRC32C frameChecksum;
+    private final TokenBucket rateLimiter;
+    @Getter
+    private long rawBytesWritten;
+    @Getter
+    private long wireBytesWritten;
+
+    DataFrameWriter(CompressionCodec compressionCodec, FrameCipher frameCipher, int dataSize,
+                    TokenBucket rateLimiter) {
+        compressor = compressionCodec != null ? compressionCodec.createCompressor() : null;
+        this.frameCipher = frameCipher;
+        this.dataSize = dataSize;
+        int tagSize = frameCipher != null ? FrameCipher.TAG_SIZE : 0;
+        rawBuffer = ByteBuffer.allocate(dataSize + tagSize);
+        compressedBuffer = compressor != null ? ByteBuffer.allocate(dataSize + tagSize) : null;
+        frameChecksum = new CRC32C();
+        this.rateLimiter = rateLimiter;
+        rawBytesWritten = 0;
+        wireBytesWritten = 0;
+    }
+
+    boolean isCompressing() {
+        return compressor != null;
+    }
+
+    boolean isEncrypting() {
+        return frameCipher != null;
+    }
+
+    void writeFileData(FileChannel fileChannel, long position, long length, CRC32C fileChecksum,
+                       DataOutputStream dataOutputStream) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            rawBuffer.clear().limit((int) Math.min(dataSize, end - position));
+            while (rawBuffer.hasRemaining()) {
+                int bytesRead = fileChannel.read(rawBuffer, position + rawBuffer.position());
+                if (bytesRead == -1) {
+                    throw new EOFException("File was truncated during upload!");
+                }
+            }
+            rawBuffer.flip();
+            position += rawBuffer.remaining();
+            fileChecksum.update(rawBuffer.array(), 0, rawBuffer.remaining());
+            rateLimiter.acquire(writeFrame(dataOutputStream));
+        }
+    }
+
+    private int writeFrame(DataOutputStream dataOutputStream) throws IOException {
+        int rawSize = rawBuffer.remaining();
+        rawBytesWritten += rawSize;
+        if (frameCipher != null) {
+            return writeSealedFrame(rawSize, dataOutputStream);
+        }
+        frameChecksum.reset();
+        frameChecksum.update(rawBuffer.array(), 0, rawSize);
+        int checksum = (int) frameChecksum.getValue();
+        if (compressor != null && rawSize > COMPRESSED_HEADER_SIZE) {
+            compressedBuffer.clear().limit(rawSize - COMPRESSED_HEADER_SIZE + DATA_HEADER_SIZE - 1);
+            int compressedSize = compressor.compress(rawBuffer, compressedBuffer);
+            if (compressedSize >= 0) {
+                writeCompressedFileTransferData(compressedBuffer.array(), compressedSize, rawSize, checksum,
+                        dataOutputStream);
+                wireBytesWritten += COMPRESSED_HEADER_SIZE + compressedSize;
+                return COMPRESSED_HEADER_SIZE + compressedSize;
+            }
+        }
+        writeFileTransferData(rawBuffer.array(), rawSize, checksum, dataOutputStream);
+        wireBytesWritten += DATA_HEADER_SIZE + rawSize;
+        return DATA_HEADER_SIZE + rawSize;
+    }
+
+    private int writeSealedFrame(int rawSize, DataOutputStream dataOutputStream) throws IOException {
+        ByteBuffer payload = null;
+        if (compressor != null && rawSize > COMPRESSED_HEADER_SIZE) {
+            compressedBuffer.clear().limit(rawSize - 1);
+            if (compressor.compress(rawBuffer, compressedBuffer) >= 0) {
+                payload = compressedBuffer.flip();
+            }
+        }
+        boolean compressed = payload != null;
+        if (!compressed) {
+            payload = rawBuffer.limit(rawSize).position(0);
+        }
+        frameCipher.seal(rawSize, compressed, payload);
+        writeSealedFileTransferData(payload.array(), payload.remaining(), rawSize, compressed, dataOutputStream);
+        wireBytesWritten += SEALED_HEADER_SIZE + payload.remaining();
+        return SEALED_HEADER_SIZE + payload.remaining();
+    }
+
+}
@@ -0,0 +1,198 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.RollingChecksum;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class DeltaScanner {
+
+    private static final int TAGS_NUMBER = 65536;
+    private static final long MIN_SEGMENT_SIZE = 16777216;
+    private static final int READ_BUFFER_SIZE = 1048576;
+
+    private final BlockSignatures signatures;
+    private final int blockSize;
+    private final int[] tagOffsets;
+    private final int[] taggedBlocks;
+
+    DeltaScanner(BlockSignatures signatures) {
+        this.signatures = signatures;
+        blockSize = signatures.getBlockSize();
+        tagOffsets = new int[TAGS_NUMBER + 1];
+        taggedBlocks = new int[signatures.getBlocksNumber()];
+        for (int block = 0; block < signatures.getBlocksNumber(); block++) {
+            tagOffsets[getTag(signatures.getWeakChecksum(block)) + 1]++;
+        }
+        for (int tag = 0; tag < TAGS_NUMBER; tag++) {
+            tagOffsets[tag + 1] += tagOffsets[tag];
+        }
+        int[] nextOffsets = tagOffsets.clone();
+        for (int block = 0; block < signatures.getBlocksNumber(); block++) {
+            taggedBlocks[nextOffsets[getTag(signatures.getWeakChecksum(block))]++] = block;
+        }
+    }
+
+    List<BlockMatch> scan(FileChannel fileChannel, long position, long length) throws IOException {
+        if (length < blockSize || signatures.getBlocksNumber() == 0) {
+            return List.of();
+        }
+        int segmentsNumber = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                length / MIN_SEGMENT_SIZE));
+        long segmentSize = (length + segmentsNumber - 1) / segmentsNumber;
+        long end = position + length;
+        ExecutorService threadPool = Executors.newFixedThreadPool(segmentsNumber);
+        try {
+            List<Future<List<BlockMatch>>> segmentMatches = new ArrayList<>();
+            for (long segmentStart = position; segmentStart < end; segmentStart += segmentSize) {
+                long start = segmentStart;
+                long segmentEnd = Math.min(end, segmentStart + segmentSize);
+                segmentMatches.add(threadPool.submit(() -> scanSegment(fileChannel, start, segmentEnd, end)));
+            }
+            List<BlockMatch> matches = new ArrayList<>();
+            long matchedEnd = position;
+            for (Future<List<BlockMatch>> segment : segmentMatches) {
+                for (BlockMatch match : segment.get()) {
+                    if (match.getPosition() < matchedEnd) {
+                        continue;
+                    }
+                    if (matches.isEmpty() || !matches.getLast().extend(match, FileTransferMessage.MAX_COPY_SIZE)) {
+                        matches.add(match);
+                    }
+                    matchedEnd = match.getPosition() + match.getLength();
+                }
+            }
+            return matches;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scanning file for changes was interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not scan file for changes!", e.getCause());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private List<BlockMatch> scanSegment(FileChannel fileChannel, long start, long end, long limit)
+            throws IOException {
+        List<BlockMatch> matches = new ArrayList<>();
+        MessageDigest strongDigest = BlockSignatures.createStrongDigest();
+        RollingChecksum weakChecksum = new RollingChecksum();
+        ScanWindow window = new ScanWindow(fileChannel, start, limit, blockSize + READ_BUFFER_SIZE);
+        if (!window.fill(blockSize)) {
+            return matches;
+        }
+        weakChecksum.reset(window.buffer, window.start, blockSize);
+        int expectedBlock = -1;
+        while (window.getPosition() < end) {
+            int block = findBlock(weakChecksum.getValue(), window.buffer, window.start, expectedBlock,
+                    strongDigest);
+            if (block >= 0) {
+                matches.add(new BlockMatch(window.getPosition(), (long) block * blockSize, blockSize));
+                expectedBlock = block + 1;
+                window.start += blockSize;
+                if (window.getPosition() >= end || !window.fill(blockSize)) {
+                    break;
+                }
+                weakChecksum.reset(window.buffer, window.start, blockSize);
+            } else {
+                expectedBlock = -1;
+                if (!window.fill(blockSize + 1)) {
+                    break;
+                }
+                weakChecksum.roll(window.buffer[window.start], window.buffer[window.start + blockSize]);
+                window.start++;
+            }
+        }
+        return matches;
+    }
+
+    private int findBlock(int weakChecksum, byte[] buffer, int offset, int expectedBlock,
+                          MessageDigest strongDigest) {
+        int tag = getTag(weakChecksum);
+        byte[] strongChecksum = null;
+        int foundBlock = -1;
+        for (int i = tagOffsets[tag]; i < tagOffsets[tag + 1]; i++) {
+            int block = taggedBlocks[i];
+            if (signatures.getWeakChecksum(block) != weakChecksum) {
+                continue;
+            }
+            if (strongChecksum == null) {
+                strongDigest.update(buffer, offset, blockSize);
+                strongChecksum = strongDigest.digest();
+            }
+            if (signatures.strongChecksumMatches(block, strongChecksum)) {
+                if (block == expectedBlock) {
+                    return block;
+                }
+                if (foundBlock < 0) {
+                    foundBlock = block;
+                }
+            }
+        }
+        return foundBlock;
+    }
+
+    private static int getTag(int weakChecksum) {
+        return ((weakChecksum & 0xFFFF) + (weakChecksum >>> 16)) & 0xFFFF;
+    }
+
+    private static class ScanWindow {
+
+        private final FileChannel fileChannel;
+        private final long limit;
+        private final byte[] buffer;
+        private long bufferPosition;
+        private int length;
+        private int start;
+
+        private ScanWindow(FileChannel fileChannel, long position, long limit, int bufferSize) {
+            this.fileChannel = fileChannel;
+            this.limit = limit;
+            buffer = new byte[bufferSize];
+            bufferPosition = position;
+            length = 0;
+            start = 0;
+        }
+
+        private long getPosition() {
+            return bufferPosition + start;
+        }
+
+        private boolean fill(int bytesNumber) throws IOException {
+            if (length - start >= bytesNumber) {
+                return true;
+            }
+            System.arraycopy(buffer, start, buffer, 0, length - start);
+            bufferPosition += start;
+            length -= start;
+            start = 0;
+            while (length < bytesNumber) {
+                int bytesToRead = (int) Math.min(buffer.length - length, limit - bufferPosition - length);
+                if (bytesToRead <= 0) {
+                    return false;
+                }
+                int bytesRead = fileChannel.read(ByteBuffer.wrap(buffer, length, bytesToRead),
+                        bufferPosition + length);
+                if (bytesRead == -1) {
+                    return false;
+                }
+                length += bytesRead;
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,81 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
+
+class DeltaWriter {
+
+    private static final int CHECKSUM_BUFFER_SIZE = 1048576;
+
+    private static final Logger logger = LogManager.getLogger(DeltaWriter.class);
+
+    private final DeltaScanner deltaScanner;
+    private final DataFrameWriter dataFrameWriter;
+    private final FileBodyWriter fileBodyWriter;
+    private final ByteBuffer checksumBuffer;
+
+    DeltaWriter(BlockSignatures signatures, DataFrameWriter dataFrameWriter, FileBodyWriter fileBodyWriter) {
+        deltaScanner = new DeltaScanner(signatures);
+        this.dataFrameWriter = dataFrameWriter;
+        this.fileBodyWriter = fileBodyWriter;
+        checksumBuffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+    }
+
+    void writeFileDelta(FileChannel fileChannel, long position, long length, CRC32C fileChecksum,
+                        DataOutputStream dataOutputStream) throws IOException {
+        long end = position + length;
+        List<BlockMatch> matches = deltaScanner.scan(fileChannel, position, length);
+        long copiedBytes = 0;
+        for (BlockMatch match : matches) {
+            writeLiteralData(fileChannel, position, match.getPosition() - position, fileChecksum, dataOutputStream);
+            writeFileTransferMessage(FileTransferMessage.copy(match.getBasisOffset(),
+                    match.getLength()), dataFrameWriter.getFrameCipher(), dataOutputStream);
+            updateChecksum(fileChannel, match.getPosition(), match.getLength(), fileChecksum);
+            position = match.getPosition() + match.getLength();
+            copiedBytes += match.getLength();
+        }
+        writeLiteralData(fileChannel, position, end - position, fileChecksum, dataOutputStream);
+        logger.info("{} of {} bytes found in stored file version", copiedBytes, length);
+    }
+
+    private void writeLiteralData(FileChannel fileChannel, long position, long length, CRC32C fileChecksum,
+                                  DataOutputStream dataOutputStream) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        if (dataFrameWriter.isCompressing() || dataFrameWriter.isEncrypting()) {
+            dataFrameWriter.writeFileData(fileChannel, position, length, fileChecksum, dataOutputStream);
+        } else {
+            fileBodyWriter.writeFileBody(fileChannel, position, length, fileChecksum, dataOutputStream);
+        }
+    }
+
+    private void updateChecksum(FileChannel fileChannel, long position, long length, CRC32C fileChecksum)
+            throws IOException {
+        long end = position + length;
+        while (position < end) {
+            checksumBuffer.clear().limit((int) Math.min(checksumBuffer.capacity(), end - position));
+            while (checksumBuffer.hasRemaining()) {
+                if (fileChannel.read(checksumBuffer, position + checksumBuffer.position()) == -1) {
+                    throw new EOFException("File was truncated during upload!");
+                }
+            }
+            checksumBuffer.flip();
+            position += checksumBuffer.remaining();
+            fileChecksum.update(checksumBuffer);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Downloader {
+
+    private static final long MIN_PIECE_SIZE = 8388608;
+    private static final long MAX_PIECE_SIZE = 67108864;
+    private static final String FILE_NAME_KEY = "fileName";
+    private static final String FILE_SIZE_KEY = "fileSize";
+    private static final String RECEIVED_RANGES_KEY = "receivedRanges";
+
+    private static final Logger logger = LogManager.getLogger(Downloader.class);
+
+    private final String fileName;
+    private final Path outputPath;
+    private final Path partFilePath;
+    private final Path journalFilePath;
+    private final String serverHostname;
+    private final int serverPort;
+    private final int streamsNumber;
+    private final TransportConfig transportConfig;
+    private final TokenBucket rateLimiter;
+    private final List<FilePartDownloader> partDownloaders;
+    private final NavigableMap<Long, Long> receivedRanges;
+    private long fileSize;
+    private long pieceSize;
+
+    public Downloader(String fileName, String outputPath, String serverHostname, int serverPort, int streamsNumber,
+                      TransportConfig transportConfig) {
+        if (streamsNumber <= 0) {
+            logger.error("Number of streams must be positive!");
+            throw new IllegalArgumentException("Number of streams must be positive!");
+        }
+        this.fileName = fileName;
+        this.outputPath = Path.of(outputPath != null ? outputPath : fileName);
+        partFilePath = this.outputPath.resolveSibling(this.outputPath.getFileName() + ".part");
+        journalFilePath = this.outputPath.resolveSibling(this.outputPath.getFileName() + ".journal");
+        this.serverHostname = serverHostname;
+        this.serverPort = serverPort;
+        this.streamsNumber = streamsNumber;
+        this.transportConfig = transportConfig;
+        rateLimiter = new TokenBucket(transportConfig.getMaxRate());
+        partDownloaders = new ArrayList<>();
+        receivedRanges = new TreeMap<>();
+        logger.info("Downloader created successfully");
+    }
+
+    public void start() {
+        partDownloaders.add(new FilePartDownloader(fileName, serverHostname, serverPort, transportConfig,
+                rateLimiter));
+        fileSize = partDownloaders.get(0).requestFileSize();
+        if (fileSize < 0) {
+            logger.error("File {} is not stored on server!", fileName);
+            shutdown();
+            throw new IllegalArgumentException(String.format("File %s is not stored on server!", fileName));
+        }
+        pieceSize = Math.max(MIN_PIECE_SIZE, Math.min(MAX_PIECE_SIZE,
+                (fileSize / streamsNumber + MIN_PIECE_SIZE - 1) / MIN_PIECE_SIZE * MIN_PIECE_SIZE));
+        try (FileChannel fileChannel = FileChannel.open(partFilePath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            readJournal(fileChannel);
+            Queue<long[]> pieces = splitMissingRanges();
+            logger.info("Downloading {} of {} bytes of file {} over {} stream(s)...", countMissingBytes(pieces),
+                    fileSize, fileName, Math.max(1, Math.min(streamsNumber, pieces.size())));
+            downloadPieces(fileChannel, pieces);
+            fileChannel.force(false);
+        } catch (IOException e) {
+            logger.error("Error occurred while downloading file!");
+            shutdown();
+            throw new ClientException("Error occurred while downloading file!", e);
+        }
+        try {
+            Files.move(partFilePath, outputPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(journalFilePath);
+        } catch (IOException e) {
+            logger.error("Could not save downloaded file!");
+            shutdown();
+            throw new ClientException("Could not save downloaded file!", e);
+        }
+        logger.info("File downloaded successfully to {}", outputPath);
+        shutdown();
+    }
+
+    private void readJournal(FileChannel fileChannel) throws IOException {
+        if (Files.isRegularFile(journalFilePath)) {
+            Properties properties = new Properties();
+            try (InputStream inputStream = Files.newInputStream(journalFilePath);
+                 Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            try {
+                if (fileName.equals(properties.getProperty(FILE_NAME_KEY))
+                        && Long.parseLong(properties.getProperty(FILE_SIZE_KEY)) == fileSize) {
+                    for (String range : properties.getProperty(RECEIVED_RANGES_KEY, "").split(",")) {
+                        if (!range.isEmpty()) {
+                            String[] bounds = range.split("-");
+                            receivedRanges.put(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Download journal is corrupted, downloading whole file");
+                receivedRanges.clear();
+            }
+        }
+        if (receivedRanges.isEmpty()) {
+            fileChannel.truncate(0);
+        } else {
+            logger.info("Resuming download of file {}", fileName);
+        }
+    }
+
+    private Queue<long[]> splitMissingRanges() {
+        Queue<long[]> pieces = new ConcurrentLinkedQueue<>();
+        long position = 0;
+        for (Map.Entry<Long, Long> range : receivedRanges.entrySet()) {
+            splitRange(position, range.getKey(), pieces);
+            position = Math.max(position, range.getValue());
+        }
+        splitRange(position, fileSize, pieces);
+        return pieces;
+    }
+
+    private void splitRange(long start, long end, Queue<long[]> pieces) {
+        while (start < end) {
+            long pieceEnd = Math.min(end, (start / pieceSize + 1) * pieceSize);
+            pieces.add(new long[]{start, pieceEnd});
+            start = pieceEnd;
+        }
+    }
+
+    private long countMissingBytes(Queue<long[]> pieces) {
+        long missingBytes = 0;
+        for (long[] piece : pieces) {
+            missingBytes += piece[1] - piece[0];
+        }
+        return missingBytes;
+    }
+
+    private void downloadPieces(FileChannel fileChannel, Queue<long[]> pieces) throws IOException {
+        int usedStreamsNumber = Math.max(1, Math.min(streamsNumber, pieces.size()));
+        for (int i = 1; i < usedStreamsNumber; i++) {
+            partDownloaders.add(new FilePartDownloader(fileName, serverHostname, serverPort, transportConfig,
+                    rateLimiter));
+        }
+        ExecutorService threadPool = Executors.newFixedThreadPool(usedStreamsNumber);
+        try {
+            List<Future<Void>> partDownloadResults = new ArrayList<>();
+            for (FilePartDownloader partDownloader : partDownloaders) {
+                partDownloadResults.add(threadPool.submit(() -> {
+                    long[] piece;
+                    while ((piece = pieces.poll()) != null) {
+                        partDownloader.download(fileChannel, fileSize, piece[0], piece[1] - piece[0]);
+                        checkpoint(fileChannel, piece[0], piece[1]);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> partDownloadResult : partDownloadResults) {
+                partDownloadResult.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not download file part!", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("File download was interrupted!", e);
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private synchronized void checkpoint(FileChannel fileChannel, long start, long end) throws IOException {
+        Map.Entry<Long, Long> previousRange = receivedRanges.floorEntry(start);
+        if (previousRange != null && previousRange.getValue() >= start) {
+            start = previousRange.getKey();
+            end = Math.max(end, previousRange.getValue());
+        }
+        Map.Entry<Long, Long> nextRange;
+        while ((nextRange = receivedRanges.ceilingEntry(start)) != null && nextRange.getKey() <= end) {
+            end = Math.max(end, nextRange.getValue());
+            receivedRanges.remove(nextRange.getKey());
+        }
+        receivedRanges.put(start, end);
+        fileChannel.force(false);
+        writeJournal();
+    }
+
+    private void writeJournal() throws IOException {
+        StringJoiner ranges = new StringJoiner(",");
+        for (Map.Entry<Long, Long> range : receivedRanges.entrySet()) {
+            ranges.add(range.getKey() + "-" + range.getValue());
+        }
+        Properties properties = new Properties();
+        properties.setProperty(FILE_NAME_KEY, fileName);
+        properties.setProperty(FILE_SIZE_KEY, Long.toString(fileSize));
+        properties.setProperty(RECEIVED_RANGES_KEY, ranges.toString());
+        Path temporaryJournalPath = journalFilePath.resolveSibling(journalFilePath.getFileName() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporaryJournalPath.toFile());
+             Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+            writer.flush();
+            outputStream.getFD().sync();
+        }
+        Files.move(temporaryJournalPath, journalFilePath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void shutdown() {
+        logger.info("Shutting downloader down");
+        for (FilePartDownloader partDownloader : partDownloaders) {
+            partDownloader.shutdown();
+        }
+        logger.info("Downloader shutdown");
+    }
+
+}
@@ -0,0 +1,117 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
+
+class FileBodyWriter {
+
+    private static final int CHECKSUM_BUFFER_SIZE = 1048576;
+    private static final long RATE_LIMITED_CHUNK_SIZE = 262144;
+
+    private final SocketChannel socketChannel;
+    private final TokenBucket rateLimiter;
+    private final ExecutorService checksumExecutor;
+    private final ByteBuffer checksumBuffer;
+    private final CRC32C segmentChecksum;
+
+    FileBodyWriter(SocketChannel socketChannel, TokenBucket rateLimiter) {
+        this.socketChannel = socketChannel;
+        this.rateLimiter = rateLimiter;
+        checksumExecutor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("checksum-", 0).daemon()
+                .factory());
+        checksumBuffer = ByteBuffer.allocateDirect(CHECKSUM_BUFFER_SIZE);
+        segmentChecksum = new CRC32C();
+    }
+
+    void writeFileBody(FileChannel fileChannel, long position, long length, CRC32C fileChecksum,
+                       DataOutputStream dataOutputStream) throws IOException {
+        long end = position + length;
+        List<Future<Integer>> segmentChecksums = new ArrayList<>();
+        long segmentPosition = position;
+        while (segmentPosition < end) {
+            long segmentStart = segmentPosition;
+            long segmentSize = Math.min(FileTransferMessage.MAX_BODY_SIZE, end - segmentPosition);
+            segmentChecksums.add(checksumExecutor.submit(
+                    () -> computeSegmentChecksum(fileChannel, segmentStart, segmentSize, fileChecksum)));
+            segmentPosition += segmentSize;
+        }
+        segmentPosition = position;
+        for (Future<Integer> checksum : segmentChecksums) {
+            long segmentSize = Math.min(FileTransferMessage.MAX_BODY_SIZE, end - segmentPosition);
+            writeFileTransferMessage(FileTransferMessage.body(segmentSize),
+                    dataOutputStream);
+            dataOutputStream.flush();
+            transferFileSegment(fileChannel, segmentPosition, segmentSize);
+            dataOutputStream.writeInt(awaitChecksum(checksum));
+            segmentPosition += segmentSize;
+        }
+    }
+
+    void shutdown() {
+        checksumExecutor.shutdownNow();
+    }
+
+    private int computeSegmentChecksum(FileChannel fileChannel, long position, long size, CRC32C fileChecksum)
+            throws IOException {
+        segmentChecksum.reset();
+        long end = position + size;
+        while (position < end) {
+            checksumBuffer.clear().limit((int) Math.min(checksumBuffer.capacity(), end - position));
+            while (checksumBuffer.hasRemaining()) {
+                if (fileChannel.read(checksumBuffer, position + checksumBuffer.position()) == -1) {
+                    throw new EOFException("File was truncated during upload!");
+                }
+            }
+            checksumBuffer.flip();
+            position += checksumBuffer.remaining();
+            segmentChecksum.update(checksumBuffer);
+            fileChecksum.update(checksumBuffer.rewind());
+        }
+        return (int) segmentChecksum.getValue();
+    }
+
+    private int awaitChecksum(Future<Integer> checksum) throws IOException {
+        try {
+            return checksum.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("File checksum computation was interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute file checksum!", e.getCause());
+        }
+    }
+
+    private void transferFileSegment(FileChannel fileChannel, long position, long size) throws IOException {
+        long end = position + size;
+        boolean rateLimited = rateLimiter.getRate() > 0;
+        while (position < end) {
+            long chunkSize = rateLimited ? Math.min(RATE_LIMITED_CHUNK_SIZE, end - position) : end - position;
+            long bytesTransferred = fileChannel.transferTo(position, chunkSize, socketChannel);
+            if (bytesTransferred == 0 && position >= fileChannel.size()) {
+                throw new EOFException("File was truncated during upload!");
+            }
+            position += bytesTransferred;
+            if (rateLimited) {
+                rateLimiter.acquire(bytesTransferred);
+            }
+        }
+    }
+
+}
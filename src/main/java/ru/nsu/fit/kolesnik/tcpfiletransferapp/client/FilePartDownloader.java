@@ -0,0 +1,200 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferFrame;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.receiveFrameHeader;
+
+class FilePartDownloader {
+
+    private static final int RECEIVE_BUFFER_SIZE = 1048576;
+
+    private static final Logger logger = LogManager.getLogger(FilePartDownloader.class);
+
+    private final String fileName;
+    private final TransportConfig transportConfig;
+    private final TokenBucket rateLimiter;
+    private final SocketChannel socketChannel;
+    private final Socket socket;
+    private final FileTransferFrame frame;
+    private final CRC32C bodyChecksum;
+    private final ByteBuffer receiveBuffer;
+    private FrameCipher frameCipher;
+    private ByteBuffer sealedBuffer;
+
+    FilePartDownloader(String fileName, String serverHostname, int serverPort, TransportConfig transportConfig,
+                       TokenBucket rateLimiter) {
+        this.fileName = fileName;
+        this.transportConfig = transportConfig;
+        this.rateLimiter = rateLimiter;
+        try {
+            socketChannel = transportConfig.connect(serverHostname, serverPort);
+            socket = socketChannel.socket();
+        } catch (IOException e) {
+            logger.error("Could not connect to server {}:{}!", serverHostname, serverPort);
+            throw new ClientException(
+                    String.format("Could not connect to server %s:%s!", serverHostname, serverPort), e);
+        }
+        frame = new FileTransferFrame();
+        bodyChecksum = new CRC32C();
+        receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+        frameCipher = null;
+        sealedBuffer = null;
+    }
+
+    long requestFileSize() {
+        try {
+            FileTransferMessage fileMessage = requestFileRange(0, 0);
+            return fileMessage != null ? fileMessage.getFileSize() : -1;
+        } catch (IOException e) {
+            logger.error("Error occurred while requesting stored file size!");
+            shutdown();
+            throw new ClientException("Error occurred while requesting stored file size!", e);
+        }
+    }
+
+    void download(FileChannel fileChannel, long fileSize, long offset, long length) throws IOException {
+        FileTransferMessage fileMessage = requestFileRange(offset, length);
+        if (fileMessage == null || fileMessage.getFileSize() != fileSize) {
+            throw new IOException("Stored file was changed during download!");
+        }
+        if (fileMessage.getOffset() != offset || fileMessage.getLength() != length) {
+            throw new IOException("Server sent invalid file range!");
+        }
+        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+        long position = offset;
+        while (position < offset + length) {
+            receiveFrameHeader(dataInputStream, frame);
+            if (frameCipher != null) {
+                position = receiveSealedData(fileChannel, position, offset + length - position, dataInputStream);
+                continue;
+            }
+            if (frame.getType() != FileTransferMessageType.BODY) {
+                throw new IOException("Unexpected message during file download!");
+            }
+            if (frame.getBodySize() <= 0 || frame.getBodySize() > FileTransferMessage.MAX_BODY_SIZE
+                    || frame.getBodySize() > offset + length - position) {
+                throw new IOException("Server sent more bytes than requested!");
+            }
+            position = receiveFileBody(fileChannel, position, frame.getBodySize(), dataInputStream);
+        }
+    }
+
+    void shutdown() {
+        if (!socketChannel.isOpen()) {
+            return;
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to shutdown connection gracefully!");
+            throw new ClientException("Failed to shutdown connection gracefully!", e);
+        }
+    }
+
+    private void establishSession() throws IOException {
+        EncryptionKey encryptionKey = transportConfig.getEncryptionKey();
+        if (encryptionKey == null || frameCipher != null) {
+            return;
+        }
+        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+        DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+        byte[] clientNonce = encryptionKey.generateNonce();
+        sendFileTransferMessage(FileTransferMessage.hello(CompressionCodecs.NONE,
+                transportConfig.getFrameSize(), clientNonce), dataOutputStream);
+        FileTransferMessage helloMessage = receiveFileTransferMessage(dataInputStream);
+        if (helloMessage.getType() != FileTransferMessageType.HELLO) {
+            throw new IOException("Server did not answer hello message!");
+        }
+        if (helloMessage.getDataSize() < FileTransferMessage.DEFAULT_DATA_SIZE
+                || helloMessage.getDataSize() > transportConfig.getFrameSize()) {
+            throw new IOException("Server sent invalid frame size!");
+        }
+        frameCipher = SessionEncryption.establish(encryptionKey, clientNonce, helloMessage, dataOutputStream,
+                dataInputStream);
+        sealedBuffer = ByteBuffer.allocate(helloMessage.getDataSize() + FrameCipher.TAG_SIZE);
+    }
+
+    private FileTransferMessage requestFileRange(long offset, long length) throws IOException {
+        establishSession();
+        sendFileTransferMessage(FileTransferMessage.get(fileName, offset, length), frameCipher,
+                new DataOutputStream(socket.getOutputStream()));
+        FileTransferMessage fileMessage = receiveFileTransferMessage(new DataInputStream(socket.getInputStream()),
+                frameCipher);
+        if (fileMessage.getType() == FileTransferMessageType.MISSING) {
+            return null;
+        }
+        if (fileMessage.getType() != FileTransferMessageType.FILE) {
+            throw new IOException("Server did not answer get message!");
+        }
+        return fileMessage;
+    }
+
+    private long receiveSealedData(FileChannel fileChannel, long position, long bytesRemaining,
+                                   DataInputStream dataInputStream) throws IOException {
+        if (frame.getType() != FileTransferMessageType.SEALED) {
+            throw new IOException("Unexpected message during file download!");
+        }
+        if (frame.isCompressed() || frame.getDataSize() <= FrameCipher.TAG_SIZE
+                || frame.getDataSize() > sealedBuffer.capacity()
+                || frame.getRawDataSize() != frame.getDataSize() - FrameCipher.TAG_SIZE
+                || frame.getRawDataSize() > bytesRemaining) {
+            throw new IOException("Server sent invalid sealed message!");
+        }
+        dataInputStream.readFully(sealedBuffer.array(), 0, frame.getDataSize());
+        sealedBuffer.clear().limit(frame.getDataSize());
+        frameCipher.open(frame.getRawDataSize(), false, sealedBuffer);
+        int bytesReceived = sealedBuffer.remaining();
+        while (sealedBuffer.hasRemaining()) {
+            position += fileChannel.write(sealedBuffer, position);
+        }
+        rateLimiter.acquire(bytesReceived);
+        return position;
+    }
+
+    private long receiveFileBody(FileChannel fileChannel, long position, long bodySize,
+                                 DataInputStream dataInputStream) throws IOException {
+        bodyChecksum.reset();
+        long bytesRemaining = bodySize;
+        while (bytesRemaining > 0) {
+            receiveBuffer.clear().limit((int) Math.min(bytesRemaining, receiveBuffer.capacity()));
+            if (socketChannel.read(receiveBuffer) == -1) {
+                throw new EOFException("Connection closed before whole file body was received!");
+            }
+            receiveBuffer.flip();
+            int bytesReceived = receiveBuffer.remaining();
+            bodyChecksum.update(receiveBuffer);
+            receiveBuffer.flip();
+            while (receiveBuffer.hasRemaining()) {
+                position += fileChannel.write(receiveBuffer, position);
+            }
+            bytesRemaining -= bytesReceived;
+            rateLimiter.acquire(bytesReceived);
+        }
+        if ((int) bodyChecksum.getValue() != dataInputStream.readInt()) {
+            throw new IOException("Body message checksum mismatch!");
+        }
+        return position;
+    }
+
+}
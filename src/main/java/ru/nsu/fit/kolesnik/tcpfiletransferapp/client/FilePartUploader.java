@@ -0,0 +1,274 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
+
+class FilePartUploader {
+
+    private static final Logger logger = LogManager.getLogger(FilePartUploader.class);
+
+    private final String fileName;
+    private final long fileSize;
+    private final long rangeOffset;
+    private final long rangeLength;
+    private final int streamsNumber;
+    private final String compression;
+    private final boolean delta;
+    private final TransportConfig transportConfig;
+    private final TokenBucket rateLimiter;
+    private final SocketChannel socketChannel;
+    private final Socket socket;
+    private final FileBodyWriter fileBodyWriter;
+    @Getter
+    private DataFrameWriter dataFrameWriter;
+
+    FilePartUploader(String fileName, long fileSize, long offset, long length, int streamsNumber,
+                     String compression, boolean delta, String serverHostname, int serverPort,
+                     TransportConfig transportConfig, TokenBucket rateLimiter) {
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        rangeOffset = offset;
+        rangeLength = length;
+        this.streamsNumber = streamsNumber;
+        this.compression = compression;
+        this.delta = delta;
+        this.transportConfig = transportConfig;
+        this.rateLimiter = rateLimiter;
+        try {
+            socketChannel = transportConfig.connect(serverHostname, serverPort);
+            socket = socketChannel.socket();
+        } catch (IOException e) {
+            logger.error("Could not connect to server {}:{}!", serverHostname, serverPort);
+            throw new ClientException(
+                    String.format("Could not connect to server %s:%s!", serverHostname, serverPort), e);
+        }
+        fileBodyWriter = new FileBodyWriter(socketChannel, rateLimiter);
+    }
+
+    boolean upload(FileChannel fileChannel, byte[] contentDigest) {
+        try (DataOutputStream dataOutputStream = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream(), transportConfig.getWriteBufferSize()));
+             DataInputStream dataInputStream = new DataInputStream(socket.getInputStream())) {
+            establishSession(dataOutputStream, dataInputStream);
+            BlockSignatures signatures = delta ? requestBasisSignatures(dataOutputStream, dataInputStream) : null;
+            long transferId = Client.computeTransferId(fileName, fileSize, contentDigest);
+            long offset = negotiateTransfer(transferId, contentDigest, dataOutputStream, dataInputStream);
+            long length = rangeOffset + rangeLength - offset;
+            initializeFileUpload(transferId, contentDigest, offset, length, dataOutputStream);
+            boolean partUploadedSuccessfully = uploadFilePart(fileChannel, offset, length, signatures,
+                    dataOutputStream, dataInputStream);
+            shutdown();
+            return partUploadedSuccessfully;
+        } catch (IOException e) {
+            logger.error("Error occurred while uploading file part!");
+            shutdown();
+            throw new ClientException("Error occurred while uploading file part!", e);
+        }
+    }
+
+    boolean isStoredOnServer(byte[] contentDigest) {
+        try {
+            DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+            DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+            establishSession(dataOutputStream, dataInputStream);
+            sendFileTransferMessage(FileTransferMessage.lookup(fileName, fileSize, contentDigest), frameCipher(),
+                    dataOutputStream);
+            FileTransferMessage lookupResultMessage = receiveFileTransferMessage(dataInputStream, frameCipher());
+            if (lookupResultMessage.getType() != FileTransferMessageType.SUCCESS
+                    && lookupResultMessage.getType() != FileTransferMessageType.MISSING) {
+                throw new IOException("Server did not answer lookup message!");
+            }
+            return lookupResultMessage.getType() == FileTransferMessageType.SUCCESS;
+        } catch (IOException e) {
+            logger.error("Error occurred while looking up file content!");
+            shutdown();
+            throw new ClientException("Error occurred while looking up file content!", e);
+        }
+    }
+
+    private void establishSession(DataOutputStream dataOutputStream, DataInputStream dataInputStream) {
+        EncryptionKey encryptionKey = transportConfig.getEncryptionKey();
+        if (encryptionKey == null || dataFrameWriter != null) {
+            return;
+        }
+        try {
+            byte[] clientNonce = encryptionKey.generateNonce();
+            sendFileTransferMessage(FileTransferMessage.hello(compression,
+                    transportConfig.getFrameSize(), clientNonce), dataOutputStream);
+            FileTransferMessage helloMessage = receiveHelloMessage(dataInputStream);
+            FrameCipher frameCipher = SessionEncryption.establish(encryptionKey, clientNonce, helloMessage,
+                    dataOutputStream, dataInputStream);
+            dataFrameWriter = new DataFrameWriter(CompressionCodecs.find(helloMessage.getCompression()),
+                    frameCipher, helloMessage.getDataSize(), rateLimiter);
+        } catch (IOException e) {
+            logger.error("Error occurred while establishing encrypted session!");
+            shutdown();
+            throw new ClientException("Error occurred while establishing encrypted session!", e);
+        }
+    }
+
+    private BlockSignatures requestBasisSignatures(DataOutputStream dataOutputStream,
+                                                   DataInputStream dataInputStream) {
+        try {
+            sendFileTransferMessage(FileTransferMessage.basis(fileName, fileSize, 0), frameCipher(),
+                    dataOutputStream);
+            FileTransferMessage basisMessage = receiveFileTransferMessage(dataInputStream, frameCipher());
+            if (basisMessage.getType() == FileTransferMessageType.MISSING) {
+                logger.info("Server has no stored version of file, uploading whole file");
+                return null;
+            }
+            if (basisMessage.getType() != FileTransferMessageType.BASIS) {
+                throw new IOException("Server did not answer basis message!");
+            }
+            BlockSignatures signatures = new BlockSignatures(basisMessage.getDataSize(), basisMessage.getFileSize());
+            byte[] signaturesBuffer = new byte[FileTransferMessage.DEFAULT_DATA_SIZE];
+            for (int i = 0; i < signatures.getMessagesNumber(); i++) {
+                signatures.decodeMessage(i, receiveFileTransferMessage(dataInputStream, frameCipher(),
+                        signaturesBuffer));
+            }
+            logger.info("Received signatures of {} blocks of stored file version", signatures.getBlocksNumber());
+            return signatures;
+        } catch (IOException e) {
+            logger.error("Error occurred while requesting stored file signatures!");
+            shutdown();
+            throw new ClientException("Error occurred while requesting stored file signatures!", e);
+        }
+    }
+
+    private long negotiateTransfer(long transferId, byte[] contentDigest, DataOutputStream dataOutputStream,
+                                   DataInputStream dataInputStream) {
+        try {
+            boolean helloRequired = dataFrameWriter == null && (!CompressionCodecs.NONE.equals(compression)
+                    || transportConfig.getFrameSize() != FileTransferMessage.DEFAULT_DATA_SIZE);
+            if (helloRequired) {
+                writeFileTransferMessage(FileTransferMessage.hello(compression,
+                        transportConfig.getFrameSize()), dataOutputStream);
+            }
+            sendFileTransferMessage(FileTransferMessage.resume(transferId, contentDigest, fileSize, rangeOffset,
+                    rangeLength), frameCipher(), dataOutputStream);
+            if (helloRequired) {
+                FileTransferMessage helloMessage = receiveHelloMessage(dataInputStream);
+                dataFrameWriter = new DataFrameWriter(CompressionCodecs.find(helloMessage.getCompression()), null,
+                        helloMessage.getDataSize(), rateLimiter);
+            } else if (dataFrameWriter == null) {
+                dataFrameWriter = new DataFrameWriter(CompressionCodecs.find(CompressionCodecs.NONE), null,
+                        FileTransferMessage.DEFAULT_DATA_SIZE, rateLimiter);
+            }
+            FileTransferMessage offsetMessage = receiveFileTransferMessage(dataInputStream, frameCipher());
+            int busyRepliesNumber = 0;
+            while (offsetMessage.getType() == FileTransferMessageType.BUSY) {
+                Client.awaitRetry(offsetMessage, ++busyRepliesNumber);
+                sendFileTransferMessage(FileTransferMessage.resume(transferId, contentDigest, fileSize, rangeOffset,
+                        rangeLength), frameCipher(), dataOutputStream);
+                offsetMessage = receiveFileTransferMessage(dataInputStream, frameCipher());
+            }
+            if (offsetMessage.getType() != FileTransferMessageType.OFFSET
+                    || offsetMessage.getOffset() < rangeOffset
+                    || offsetMessage.getOffset() > rangeOffset + rangeLength) {
+                throw new IOException("Server sent invalid resume offset!");
+            }
+            if (offsetMessage.getOffset() > rangeOffset) {
+                logger.info("Resuming file upload from byte {}", offsetMessage.getOffset());
+            }
+            return offsetMessage.getOffset();
+        } catch (IOException e) {
+            logger.error("Error occurred while negotiating file upload!");
+            shutdown();
+            throw new ClientException("Error occurred while negotiating file upload!", e);
+        }
+    }
+
+    private FrameCipher frameCipher() {
+        return dataFrameWriter != null ? dataFrameWriter.getFrameCipher() : null;
+    }
+
+    private FileTransferMessage receiveHelloMessage(DataInputStream dataInputStream) throws IOException {
+        FileTransferMessage helloMessage = receiveFileTransferMessage(dataInputStream);
+        if (helloMessage.getType() != FileTransferMessageType.HELLO) {
+            throw new IOException("Server did not answer hello message!");
+        }
+        if (!helloMessage.getCompression().equals(compression)) {
+            logger.warn("Server does not support {} compression, uploading uncompressed data", compression);
+        }
+        if (helloMessage.getDataSize() < FileTransferMessage.DEFAULT_DATA_SIZE
+                || helloMessage.getDataSize() > transportConfig.getFrameSize()) {
+            throw new IOException("Server sent invalid frame size!");
+        }
+        return helloMessage;
+    }
+
+    private void initializeFileUpload(long transferId, byte[] contentDigest, long offset, long length,
+                                      DataOutputStream dataOutputStream) {
+        FileTransferMessage transferInitializingMessage = FileTransferMessage.init(fileName, fileSize, transferId,
+                contentDigest, offset, length, streamsNumber);
+        try {
+            sendFileTransferMessage(transferInitializingMessage, frameCipher(), dataOutputStream);
+        } catch (IOException e) {
+            logger.error("Error occurred while initializing file upload!");
+            shutdown();
+            throw new ClientException("Error occurred while initializing file upload!", e);
+        }
+    }
+
+    private boolean uploadFilePart(FileChannel fileChannel, long offset, long length, BlockSignatures signatures,
+                                   DataOutputStream dataOutputStream, DataInputStream dataInputStream) {
+        try {
+            CRC32C fileChecksum = new CRC32C();
+            if (signatures != null) {
+                new DeltaWriter(signatures, dataFrameWriter, fileBodyWriter).writeFileDelta(fileChannel, offset,
+                        length, fileChecksum, dataOutputStream);
+            } else if (dataFrameWriter.isCompressing() || dataFrameWriter.isEncrypting()) {
+                dataFrameWriter.writeFileData(fileChannel, offset, length, fileChecksum, dataOutputStream);
+            } else {
+                fileBodyWriter.writeFileBody(fileChannel, offset, length, fileChecksum, dataOutputStream);
+            }
+
+            FileTransferMessage transferFinalizingMessage = FileTransferMessage.fin((int) fileChecksum.getValue());
+            sendFileTransferMessage(transferFinalizingMessage, frameCipher(), dataOutputStream);
+
+            FileTransferMessage transferResultMessage = receiveFileTransferMessage(dataInputStream, frameCipher());
+
+            return transferResultMessage.getType() == FileTransferMessageType.SUCCESS;
+        } catch (IOException e) {
+            logger.error("Error occurred while uploading file!");
+            shutdown();
+            throw new ClientException("Error occurred while uploading file!", e);
+        }
+    }
+
+    void shutdown() {
+        fileBodyWriter.shutdown();
+        if (!socketChannel.isOpen()) {
+            return;
+        }
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to shutdown connection gracefully!");
+            throw new ClientException("Failed to shutdown connection gracefully!", e);
+        }
+    }
+
+}
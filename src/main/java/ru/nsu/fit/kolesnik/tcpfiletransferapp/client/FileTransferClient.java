@@ -0,0 +1,237 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class FileTransferClient implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_SERVER = 8;
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 268435456;
+
+    private static final int MAX_FILE_NAME_UTF8_LENGTH = 4096;
+    private static final long MAX_FILE_SIZE = 1099511627776L;
+
+    private static final Logger logger = LogManager.getLogger(FileTransferClient.class);
+
+    private final String compression;
+    private final TransportConfig transportConfig;
+    private final int maxConnectionsPerServer;
+    private final long maxInFlightBytes;
+    private final TokenBucket rateLimiter;
+    private final ExecutorService uploadExecutor;
+    private final Map<String, ConnectionPool> connectionPools;
+    private final Map<String, Queue<PooledUpload>> pendingUploads;
+    private final Map<String, Integer> activeUploadsNumbers;
+    private final Lock lock;
+    private long inFlightBytes;
+    private boolean closed;
+
+    public FileTransferClient(TransportConfig transportConfig) {
+        this(CompressionCodecs.NONE, transportConfig, DEFAULT_MAX_CONNECTIONS_PER_SERVER, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    }
+
+    public FileTransferClient(String compression, TransportConfig transportConfig, int maxConnectionsPerServer,
+                              long maxInFlightBytes) {
+        if (!CompressionCodecs.isSupported(compression)) {
+            logger.error("Unknown compression {}!", compression);
+            throw new IllegalArgumentException(String.format("Unknown compression %s!", compression));
+        }
+        if (maxConnectionsPerServer <= 0) {
+            logger.error("Number of connections per server must be positive!");
+            throw new IllegalArgumentException("Number of connections per server must be positive!");
+        }
+        if (maxInFlightBytes <= 0) {
+            logger.error("In-flight bytes limit must be positive!");
+            throw new IllegalArgumentException("In-flight bytes limit must be positive!");
+        }
+        this.compression = compression;
+        this.transportConfig = transportConfig;
+        this.maxConnectionsPerServer = maxConnectionsPerServer;
+        this.maxInFlightBytes = maxInFlightBytes;
+        rateLimiter = new TokenBucket(transportConfig.getMaxRate());
+        uploadExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("upload-", 0).factory());
+        connectionPools = new HashMap<>();
+        pendingUploads = new HashMap<>();
+        activeUploadsNumbers = new HashMap<>();
+        lock = new ReentrantLock();
+        inFlightBytes = 0;
+        closed = false;
+    }
+
+    public void warmUp(String serverHostname, int serverPort, int connectionsNumber) {
+        ConnectionPool connectionPool;
+        lock.lock();
+        try {
+            connectionPool = getConnectionPool(serverHostname, serverPort);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            connectionPool.warmUp(Math.min(connectionsNumber, maxConnectionsPerServer));
+        } catch (IOException e) {
+            logger.error("Could not connect to server {}:{}!", serverHostname, serverPort);
+            throw new ClientException(
+                    String.format("Could not connect to server %s:%s!", serverHostname, serverPort), e);
+        }
+    }
+
+    public CompletableFuture<Boolean> upload(String serverHostname, int serverPort, Path filePath) {
+        return upload(serverHostname, serverPort, filePath, null);
+    }
+
+    public CompletableFuture<Boolean> upload(String serverHostname, int serverPort, Path filePath,
+                                             ProgressListener progressListener) {
+        File uploadingFile = filePath.toFile();
+        if (!Files.isRegularFile(filePath)) {
+            logger.error("File {} does not exist!", filePath);
+            throw new IllegalArgumentException(String.format("File %s does not exist!", filePath));
+        }
+        if (uploadingFile.getName().getBytes(StandardCharsets.UTF_8).length > MAX_FILE_NAME_UTF8_LENGTH) {
+            logger.error("File name {} is too long!", uploadingFile.getName());
+            throw new IllegalArgumentException(String.format("File name %s is too long!", uploadingFile.getName()));
+        }
+        if (uploadingFile.length() > MAX_FILE_SIZE) {
+            logger.error("File {} is too big!", filePath);
+            throw new IllegalArgumentException(String.format("File %s is too big!", filePath));
+        }
+        PooledUpload upload = new PooledUpload(uploadingFile, uploadingFile.length(), progressListener);
+        lock.lock();
+        try {
+            ConnectionPool connectionPool = getConnectionPool(serverHostname, serverPort);
+            pendingUploads.get(connectionPool.getServerAddress()).add(upload);
+            dispatchUploads();
+        } finally {
+            lock.unlock();
+        }
+        return upload.getResult();
+    }
+
+    @Override
+    public void close() {
+        logger.info("Shutting client down");
+        lock.lock();
+        try {
+            closed = true;
+            for (Queue<PooledUpload> uploads : pendingUploads.values()) {
+                PooledUpload upload;
+                while ((upload = uploads.poll()) != null) {
+                    upload.getResult().cancel(false);
+                }
+            }
+            for (ConnectionPool connectionPool : connectionPools.values()) {
+                connectionPool.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        uploadExecutor.close();
+        logger.info("Client shutdown");
+    }
+
+    private ConnectionPool getConnectionPool(String serverHostname, int serverPort) {
+        if (closed) {
+            logger.error("Client is closed!");
+            throw new IllegalStateException("Client is closed!");
+        }
+        return connectionPools.computeIfAbsent(serverHostname + ":" + serverPort, serverAddress -> {
+            pendingUploads.put(serverAddress, new ArrayDeque<>());
+            activeUploadsNumbers.put(serverAddress, 0);
+            return new ConnectionPool(serverHostname, serverPort, compression, transportConfig, rateLimiter);
+        });
+    }
+
+    private void dispatchUploads() {
+        for (ConnectionPool connectionPool : connectionPools.values()) {
+            String serverAddress = connectionPool.getServerAddress();
+            Queue<PooledUpload> uploads = pendingUploads.get(serverAddress);
+            PooledUpload upload;
+            while (activeUploadsNumbers.get(serverAddress) < maxConnectionsPerServer
+                    && (upload = uploads.peek()) != null) {
+                if (upload.getResult().isDone()) {
+                    uploads.poll();
+                    continue;
+                }
+                if (inFlightBytes > 0 && inFlightBytes + upload.getFileSize() > maxInFlightBytes) {
+                    break;
+                }
+                uploads.poll();
+                activeUploadsNumbers.merge(serverAddress, 1, Integer::sum);
+                inFlightBytes += upload.getFileSize();
+                PooledUpload startedUpload = upload;
+                uploadExecutor.execute(() -> runUpload(connectionPool, startedUpload));
+            }
+        }
+    }
+
+    private void runUpload(ConnectionPool connectionPool, PooledUpload upload) {
+        try {
+            upload.getResult().complete(transferFile(connectionPool, upload));
+        } catch (RuntimeException e) {
+            upload.getResult().completeExceptionally(e);
+        } finally {
+            lock.lock();
+            try {
+                activeUploadsNumbers.merge(connectionPool.getServerAddress(), -1, Integer::sum);
+                inFlightBytes -= upload.getFileSize();
+                if (!closed) {
+                    dispatchUploads();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean transferFile(ConnectionPool connectionPool, PooledUpload upload) {
+        String filePath = upload.getFile().getPath();
+        PooledConnection connection = null;
+        try {
+            connection = connectionPool.acquire();
+            boolean uploaded;
+            try {
+                uploaded = connection.upload(upload);
+            } catch (IOException e) {
+                if (!connection.isReused()) {
+                    throw e;
+                }
+                logger.debug("Pooled connection to {} was lost, retrying upload of {}",
+                        connectionPool.getServerAddress(), filePath);
+                connection.close();
+                connection = connectionPool.connect();
+                uploaded = connection.upload(upload);
+            }
+            connectionPool.release(connection);
+            if (!uploaded) {
+                logger.error("File {} upload failed! Server did not receive whole file!", filePath);
+            }
+            return uploaded;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            logger.error("Error occurred while uploading file {} to {}!", filePath,
+                    connectionPool.getServerAddress());
+            throw new ClientException(String.format("Error occurred while uploading file %s to %s!", filePath,
+                    connectionPool.getServerAddress()), e);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
+
+class PooledConnection {
+
+    private static final long MAX_BUFFERED_FILE_SIZE = 262144;
+    private static final long PROGRESS_CHUNK_SIZE = 8388608;
+
+    private static final Logger logger = LogManager.getLogger(PooledConnection.class);
+
+    private final SocketChannel socketChannel;
+    private final DataOutputStream dataOutputStream;
+    private final DataInputStream dataInputStream;
+    private final FileBodyWriter fileBodyWriter;
+    private final DataFrameWriter dataFrameWriter;
+    private int uploadsNumber;
+
+    PooledConnection(String serverHostname, int serverPort, String compression, TransportConfig transportConfig,
+                     TokenBucket rateLimiter) throws IOException {
+        socketChannel = transportConfig.connect(serverHostname, serverPort);
+        try {
+            dataOutputStream = new DataOutputStream(new BufferedOutputStream(
+                    socketChannel.socket().getOutputStream(), transportConfig.getWriteBufferSize()));
+            dataInputStream = new DataInputStream(socketChannel.socket().getInputStream());
+            dataFrameWriter = negotiateConnection(compression, transportConfig, rateLimiter);
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+        fileBodyWriter = new FileBodyWriter(socketChannel, rateLimiter);
+        uploadsNumber = 0;
+    }
+
+    boolean isReused() {
+        return uploadsNumber > 0;
+    }
+
+    boolean isOpen() {
+        return socketChannel.isOpen();
+    }
+
+    boolean upload(PooledUpload upload) throws IOException {
+        uploadsNumber++;
+        File uploadingFile = upload.getFile();
+        try (FileChannel fileChannel = FileChannel.open(uploadingFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            if (fileSize != upload.getFileSize()) {
+                throw new IOException("File was changed before upload!");
+            }
+            String fileName = uploadingFile.getName();
+            byte[] contentDigest = ContentDigest.compute(fileChannel);
+            long transferId = Client.computeTransferId(fileName, fileSize, contentDigest);
+            sendFileTransferMessage(FileTransferMessage.resume(transferId, contentDigest, fileSize, 0, fileSize),
+                    dataFrameWriter.getFrameCipher(), dataOutputStream);
+            FileTransferMessage offsetMessage = receiveFileTransferMessage(dataInputStream,
+                    dataFrameWriter.getFrameCipher());
+            int busyRepliesNumber = 0;
+            while (offsetMessage.getType() == FileTransferMessageType.BUSY) {
+                Client.awaitRetry(offsetMessage, ++busyRepliesNumber);
+                sendFileTransferMessage(FileTransferMessage.resume(transferId, contentDigest, fileSize, 0, fileSize),
+                        dataFrameWriter.getFrameCipher(), dataOutputStream);
+                offsetMessage = receiveFileTransferMessage(dataInputStream, dataFrameWriter.getFrameCipher());
+            }
+            if (offsetMessage.getType() != FileTransferMessageType.OFFSET
+                    || offsetMessage.getOffset() < 0 || offsetMessage.getOffset() > fileSize) {
+                throw new IOException("Server sent invalid resume offset!");
+            }
+            long position = offsetMessage.getOffset();
+            writeFileTransferMessage(FileTransferMessage.init(fileName, fileSize, transferId, contentDigest,
+                    position, fileSize - position, 1), dataFrameWriter.getFrameCipher(), dataOutputStream);
+            upload.progressed(position);
+            CRC32C fileChecksum = new CRC32C();
+            boolean buffered = fileSize - position <= MAX_BUFFERED_FILE_SIZE || dataFrameWriter.isCompressing()
+                    || dataFrameWriter.isEncrypting();
+            while (position < fileSize) {
+                long length = Math.min(PROGRESS_CHUNK_SIZE, fileSize - position);
+                if (buffered) {
+                    dataFrameWriter.writeFileData(fileChannel, position, length, fileChecksum, dataOutputStream);
+                } else {
+                    fileBodyWriter.writeFileBody(fileChannel, position, length, fileChecksum, dataOutputStream);
+                }
+                position += length;
+                upload.progressed(position);
+            }
+            sendFileTransferMessage(FileTransferMessage.fin((int) fileChecksum.getValue()),
+                    dataFrameWriter.getFrameCipher(), dataOutputStream);
+            FileTransferMessage transferResultMessage = receiveFileTransferMessage(dataInputStream,
+                    dataFrameWriter.getFrameCipher());
+            if (transferResultMessage.getType() != FileTransferMessageType.SUCCESS
+                    && transferResultMessage.getType() != FileTransferMessageType.FAILED) {
+                throw new IOException("Server did not answer fin message!");
+            }
+            return transferResultMessage.getType() == FileTransferMessageType.SUCCESS;
+        }
+    }
+
+    void close() {
+        fileBodyWriter.shutdown();
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close pooled connection gracefully");
+        }
+    }
+
+    private DataFrameWriter negotiateConnection(String compression, TransportConfig transportConfig,
+                                                TokenBucket rateLimiter) throws IOException {
+        EncryptionKey encryptionKey = transportConfig.getEncryptionKey();
+        if (CompressionCodecs.NONE.equals(compression)
+                && transportConfig.getFrameSize() == FileTransferMessage.DEFAULT_DATA_SIZE && encryptionKey == null) {
+            return new DataFrameWriter(CompressionCodecs.find(compression), null,
+                    FileTransferMessage.DEFAULT_DATA_SIZE, rateLimiter);
+        }
+        byte[] clientNonce = encryptionKey != null ? encryptionKey.generateNonce() : new byte[0];
+        sendFileTransferMessage(FileTransferMessage.hello(compression,
+                transportConfig.getFrameSize(), clientNonce), dataOutputStream);
+        FileTransferMessage helloMessage = receiveFileTransferMessage(dataInputStream);
+        if (helloMessage.getType() != FileTransferMessageType.HELLO) {
+            throw new IOException("Server did not answer hello message!");
+        }
+        if (!helloMessage.getCompression().equals(compression)) {
+            logger.warn("Server does not support {} compression, uploading uncompressed data", compression);
+        }
+        if (helloMessage.getDataSize() < FileTransferMessage.DEFAULT_DATA_SIZE
+                || helloMessage.getDataSize() > transportConfig.getFrameSize()) {
+            throw new IOException("Server sent invalid frame size!");
+        }
+        FrameCipher frameCipher = encryptionKey != null ? SessionEncryption.establish(encryptionKey, clientNonce,
+                helloMessage, dataOutputStream, dataInputStream) : null;
+        return new DataFrameWriter(CompressionCodecs.find(helloMessage.getCompression()), frameCipher,
+                helloMessage.getDataSize(), rateLimiter);
+    }
+
+}
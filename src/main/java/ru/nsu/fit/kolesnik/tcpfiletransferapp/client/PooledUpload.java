@@ -0,0 +1,29 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+@Getter
+class PooledUpload {
+
+    private final File file;
+    private final long fileSize;
+    private final ProgressListener progressListener;
+    private final CompletableFuture<Boolean> result;
+
+    PooledUpload(File file, long fileSize, ProgressListener progressListener) {
+        this.file = file;
+        this.fileSize = fileSize;
+        this.progressListener = progressListener;
+        result = new CompletableFuture<>();
+    }
+
+    void progressed(long bytesUploaded) {
+        if (progressListener != null) {
+            progressListener.progressed(bytesUploaded, fileSize);
+        }
+    }
+
+}
@@ -0,0 +1,8 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+@FunctionalInterface
+public interface ProgressListener {
+
+    void progressed(long bytesUploaded, long fileSize);
+
+}
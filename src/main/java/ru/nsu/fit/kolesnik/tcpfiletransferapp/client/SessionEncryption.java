@@ -0,0 +1,46 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferFrame;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.receiveFrameHeader;
+
+final class SessionEncryption {
+
+    private SessionEncryption() {
+    }
+
+    static FrameCipher establish(EncryptionKey encryptionKey, byte[] clientNonce, FileTransferMessage helloMessage,
+                                 DataOutputStream dataOutputStream, DataInputStream dataInputStream)
+            throws IOException {
+        if (helloMessage.getNonce().length == 0) {
+            throw new IOException("Server does not support encryption!");
+        }
+        FrameCipher frameCipher = encryptionKey.createCipher(clientNonce, helloMessage.getNonce(), true);
+        FileTransferFrame frame = new FileTransferFrame();
+        receiveFrameHeader(dataInputStream, frame);
+        if (frame.getType() != FileTransferMessageType.SEALED || frame.getRawDataSize() != 0
+                || frame.getDataSize() != FrameCipher.TAG_SIZE) {
+            throw new IOException("Server did not confirm session key!");
+        }
+        byte[] tag = new byte[FrameCipher.TAG_SIZE];
+        dataInputStream.readFully(tag);
+        try {
+            frameCipher.openKeyConfirmation(ByteBuffer.wrap(tag));
+        } catch (IOException e) {
+            throw new IOException("Server uses different pre-shared key!", e);
+        }
+        dataOutputStream.write(frameCipher.sealKeyConfirmation());
+        dataOutputStream.flush();
+        return frameCipher;
+    }
+
+}
@@ -0,0 +1,28 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    public BufferPool(int bufferSize, long maxPooledBytes) {
+        this.bufferSize = bufferSize;
+        buffers = new ArrayBlockingQueue<>(Math.clamp(maxPooledBytes / bufferSize, 1, Integer.MAX_VALUE));
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            buffers.offer(buffer.clear());
+        }
+    }
+
+}
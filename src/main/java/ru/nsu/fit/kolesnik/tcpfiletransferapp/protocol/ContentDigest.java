@@ -0,0 +1,46 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class ContentDigest {
+
+    public static final int SIZE = 32;
+    public static final long MIN_FILE_SIZE = 65536;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 1048576;
+
+    private ContentDigest() {
+    }
+
+    public static byte[] compute(FileChannel fileChannel) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Could not compute content digest!", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long position = 0;
+        int bytesRead;
+        while ((bytesRead = fileChannel.read(buffer.clear(), position)) != -1) {
+            position += bytesRead;
+            messageDigest.update(buffer.flip());
+        }
+        return messageDigest.digest();
+    }
+
+    public static String toHex(byte[] contentDigest) {
+        return HexFormat.of().formatHex(contentDigest);
+    }
+
+    public static byte[] fromHex(String contentDigest) {
+        return HexFormat.of().parseHex(contentDigest);
+    }
+
+}
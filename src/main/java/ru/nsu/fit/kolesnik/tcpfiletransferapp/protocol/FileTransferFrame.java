@@ -0,0 +1,55 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import lombok.Getter;
+
+@Getter
+public class FileTransferFrame {
+
+    private FileTransferMessageType type;
+    private int dataSize;
+    private int rawDataSize;
+    private int checksum;
+    private long bodySize;
+    private boolean compressed;
+    private FileTransferMessage message;
+
+    void set(FileTransferMessageType type, int dataSize, int rawDataSize, int checksum, long bodySize) {
+        this.type = type;
+        this.dataSize = dataSize;
+        this.rawDataSize = rawDataSize;
+        this.checksum = checksum;
+        this.bodySize = bodySize;
+        compressed = false;
+        message = null;
+    }
+
+    void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    void set(FileTransferMessage message) {
+        type = message.getType();
+        dataSize = message.getDataSize();
+        rawDataSize = message.getRawDataSize();
+        checksum = message.getChecksum();
+        bodySize = message.getBodySize();
+        compressed = message.isCompressed();
+        this.message = message;
+    }
+
+    public FileTransferMessage toMessage() {
+        if (message != null) {
+            return message;
+        }
+        return switch (type) {
+            case DATA -> FileTransferMessage.data(dataSize, checksum, null);
+            case SIGNATURES -> FileTransferMessage.signatures(dataSize, checksum, null);
+            case COMPRESSED -> FileTransferMessage.compressed(rawDataSize, dataSize, checksum, null);
+            case SEALED -> FileTransferMessage.sealed(rawDataSize, compressed, dataSize, null);
+            case BODY -> FileTransferMessage.body(bodySize);
+            case FIN -> FileTransferMessage.fin(checksum);
+            default -> FileTransferMessage.withoutFields(type);
+        };
+    }
+
+}
@@ -1,6 +1,7 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
 
 import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -11,82 +12,299 @@ import java.nio.charset.StandardCharsets;
 @Getter
 public class FileTransferMessage {
 
-    public static final int MAX_DATA_SIZE = 32768;
+    public static final int DEFAULT_DATA_SIZE = 32768;
+    public static final int MAX_DATA_SIZE = 8388608;
+    public static final long MAX_BODY_SIZE = 8388608;
+    public static final long MAX_COPY_SIZE = 8388608;
 
     private final FileTransferMessageType type;
     private int fileNameUtf8Size;
     private String fileName;
     private long fileSize;
+    private long transferId;
+    private long offset;
+    private long length;
+    private int streamsNumber;
     private int dataSize;
     private byte[] data;
+    private long bodySize;
+    private int rawDataSize;
+    private boolean compressed;
+    private String compression;
+    private int checksum;
+    private byte[] contentDigest;
+    private long retryAfterMillis;
+    private int queuedTransfersNumber;
+    private byte[] nonce;
 
-    public FileTransferMessage(FileTransferMessageType type) {
+    private FileTransferMessage(FileTransferMessageType type) {
         this.type = type;
     }
 
-    public FileTransferMessage(FileTransferMessageType type, int fileNameUtf8Size, String fileName, long fileSize) {
-        this.type = type;
-        this.fileNameUtf8Size = fileNameUtf8Size;
-        this.fileName = fileName;
-        this.fileSize = fileSize;
+    public static FileTransferMessage init(String fileName, long fileSize, long transferId, byte[] contentDigest,
+                                           long offset, long length, int streamsNumber) {
+        FileTransferMessage message = withFileName(FileTransferMessageType.INIT, fileName, fileSize);
+        message.transferId = transferId;
+        message.contentDigest = contentDigest;
+        message.offset = offset;
+        message.length = length;
+        message.streamsNumber = streamsNumber;
+        return message;
     }
 
-    public FileTransferMessage(FileTransferMessageType type, int dataSize, byte[] data) {
-        this.type = type;
-        this.dataSize = dataSize;
-        this.data = data;
+    public static FileTransferMessage data(int dataSize, int checksum, byte[] data) {
+        return withData(FileTransferMessageType.DATA, dataSize, checksum, data);
+    }
+
+    public static FileTransferMessage signatures(int dataSize, int checksum, byte[] data) {
+        return withData(FileTransferMessageType.SIGNATURES, dataSize, checksum, data);
+    }
+
+    public static FileTransferMessage compressed(int rawDataSize, int dataSize, int checksum, byte[] data) {
+        FileTransferMessage message = withData(FileTransferMessageType.COMPRESSED, dataSize, checksum, data);
+        message.rawDataSize = rawDataSize;
+        return message;
+    }
+
+    public static FileTransferMessage sealed(int rawDataSize, boolean compressed, int sealedSize, byte[] data) {
+        FileTransferMessage message = withData(FileTransferMessageType.SEALED, sealedSize, 0, data);
+        message.rawDataSize = rawDataSize;
+        message.compressed = compressed;
+        return message;
+    }
+
+    public static FileTransferMessage body(long bodySize) {
+        FileTransferMessage message = new FileTransferMessage(FileTransferMessageType.BODY);
+        message.bodySize = bodySize;
+        return message;
+    }
+
+    public static FileTransferMessage fin(int checksum) {
+        FileTransferMessage message = new FileTransferMessage(FileTransferMessageType.FIN);
+        message.checksum = checksum;
+        return message;
+    }
+
+    public static FileTransferMessage success() {
+        return new FileTransferMessage(FileTransferMessageType.SUCCESS);
+    }
+
+    public static FileTransferMessage failed() {
+        return new FileTransferMessage(FileTransferMessageType.FAILED);
+    }
+
+    public static FileTransferMessage missing() {
+        return new FileTransferMessage(FileTransferMessageType.MISSING);
+    }
+
+    public static FileTransferMessage hello(String compression, int dataSize) {
+        return hello(compression, dataSize, new byte[0]);
+    }
+
+    public static FileTransferMessage hello(String compression, int dataSize, byte[] nonce) {
+        FileTransferMessage message = new FileTransferMessage(FileTransferMessageType.HELLO);
+        message.compression = compression;
+        message.dataSize = dataSize;
+        message.nonce = nonce;
+        return message;
+    }
+
+    public static FileTransferMessage resume(long transferId, byte[] contentDigest, long fileSize, long offset,
+                                             long length) {
+        FileTransferMessage message = withTransferOffset(FileTransferMessageType.RESUME, transferId, fileSize, offset);
+        message.contentDigest = contentDigest;
+        message.length = length;
+        return message;
+    }
+
+    public static FileTransferMessage offset(long transferId, long fileSize, long offset) {
+        return withTransferOffset(FileTransferMessageType.OFFSET, transferId, fileSize, offset);
+    }
+
+    public static FileTransferMessage lookup(String fileName, long fileSize, byte[] contentDigest) {
+        FileTransferMessage message = withFileName(FileTransferMessageType.LOOKUP, fileName, fileSize);
+        message.contentDigest = contentDigest;
+        return message;
+    }
+
+    public static FileTransferMessage basis(String fileName, long fileSize, int blockSize) {
+        FileTransferMessage message = withFileName(FileTransferMessageType.BASIS, fileName, fileSize);
+        message.dataSize = blockSize;
+        return message;
+    }
+
+    public static FileTransferMessage copy(long offset, long length) {
+        FileTransferMessage message = new FileTransferMessage(FileTransferMessageType.COPY);
+        message.offset = offset;
+        message.length = length;
+        return message;
+    }
+
+    public static FileTransferMessage get(String fileName, long offset, long length) {
+        return withFileRange(FileTransferMessageType.GET, fileName, 0, offset, length);
+    }
+
+    public static FileTransferMessage file(String fileName, long fileSize, long offset, long length) {
+        return withFileRange(FileTransferMessageType.FILE, fileName, fileSize, offset, length);
+    }
+
+    public static FileTransferMessage busy(long retryAfterMillis, int queuedTransfersNumber) {
+        FileTransferMessage message = new FileTransferMessage(FileTransferMessageType.BUSY);
+        message.retryAfterMillis = retryAfterMillis;
+        message.queuedTransfersNumber = queuedTransfersNumber;
+        return message;
+    }
+
+    static FileTransferMessage withoutFields(FileTransferMessageType type) {
+        return new FileTransferMessage(type);
+    }
+
+    private static FileTransferMessage withFileName(FileTransferMessageType type, String fileName, long fileSize) {
+        FileTransferMessage message = new FileTransferMessage(type);
+        message.fileNameUtf8Size = fileName.getBytes(StandardCharsets.UTF_8).length;
+        message.fileName = fileName;
+        message.fileSize = fileSize;
+        return message;
+    }
+
+    private static FileTransferMessage withData(FileTransferMessageType type, int dataSize, int checksum,
+                                                byte[] data) {
+        FileTransferMessage message = new FileTransferMessage(type);
+        message.dataSize = dataSize;
+        message.checksum = checksum;
+        message.data = data;
+        return message;
+    }
+
+    private static FileTransferMessage withTransferOffset(FileTransferMessageType type, long transferId,
+                                                          long fileSize, long offset) {
+        FileTransferMessage message = new FileTransferMessage(type);
+        message.transferId = transferId;
+        message.fileSize = fileSize;
+        message.offset = offset;
+        return message;
+    }
+
+    private static FileTransferMessage withFileRange(FileTransferMessageType type, String fileName, long fileSize,
+                                                     long offset, long length) {
+        FileTransferMessage message = withFileName(type, fileName, fileSize);
+        message.offset = offset;
+        message.length = length;
+        return message;
     }
 
     public byte[] getBytes() {
-        switch (type) {
-            case INIT -> {
-                return ByteBuffer.allocate(Integer.BYTES + Integer.BYTES + fileNameUtf8Size + Long.BYTES)
-                        .putInt(type.ordinal())
-                        .putInt(fileNameUtf8Size)
-                        .put(fileName.getBytes(StandardCharsets.UTF_8))
-                        .putLong(fileSize)
-                        .array();
-            }
-            case DATA -> {
-                return ByteBuffer.allocate(Integer.BYTES + Integer.BYTES + dataSize)
-                        .putInt(type.ordinal())
-                        .putInt(dataSize)
-                        .put(data)
-                        .array();
-            }
-            default -> {
-                return ByteBuffer.allocate(Integer.BYTES).putInt(type.ordinal()).array();
-            }
-        }
+        ByteBuffer buffer = ByteBuffer.allocate(FileTransferMessageCodec.getEncodedSize(this));
+        FileTransferMessageCodec.encode(this, buffer);
+        return buffer.array();
     }
 
     public static void sendFileTransferMessage(FileTransferMessage message, DataOutputStream outputStream) throws IOException {
-        byte[] messageBytes = message.getBytes();
-        outputStream.write(messageBytes);
+        writeFileTransferMessage(message, outputStream);
+        outputStream.flush();
+    }
+
+    public static void sendFileTransferMessage(FileTransferMessage message, FrameCipher frameCipher,
+                                               DataOutputStream outputStream) throws IOException {
+        writeFileTransferMessage(message, frameCipher, outputStream);
         outputStream.flush();
     }
 
+    public static void writeFileTransferMessage(FileTransferMessage message, DataOutputStream outputStream)
+            throws IOException {
+        outputStream.write(message.getBytes());
+    }
+
+    public static void writeFileTransferMessage(FileTransferMessage message, FrameCipher frameCipher,
+                                                DataOutputStream outputStream) throws IOException {
+        outputStream.write(frameCipher != null ? frameCipher.sealMessage(message) : message.getBytes());
+    }
+
+    public static void writeFileTransferData(byte[] data, int dataSize, int checksum, DataOutputStream outputStream)
+            throws IOException {
+        outputStream.writeInt(FileTransferMessageType.DATA.ordinal());
+        outputStream.writeInt(dataSize);
+        outputStream.writeInt(checksum);
+        outputStream.write(data, 0, dataSize);
+    }
+
+    public static void writeCompressedFileTransferData(byte[] data, int dataSize, int rawDataSize, int checksum,
+                                                       DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(FileTransferMessageType.COMPRESSED.ordinal());
+        outputStream.writeInt(rawDataSize);
+        outputStream.writeInt(dataSize);
+        outputStream.writeInt(checksum);
+        outputStream.write(data, 0, dataSize);
+    }
+
+    public static void writeSealedFileTransferData(byte[] data, int sealedSize, int rawDataSize, boolean compressed,
+                                                   DataOutputStream outputStream) throws IOException {
+        outputStream.writeInt(FileTransferMessageType.SEALED.ordinal());
+        outputStream.writeInt(rawDataSize);
+        outputStream.writeInt(sealedSize);
+        outputStream.writeInt(compressed ? FileTransferMessageCodec.SEALED_COMPRESSED_FLAG : 0);
+        outputStream.write(data, 0, sealedSize);
+    }
+
     public static FileTransferMessage receiveFileTransferMessage(DataInputStream inputStream) throws IOException {
-        FileTransferMessageType type = FileTransferMessageType.values()[inputStream.readInt()];
-        switch (type) {
-            case INIT -> {
-                int fileNameUtf8Size = inputStream.readInt();
-                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
-                inputStream.readFully(fileNameUtf8Bytes);
-                String fileName = new String(fileNameUtf8Bytes, StandardCharsets.UTF_8);
-                long fileSize = inputStream.readLong();
-                return new FileTransferMessage(type, fileNameUtf8Size, fileName, fileSize);
-            }
-            case DATA -> {
-                int dataSize = inputStream.readInt();
-                byte[] data = new byte[dataSize];
-                inputStream.readFully(data);
-                return new FileTransferMessage(type, dataSize, data);
+        return receiveFileTransferMessage(inputStream, (byte[]) null);
+    }
+
+    public static FileTransferMessage receiveFileTransferMessage(DataInputStream inputStream, byte[] dataBuffer)
+            throws IOException {
+        FileTransferFrame frame = new FileTransferFrame();
+        FileTransferMessageCodec.receiveFrameHeader(inputStream, frame);
+        if (frame.getType() == FileTransferMessageType.DATA || frame.getType() == FileTransferMessageType.SIGNATURES) {
+            if (frame.getDataSize() < 0 || frame.getDataSize() > MAX_DATA_SIZE) {
+                throw new IOException("Data message is too big!");
             }
-            default -> {
-                return new FileTransferMessage(type);
+            byte[] data = receiveData(inputStream, frame.getDataSize(), dataBuffer);
+            return frame.getType() == FileTransferMessageType.DATA
+                    ? data(frame.getDataSize(), frame.getChecksum(), data)
+                    : signatures(frame.getDataSize(), frame.getChecksum(), data);
+        }
+        if (frame.getType() == FileTransferMessageType.COMPRESSED
+                || frame.getType() == FileTransferMessageType.SEALED) {
+            if (frame.getDataSize() < 0 || frame.getDataSize() > MAX_DATA_SIZE + FrameCipher.TAG_SIZE) {
+                throw new IOException("Data message is too big!");
             }
+            byte[] data = receiveData(inputStream, frame.getDataSize(), dataBuffer);
+            return frame.getType() == FileTransferMessageType.COMPRESSED
+                    ? compressed(frame.getRawDataSize(), frame.getDataSize(), frame.getChecksum(), data)
+                    : sealed(frame.getRawDataSize(), frame.isCompressed(), frame.getDataSize(), data);
         }
+        return frame.toMessage();
+    }
+
+    public static FileTransferMessage receiveFileTransferMessage(DataInputStream inputStream, FrameCipher frameCipher)
+            throws IOException {
+        return receiveFileTransferMessage(inputStream, frameCipher, null);
+    }
+
+    public static FileTransferMessage receiveFileTransferMessage(DataInputStream inputStream, FrameCipher frameCipher,
+                                                                 byte[] dataBuffer) throws IOException {
+        FileTransferMessage message = receiveFileTransferMessage(inputStream, dataBuffer);
+        if (message.getType() != FileTransferMessageType.SEALED) {
+            receiveMessageTag(message, frameCipher, inputStream);
+        }
+        return message;
+    }
+
+    public static void receiveMessageTag(FileTransferMessage message, FrameCipher frameCipher,
+                                         DataInputStream inputStream) throws IOException {
+        if (frameCipher == null) {
+            return;
+        }
+        byte[] tag = new byte[FrameCipher.TAG_SIZE];
+        inputStream.readFully(tag);
+        frameCipher.openMessage(message.getBytes(), ByteBuffer.wrap(tag));
+    }
+
+    private static byte[] receiveData(DataInputStream inputStream, int dataSize, byte[] dataBuffer)
+            throws IOException {
+        byte[] data = dataBuffer != null && dataBuffer.length >= dataSize ? dataBuffer : new byte[dataSize];
+        inputStream.readFully(data, 0, dataSize);
+        return data;
     }
 
 }
@@ -0,0 +1,562 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class FileTransferMessageCodec {
+
+    public static final int MAX_HEADER_SIZE = 8192;
+    public static final int MAX_FRAME_SIZE = FileTransferMessage.MAX_DATA_SIZE + MAX_HEADER_SIZE;
+    public static final int DATA_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Integer.BYTES;
+    public static final int COMPRESSED_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Integer.BYTES + Integer.BYTES;
+    public static final int BODY_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    public static final int FIN_SIZE = Integer.BYTES + Integer.BYTES;
+    public static final int COPY_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES;
+    public static final int BUSY_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    public static final int SEALED_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Integer.BYTES + Integer.BYTES;
+    public static final int SEALED_COMPRESSED_FLAG = 1;
+
+    private static final int INIT_FIELDS_SIZE = Long.BYTES + Long.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int MAX_CONTENT_DIGEST_SIZE = 64;
+    private static final int MAX_NONCE_SIZE = 64;
+    private static final int RESUME_FIELDS_SIZE = Long.BYTES + Long.BYTES + Long.BYTES + Long.BYTES;
+    private static final int OFFSET_FIELDS_SIZE = Long.BYTES + Long.BYTES + Long.BYTES;
+    private static final int RANGE_FIELDS_SIZE = Long.BYTES + Long.BYTES + Long.BYTES;
+
+    private FileTransferMessageCodec() {
+    }
+
+    public static int getEncodedSize(FileTransferMessage message) {
+        return switch (message.getType()) {
+            case INIT -> Integer.BYTES + Integer.BYTES + message.getFileNameUtf8Size() + INIT_FIELDS_SIZE
+                    + Integer.BYTES + message.getContentDigest().length;
+            case DATA, SIGNATURES -> DATA_HEADER_SIZE + message.getDataSize();
+            case COMPRESSED -> COMPRESSED_HEADER_SIZE + message.getDataSize();
+            case SEALED -> SEALED_HEADER_SIZE + message.getDataSize();
+            case BODY -> BODY_HEADER_SIZE;
+            case FIN -> FIN_SIZE;
+            case HELLO -> Integer.BYTES + Integer.BYTES
+                    + message.getCompression().getBytes(StandardCharsets.UTF_8).length + Integer.BYTES
+                    + Integer.BYTES + message.getNonce().length;
+            case RESUME -> Integer.BYTES + RESUME_FIELDS_SIZE + Integer.BYTES + message.getContentDigest().length;
+            case OFFSET -> Integer.BYTES + OFFSET_FIELDS_SIZE;
+            case LOOKUP -> Integer.BYTES + Integer.BYTES + message.getFileNameUtf8Size() + Long.BYTES + Integer.BYTES
+                    + message.getContentDigest().length;
+            case BASIS -> Integer.BYTES + Integer.BYTES + message.getFileNameUtf8Size() + Long.BYTES + Integer.BYTES;
+            case COPY -> COPY_SIZE;
+            case GET, FILE -> Integer.BYTES + Integer.BYTES + message.getFileNameUtf8Size() + RANGE_FIELDS_SIZE;
+            case BUSY -> BUSY_SIZE;
+            default -> Integer.BYTES;
+        };
+    }
+
+    public static void encode(FileTransferMessage message, ByteBuffer destination) {
+        switch (message.getType()) {
+            case INIT -> destination.putInt(message.getType().ordinal())
+                    .putInt(message.getFileNameUtf8Size())
+                    .put(message.getFileName().getBytes(StandardCharsets.UTF_8))
+                    .putLong(message.getFileSize())
+                    .putLong(message.getTransferId())
+                    .putLong(message.getOffset())
+                    .putLong(message.getLength())
+                    .putInt(message.getStreamsNumber())
+                    .putInt(message.getContentDigest().length)
+                    .put(message.getContentDigest());
+            case DATA -> {
+                encodeDataHeader(message.getDataSize(), message.getChecksum(), destination);
+                destination.put(message.getData(), 0, message.getDataSize());
+            }
+            case SIGNATURES -> destination.putInt(message.getType().ordinal())
+                    .putInt(message.getDataSize())
+                    .putInt(message.getChecksum())
+                    .put(message.getData(), 0, message.getDataSize());
+            case COMPRESSED -> {
+                encodeCompressedHeader(message.getRawDataSize(), message.getDataSize(), message.getChecksum(),
+                        destination);
+                destination.put(message.getData(), 0, message.getDataSize());
+            }
+            case SEALED -> {
+                encodeSealedHeader(message.getRawDataSize(), message.isCompressed(), message.getDataSize(),
+                        destination);
+                destination.put(message.getData(), 0, message.getDataSize());
+            }
+            case BODY -> encodeBodyHeader(message.getBodySize(), destination);
+            case FIN -> encodeFin(message.getChecksum(), destination);
+            case HELLO -> {
+                byte[] compressionUtf8Bytes = message.getCompression().getBytes(StandardCharsets.UTF_8);
+                destination.putInt(message.getType().ordinal())
+                        .putInt(compressionUtf8Bytes.length)
+                        .put(compressionUtf8Bytes)
+                        .putInt(message.getDataSize())
+                        .putInt(message.getNonce().length)
+                        .put(message.getNonce());
+            }
+            case RESUME -> destination.putInt(message.getType().ordinal())
+                    .putLong(message.getTransferId())
+                    .putLong(message.getFileSize())
+                    .putLong(message.getOffset())
+                    .putLong(message.getLength())
+                    .putInt(message.getContentDigest().length)
+                    .put(message.getContentDigest());
+            case OFFSET -> destination.putInt(message.getType().ordinal())
+                    .putLong(message.getTransferId())
+                    .putLong(message.getFileSize())
+                    .putLong(message.getOffset());
+            case LOOKUP -> destination.putInt(message.getType().ordinal())
+                    .putInt(message.getFileNameUtf8Size())
+                    .put(message.getFileName().getBytes(StandardCharsets.UTF_8))
+                    .putLong(message.getFileSize())
+                    .putInt(message.getContentDigest().length)
+                    .put(message.getContentDigest());
+            case BASIS -> destination.putInt(message.getType().ordinal())
+                    .putInt(message.getFileNameUtf8Size())
+                    .put(message.getFileName().getBytes(StandardCharsets.UTF_8))
+                    .putLong(message.getFileSize())
+                    .putInt(message.getDataSize());
+            case COPY -> destination.putInt(message.getType().ordinal())
+                    .putLong(message.getOffset())
+                    .putLong(message.getLength());
+            case GET, FILE -> destination.putInt(message.getType().ordinal())
+                    .putInt(message.getFileNameUtf8Size())
+                    .put(message.getFileName().getBytes(StandardCharsets.UTF_8))
+                    .putLong(message.getFileSize())
+                    .putLong(message.getOffset())
+                    .putLong(message.getLength());
+            case BUSY -> destination.putInt(message.getType().ordinal())
+                    .putLong(message.getRetryAfterMillis())
+                    .putInt(message.getQueuedTransfersNumber());
+            default -> destination.putInt(message.getType().ordinal());
+        }
+    }
+
+    public static void encodeDataHeader(int dataSize, int checksum, ByteBuffer destination) {
+        destination.putInt(FileTransferMessageType.DATA.ordinal())
+                .putInt(dataSize)
+                .putInt(checksum);
+    }
+
+    public static void encodeCompressedHeader(int rawDataSize, int dataSize, int checksum, ByteBuffer destination) {
+        destination.putInt(FileTransferMessageType.COMPRESSED.ordinal())
+                .putInt(rawDataSize)
+                .putInt(dataSize)
+                .putInt(checksum);
+    }
+
+    public static void encodeSealedHeader(int rawDataSize, boolean compressed, int sealedSize,
+                                          ByteBuffer destination) {
+        destination.putInt(FileTransferMessageType.SEALED.ordinal())
+                .putInt(rawDataSize)
+                .putInt(sealedSize)
+                .putInt(compressed ? SEALED_COMPRESSED_FLAG : 0);
+    }
+
+    public static void encodeBodyHeader(long bodySize, ByteBuffer destination) {
+        destination.putInt(FileTransferMessageType.BODY.ordinal())
+                .putLong(bodySize);
+    }
+
+    public static void encodeFin(int checksum, ByteBuffer destination) {
+        destination.putInt(FileTransferMessageType.FIN.ordinal())
+                .putInt(checksum);
+    }
+
+    public static boolean decodeFrameHeader(ByteBuffer source, FileTransferFrame frame) throws IOException {
+        if (source.remaining() < Integer.BYTES) {
+            return false;
+        }
+        int start = source.position();
+        FileTransferMessageType type = FileTransferMessageType.fromOrdinal(source.getInt(start));
+        switch (type) {
+            case DATA, SIGNATURES -> {
+                if (source.remaining() < DATA_HEADER_SIZE) {
+                    return false;
+                }
+                frame.set(type, source.getInt(start + Integer.BYTES), 0, source.getInt(start + 2 * Integer.BYTES), 0);
+                source.position(start + DATA_HEADER_SIZE);
+            }
+            case COMPRESSED -> {
+                if (source.remaining() < COMPRESSED_HEADER_SIZE) {
+                    return false;
+                }
+                frame.set(type, source.getInt(start + 2 * Integer.BYTES), source.getInt(start + Integer.BYTES),
+                        source.getInt(start + 3 * Integer.BYTES), 0);
+                source.position(start + COMPRESSED_HEADER_SIZE);
+            }
+            case SEALED -> {
+                if (source.remaining() < SEALED_HEADER_SIZE) {
+                    return false;
+                }
+                frame.set(type, source.getInt(start + 2 * Integer.BYTES), source.getInt(start + Integer.BYTES), 0,
+                        0);
+                frame.setCompressed(isSealedCompressed(source.getInt(start + 3 * Integer.BYTES)));
+                source.position(start + SEALED_HEADER_SIZE);
+            }
+            case BODY -> {
+                if (source.remaining() < BODY_HEADER_SIZE) {
+                    return false;
+                }
+                frame.set(type, 0, 0, 0, source.getLong(start + Integer.BYTES));
+                source.position(start + BODY_HEADER_SIZE);
+            }
+            case FIN -> {
+                if (source.remaining() < FIN_SIZE) {
+                    return false;
+                }
+                frame.set(type, 0, 0, source.getInt(start + Integer.BYTES), 0);
+                source.position(start + FIN_SIZE);
+            }
+            default -> {
+                FileTransferMessage message = decodeControlMessage(type, source);
+                if (message == null) {
+                    return false;
+                }
+                frame.set(message);
+            }
+        }
+        return true;
+    }
+
+    public static void receiveFrameHeader(DataInputStream inputStream, FileTransferFrame frame) throws IOException {
+        FileTransferMessageType type = FileTransferMessageType.fromOrdinal(inputStream.readInt());
+        switch (type) {
+            case DATA, SIGNATURES -> {
+                int dataSize = inputStream.readInt();
+                int checksum = inputStream.readInt();
+                frame.set(type, dataSize, 0, checksum, 0);
+            }
+            case COMPRESSED -> {
+                int rawDataSize = inputStream.readInt();
+                int dataSize = inputStream.readInt();
+                int checksum = inputStream.readInt();
+                frame.set(type, dataSize, rawDataSize, checksum, 0);
+            }
+            case SEALED -> {
+                int rawDataSize = inputStream.readInt();
+                int sealedSize = inputStream.readInt();
+                boolean compressed = isSealedCompressed(inputStream.readInt());
+                frame.set(type, sealedSize, rawDataSize, 0, 0);
+                frame.setCompressed(compressed);
+            }
+            case BODY -> frame.set(type, 0, 0, 0, inputStream.readLong());
+            case FIN -> frame.set(type, 0, 0, inputStream.readInt(), 0);
+            default -> frame.set(receiveControlMessage(type, inputStream));
+        }
+    }
+
+    private static FileTransferMessage decodeControlMessage(FileTransferMessageType type, ByteBuffer source)
+            throws IOException {
+        int start = source.position();
+        switch (type) {
+            case INIT -> {
+                if (source.remaining() < Integer.BYTES + Integer.BYTES) {
+                    return null;
+                }
+                int fileNameUtf8Size = source.getInt(start + Integer.BYTES);
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Init message is too big!");
+                }
+                int contentDigestPosition = start + Integer.BYTES + Integer.BYTES + fileNameUtf8Size + INIT_FIELDS_SIZE;
+                if (source.remaining() < contentDigestPosition - start + Integer.BYTES) {
+                    return null;
+                }
+                int contentDigestSize = source.getInt(contentDigestPosition);
+                if (contentDigestSize < 0 || contentDigestSize > MAX_CONTENT_DIGEST_SIZE) {
+                    throw new IOException("Init message is too big!");
+                }
+                if (source.remaining() < contentDigestPosition - start + Integer.BYTES + contentDigestSize) {
+                    return null;
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                source.position(start + Integer.BYTES + Integer.BYTES);
+                source.get(fileNameUtf8Bytes);
+                String fileName = new String(fileNameUtf8Bytes, StandardCharsets.UTF_8);
+                long fileSize = source.getLong();
+                long transferId = source.getLong();
+                long offset = source.getLong();
+                long length = source.getLong();
+                int streamsNumber = source.getInt();
+                byte[] contentDigest = new byte[source.getInt()];
+                source.get(contentDigest);
+                return FileTransferMessage.init(fileName, fileSize, transferId, contentDigest, offset, length,
+                        streamsNumber);
+            }
+            case HELLO -> {
+                if (source.remaining() < Integer.BYTES + Integer.BYTES) {
+                    return null;
+                }
+                int compressionUtf8Size = source.getInt(start + Integer.BYTES);
+                if (compressionUtf8Size < 0 || compressionUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Hello message is too big!");
+                }
+                int noncePosition = start + Integer.BYTES + Integer.BYTES + compressionUtf8Size + Integer.BYTES;
+                if (source.remaining() < noncePosition - start + Integer.BYTES) {
+                    return null;
+                }
+                int nonceSize = source.getInt(noncePosition);
+                if (nonceSize < 0 || nonceSize > MAX_NONCE_SIZE) {
+                    throw new IOException("Hello message is too big!");
+                }
+                if (source.remaining() < noncePosition - start + Integer.BYTES + nonceSize) {
+                    return null;
+                }
+                byte[] compressionUtf8Bytes = new byte[compressionUtf8Size];
+                source.position(start + Integer.BYTES + Integer.BYTES);
+                source.get(compressionUtf8Bytes);
+                int dataSize = source.getInt();
+                byte[] nonce = new byte[source.getInt()];
+                source.get(nonce);
+                return FileTransferMessage.hello(new String(compressionUtf8Bytes, StandardCharsets.UTF_8), dataSize,
+                        nonce);
+            }
+            case RESUME -> {
+                if (source.remaining() < Integer.BYTES + RESUME_FIELDS_SIZE + Integer.BYTES) {
+                    return null;
+                }
+                int contentDigestSize = source.getInt(start + Integer.BYTES + RESUME_FIELDS_SIZE);
+                if (contentDigestSize < 0 || contentDigestSize > MAX_CONTENT_DIGEST_SIZE) {
+                    throw new IOException("Resume message is too big!");
+                }
+                if (source.remaining() < Integer.BYTES + RESUME_FIELDS_SIZE + Integer.BYTES + contentDigestSize) {
+                    return null;
+                }
+                source.position(start + Integer.BYTES);
+                long transferId = source.getLong();
+                long fileSize = source.getLong();
+                long offset = source.getLong();
+                long length = source.getLong();
+                byte[] contentDigest = new byte[source.getInt()];
+                source.get(contentDigest);
+                return FileTransferMessage.resume(transferId, contentDigest, fileSize, offset, length);
+            }
+            case OFFSET -> {
+                if (source.remaining() < Integer.BYTES + OFFSET_FIELDS_SIZE) {
+                    return null;
+                }
+                source.position(start + Integer.BYTES);
+                long transferId = source.getLong();
+                long fileSize = source.getLong();
+                long offset = source.getLong();
+                return FileTransferMessage.offset(transferId, fileSize, offset);
+            }
+            case LOOKUP -> {
+                if (source.remaining() < Integer.BYTES + Integer.BYTES) {
+                    return null;
+                }
+                int fileNameUtf8Size = source.getInt(start + Integer.BYTES);
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Lookup message is too big!");
+                }
+                int contentDigestPosition = start + Integer.BYTES + Integer.BYTES + fileNameUtf8Size + Long.BYTES;
+                if (source.remaining() < contentDigestPosition - start + Integer.BYTES) {
+                    return null;
+                }
+                int contentDigestSize = source.getInt(contentDigestPosition);
+                if (contentDigestSize < 0 || contentDigestSize > MAX_CONTENT_DIGEST_SIZE) {
+                    throw new IOException("Lookup message is too big!");
+                }
+                if (source.remaining() < contentDigestPosition - start + Integer.BYTES + contentDigestSize) {
+                    return null;
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                source.position(start + Integer.BYTES + Integer.BYTES);
+                source.get(fileNameUtf8Bytes);
+                long fileSize = source.getLong();
+                byte[] contentDigest = new byte[source.getInt()];
+                source.get(contentDigest);
+                return FileTransferMessage.lookup(new String(fileNameUtf8Bytes, StandardCharsets.UTF_8), fileSize,
+                        contentDigest);
+            }
+            case BASIS -> {
+                if (source.remaining() < Integer.BYTES + Integer.BYTES) {
+                    return null;
+                }
+                int fileNameUtf8Size = source.getInt(start + Integer.BYTES);
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Basis message is too big!");
+                }
+                if (source.remaining() < Integer.BYTES + Integer.BYTES + fileNameUtf8Size + Long.BYTES
+                        + Integer.BYTES) {
+                    return null;
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                source.position(start + Integer.BYTES + Integer.BYTES);
+                source.get(fileNameUtf8Bytes);
+                long fileSize = source.getLong();
+                int blockSize = source.getInt();
+                return FileTransferMessage.basis(new String(fileNameUtf8Bytes, StandardCharsets.UTF_8), fileSize,
+                        blockSize);
+            }
+            case COPY -> {
+                if (source.remaining() < COPY_SIZE) {
+                    return null;
+                }
+                source.position(start + Integer.BYTES);
+                long offset = source.getLong();
+                long length = source.getLong();
+                return FileTransferMessage.copy(offset, length);
+            }
+            case GET, FILE -> {
+                if (source.remaining() < Integer.BYTES + Integer.BYTES) {
+                    return null;
+                }
+                int fileNameUtf8Size = source.getInt(start + Integer.BYTES);
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Get message is too big!");
+                }
+                if (source.remaining() < Integer.BYTES + Integer.BYTES + fileNameUtf8Size + RANGE_FIELDS_SIZE) {
+                    return null;
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                source.position(start + Integer.BYTES + Integer.BYTES);
+                source.get(fileNameUtf8Bytes);
+                long fileSize = source.getLong();
+                long offset = source.getLong();
+                long length = source.getLong();
+                return decodeFileRange(type, fileNameUtf8Bytes, fileSize, offset, length);
+            }
+            case BUSY -> {
+                if (source.remaining() < BUSY_SIZE) {
+                    return null;
+                }
+                source.position(start + Integer.BYTES);
+                long retryAfterMillis = source.getLong();
+                int queuedTransfersNumber = source.getInt();
+                return FileTransferMessage.busy(retryAfterMillis, queuedTransfersNumber);
+            }
+            default -> {
+                source.position(start + Integer.BYTES);
+                return FileTransferMessage.withoutFields(type);
+            }
+        }
+    }
+
+    private static FileTransferMessage receiveControlMessage(FileTransferMessageType type, DataInputStream inputStream)
+            throws IOException {
+        switch (type) {
+            case INIT -> {
+                int fileNameUtf8Size = inputStream.readInt();
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Init message is too big!");
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                inputStream.readFully(fileNameUtf8Bytes);
+                String fileName = new String(fileNameUtf8Bytes, StandardCharsets.UTF_8);
+                long fileSize = inputStream.readLong();
+                long transferId = inputStream.readLong();
+                long offset = inputStream.readLong();
+                long length = inputStream.readLong();
+                int streamsNumber = inputStream.readInt();
+                byte[] contentDigest = receiveContentDigest(inputStream, "Init message is too big!");
+                return FileTransferMessage.init(fileName, fileSize, transferId, contentDigest, offset, length,
+                        streamsNumber);
+            }
+            case HELLO -> {
+                int compressionUtf8Size = inputStream.readInt();
+                if (compressionUtf8Size < 0 || compressionUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Hello message is too big!");
+                }
+                byte[] compressionUtf8Bytes = new byte[compressionUtf8Size];
+                inputStream.readFully(compressionUtf8Bytes);
+                int dataSize = inputStream.readInt();
+                int nonceSize = inputStream.readInt();
+                if (nonceSize < 0 || nonceSize > MAX_NONCE_SIZE) {
+                    throw new IOException("Hello message is too big!");
+                }
+                byte[] nonce = new byte[nonceSize];
+                inputStream.readFully(nonce);
+                return FileTransferMessage.hello(new String(compressionUtf8Bytes, StandardCharsets.UTF_8), dataSize,
+                        nonce);
+            }
+            case RESUME -> {
+                long transferId = inputStream.readLong();
+                long fileSize = inputStream.readLong();
+                long offset = inputStream.readLong();
+                long length = inputStream.readLong();
+                byte[] contentDigest = receiveContentDigest(inputStream, "Resume message is too big!");
+                return FileTransferMessage.resume(transferId, contentDigest, fileSize, offset, length);
+            }
+            case OFFSET -> {
+                long transferId = inputStream.readLong();
+                long fileSize = inputStream.readLong();
+                long offset = inputStream.readLong();
+                return FileTransferMessage.offset(transferId, fileSize, offset);
+            }
+            case LOOKUP -> {
+                int fileNameUtf8Size = inputStream.readInt();
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Lookup message is too big!");
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                inputStream.readFully(fileNameUtf8Bytes);
+                long fileSize = inputStream.readLong();
+                byte[] contentDigest = receiveContentDigest(inputStream, "Lookup message is too big!");
+                return FileTransferMessage.lookup(new String(fileNameUtf8Bytes, StandardCharsets.UTF_8), fileSize,
+                        contentDigest);
+            }
+            case BASIS -> {
+                int fileNameUtf8Size = inputStream.readInt();
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Basis message is too big!");
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                inputStream.readFully(fileNameUtf8Bytes);
+                long fileSize = inputStream.readLong();
+                int blockSize = inputStream.readInt();
+                return FileTransferMessage.basis(new String(fileNameUtf8Bytes, StandardCharsets.UTF_8), fileSize,
+                        blockSize);
+            }
+            case COPY -> {
+                long offset = inputStream.readLong();
+                long length = inputStream.readLong();
+                return FileTransferMessage.copy(offset, length);
+            }
+            case GET, FILE -> {
+                int fileNameUtf8Size = inputStream.readInt();
+                if (fileNameUtf8Size < 0 || fileNameUtf8Size > MAX_HEADER_SIZE) {
+                    throw new IOException("Get message is too big!");
+                }
+                byte[] fileNameUtf8Bytes = new byte[fileNameUtf8Size];
+                inputStream.readFully(fileNameUtf8Bytes);
+                long fileSize = inputStream.readLong();
+                long offset = inputStream.readLong();
+                long length = inputStream.readLong();
+                return decodeFileRange(type, fileNameUtf8Bytes, fileSize, offset, length);
+            }
+            case BUSY -> {
+                long retryAfterMillis = inputStream.readLong();
+                int queuedTransfersNumber = inputStream.readInt();
+                return FileTransferMessage.busy(retryAfterMillis, queuedTransfersNumber);
+            }
+            default -> {
+                return FileTransferMessage.withoutFields(type);
+            }
+        }
+    }
+
+    private static boolean isSealedCompressed(int flags) throws IOException {
+        if ((flags & ~SEALED_COMPRESSED_FLAG) != 0) {
+            throw new IOException("Invalid sealed message flags!");
+        }
+        return flags == SEALED_COMPRESSED_FLAG;
+    }
+
+    private static byte[] receiveContentDigest(DataInputStream inputStream, String tooBigMessage) throws IOException {
+        int contentDigestSize = inputStream.readInt();
+        if (contentDigestSize < 0 || contentDigestSize > MAX_CONTENT_DIGEST_SIZE) {
+            throw new IOException(tooBigMessage);
+        }
+        byte[] contentDigest = new byte[contentDigestSize];
+        inputStream.readFully(contentDigest);
+        return contentDigest;
+    }
+
+    private static FileTransferMessage decodeFileRange(FileTransferMessageType type, byte[] fileNameUtf8Bytes,
+                                                       long fileSize, long offset, long length) {
+        String fileName = new String(fileNameUtf8Bytes, StandardCharsets.UTF_8);
+        return type == FileTransferMessageType.GET ? FileTransferMessage.get(fileName, offset, length)
+                : FileTransferMessage.file(fileName, fileSize, offset, length);
+    }
+
+}
@@ -1,5 +1,17 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
 
+import java.io.IOException;
+
 public enum FileTransferMessageType {
-    INIT, DATA, FIN, SUCCESS, FAILED
+    INIT, DATA, FIN, SUCCESS, FAILED, BODY, RESUME, OFFSET, HELLO, COMPRESSED, LOOKUP, MISSING, BASIS, SIGNATURES,
+    COPY, GET, FILE, BUSY, SEALED;
+
+    private static final FileTransferMessageType[] VALUES = values();
+
+    public static FileTransferMessageType fromOrdinal(int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IOException("Unknown message type!");
+        }
+        return VALUES[ordinal];
+    }
 }
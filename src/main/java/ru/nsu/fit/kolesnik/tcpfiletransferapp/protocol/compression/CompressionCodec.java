@@ -0,0 +1,11 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression;
+
+public interface CompressionCodec {
+
+    String getName();
+
+    Compressor createCompressor();
+
+    Decompressor createDecompressor();
+
+}
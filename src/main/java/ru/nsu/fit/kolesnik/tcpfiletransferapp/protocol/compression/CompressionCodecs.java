@@ -0,0 +1,44 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+public final class CompressionCodecs {
+
+    public static final String NONE = "none";
+
+    private static final Map<String, CompressionCodec> codecs = loadCodecs();
+
+    private CompressionCodecs() {
+    }
+
+    public static CompressionCodec find(String name) {
+        return codecs.get(name);
+    }
+
+    public static boolean isSupported(String name) {
+        return NONE.equals(name) || codecs.containsKey(name);
+    }
+
+    public static String negotiate(List<String> offeredNames) {
+        for (String name : offeredNames) {
+            if (codecs.containsKey(name)) {
+                return name;
+            }
+        }
+        return NONE;
+    }
+
+    private static Map<String, CompressionCodec> loadCodecs() {
+        Map<String, CompressionCodec> loadedCodecs = new LinkedHashMap<>();
+        CompressionCodec deflateCodec = new DeflateCompressionCodec();
+        loadedCodecs.put(deflateCodec.getName(), deflateCodec);
+        for (CompressionCodec codec : ServiceLoader.load(CompressionCodec.class)) {
+            loadedCodecs.putIfAbsent(codec.getName(), codec);
+        }
+        return loadedCodecs;
+    }
+
+}
@@ -0,0 +1,13 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression;
+
+import java.nio.ByteBuffer;
+
+public interface Compressor {
+
+    /**
+     * Compresses remaining bytes of source into destination. Returns number of compressed bytes or -1 if
+     * compressed data does not fit into remaining space of destination.
+     */
+    int compress(ByteBuffer source, ByteBuffer destination);
+
+}
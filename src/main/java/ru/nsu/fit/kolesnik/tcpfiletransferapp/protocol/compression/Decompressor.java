@@ -0,0 +1,10 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface Decompressor {
+
+    void decompress(ByteBuffer source, ByteBuffer destination, int rawSize) throws IOException;
+
+}
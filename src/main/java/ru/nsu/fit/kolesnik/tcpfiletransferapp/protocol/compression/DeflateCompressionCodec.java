@@ -0,0 +1,57 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DeflateCompressionCodec implements CompressionCodec {
+
+    public static final String NAME = "deflate";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Compressor createCompressor() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        return (source, destination) -> {
+            deflater.reset();
+            deflater.setInput(source);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished() && destination.hasRemaining()) {
+                compressedSize += deflater.deflate(destination);
+            }
+            return deflater.finished() ? compressedSize : -1;
+        };
+    }
+
+    @Override
+    public Decompressor createDecompressor() {
+        Inflater inflater = new Inflater(true);
+        return (source, destination, rawSize) -> {
+            inflater.reset();
+            inflater.setInput(source);
+            int decompressedSize = 0;
+            try {
+                while (decompressedSize < rawSize && destination.hasRemaining()) {
+                    int bytesInflated = inflater.inflate(destination);
+                    if (bytesInflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    decompressedSize += bytesInflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Compressed data is corrupted!", e);
+            }
+            if (decompressedSize != rawSize) {
+                throw new IOException("Compressed data is corrupted!");
+            }
+        };
+    }
+
+}
@@ -0,0 +1,131 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta;
+
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+public class BlockSignatures {
+
+    public static final int MIN_BLOCK_SIZE = 4096;
+    public static final int MAX_BLOCK_SIZE = 1048576;
+    public static final int MAX_BLOCKS_NUMBER = 4194304;
+    public static final int STRONG_CHECKSUM_SIZE = 16;
+
+    private static final int ENTRY_SIZE = Integer.BYTES + STRONG_CHECKSUM_SIZE;
+    private static final int ENTRIES_PER_MESSAGE = FileTransferMessage.DEFAULT_DATA_SIZE / ENTRY_SIZE;
+    private static final String STRONG_CHECKSUM_ALGORITHM = "SHA-256";
+    private static final int READ_BUFFER_SIZE = 1048576;
+
+    @Getter
+    private final int blockSize;
+    @Getter
+    private final int blocksNumber;
+    private final int[] weakChecksums;
+    private final byte[] strongChecksums;
+
+    public BlockSignatures(int blockSize, long fileSize) throws IOException {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || fileSize < 0
+                || fileSize / blockSize > MAX_BLOCKS_NUMBER) {
+            throw new IOException("Invalid block signatures size!");
+        }
+        this.blockSize = blockSize;
+        blocksNumber = (int) (fileSize / blockSize);
+        weakChecksums = new int[blocksNumber];
+        strongChecksums = new byte[blocksNumber * STRONG_CHECKSUM_SIZE];
+    }
+
+    public static int chooseBlockSize(long fileSize) {
+        return Math.clamp(Long.highestOneBit((long) Math.sqrt(fileSize)), MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+    }
+
+    public static BlockSignatures compute(FileChannel fileChannel, int blockSize) throws IOException {
+        BlockSignatures signatures = new BlockSignatures(blockSize, fileChannel.size());
+        MessageDigest strongDigest = createStrongDigest();
+        RollingChecksum weakChecksum = new RollingChecksum();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(blockSize, READ_BUFFER_SIZE));
+        int block = 0;
+        long position = 0;
+        while (block < signatures.blocksNumber) {
+            int blocksRead = Math.min(buffer.capacity() / blockSize, signatures.blocksNumber - block);
+            buffer.clear().limit(blocksRead * blockSize);
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) == -1) {
+                    throw new EOFException("File was truncated while computing block signatures!");
+                }
+            }
+            for (int i = 0; i < blocksRead; i++, block++) {
+                weakChecksum.reset(buffer.array(), i * blockSize, blockSize);
+                signatures.weakChecksums[block] = weakChecksum.getValue();
+                strongDigest.update(buffer.array(), i * blockSize, blockSize);
+                System.arraycopy(strongDigest.digest(), 0, signatures.strongChecksums, block * STRONG_CHECKSUM_SIZE,
+                        STRONG_CHECKSUM_SIZE);
+            }
+            position += (long) blocksRead * blockSize;
+        }
+        return signatures;
+    }
+
+    public static MessageDigest createStrongDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(STRONG_CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Could not compute block checksum!", e);
+        }
+    }
+
+    public int getWeakChecksum(int block) {
+        return weakChecksums[block];
+    }
+
+    public boolean strongChecksumMatches(int block, byte[] strongChecksum) {
+        int from = block * STRONG_CHECKSUM_SIZE;
+        return Arrays.equals(strongChecksums, from, from + STRONG_CHECKSUM_SIZE, strongChecksum, 0,
+                STRONG_CHECKSUM_SIZE);
+    }
+
+    public int getMessagesNumber() {
+        return (blocksNumber + ENTRIES_PER_MESSAGE - 1) / ENTRIES_PER_MESSAGE;
+    }
+
+    public FileTransferMessage encodeMessage(int index) {
+        int firstBlock = index * ENTRIES_PER_MESSAGE;
+        int entriesNumber = Math.min(ENTRIES_PER_MESSAGE, blocksNumber - firstBlock);
+        ByteBuffer data = ByteBuffer.allocate(entriesNumber * ENTRY_SIZE);
+        for (int block = firstBlock; block < firstBlock + entriesNumber; block++) {
+            data.putInt(weakChecksums[block]).put(strongChecksums, block * STRONG_CHECKSUM_SIZE, STRONG_CHECKSUM_SIZE);
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(data.array());
+        return FileTransferMessage.signatures(data.capacity(), (int) checksum.getValue(),
+                data.array());
+    }
+
+    public void decodeMessage(int index, FileTransferMessage message) throws IOException {
+        int firstBlock = index * ENTRIES_PER_MESSAGE;
+        int entriesNumber = Math.min(ENTRIES_PER_MESSAGE, blocksNumber - firstBlock);
+        if (message.getType() != FileTransferMessageType.SIGNATURES
+                || message.getDataSize() != entriesNumber * ENTRY_SIZE) {
+            throw new IOException("Invalid block signatures message!");
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(message.getData(), 0, message.getDataSize());
+        if ((int) checksum.getValue() != message.getChecksum()) {
+            throw new IOException("Block signatures message checksum mismatch!");
+        }
+        ByteBuffer data = ByteBuffer.wrap(message.getData(), 0, message.getDataSize());
+        for (int block = firstBlock; block < firstBlock + entriesNumber; block++) {
+            weakChecksums[block] = data.getInt();
+            data.get(strongChecksums, block * STRONG_CHECKSUM_SIZE, STRONG_CHECKSUM_SIZE);
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta;
+
+public class RollingChecksum {
+
+    private int length;
+    private int a;
+    private int b;
+
+    public void reset(byte[] data, int offset, int length) {
+        this.length = length;
+        a = 0;
+        b = 0;
+        for (int i = offset; i < offset + length; i++) {
+            a += data[i] & 0xFF;
+            b += a;
+        }
+    }
+
+    public void roll(byte removedByte, byte addedByte) {
+        int removed = removedByte & 0xFF;
+        a += (addedByte & 0xFF) - removed;
+        b += a - length * removed;
+    }
+
+    public int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+}
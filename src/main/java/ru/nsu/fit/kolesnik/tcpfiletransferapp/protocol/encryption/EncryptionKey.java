@@ -0,0 +1,58 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+public class EncryptionKey {
+
+    public static final int NONCE_SIZE = 16;
+    public static final int MIN_KEY_SIZE = 16;
+
+    private static final String KEY_DERIVATION_ALGORITHM = "HmacSHA256";
+    private static final byte[] SESSION_KEY_LABEL = "tcp-file-transfer session key".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKeySpec preSharedKey;
+    private final SecureRandom random;
+
+    public EncryptionKey(byte[] preSharedKey) {
+        if (preSharedKey.length < MIN_KEY_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Pre-shared key must be at least %d bytes long!", MIN_KEY_SIZE));
+        }
+        this.preSharedKey = new SecretKeySpec(preSharedKey, KEY_DERIVATION_ALGORITHM);
+        random = new SecureRandom();
+    }
+
+    public static EncryptionKey load(Path path) throws IOException {
+        return new EncryptionKey(Files.readAllBytes(path));
+    }
+
+    public byte[] generateNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    public FrameCipher createCipher(byte[] clientNonce, byte[] serverNonce, boolean clientSide) throws IOException {
+        if (clientNonce.length != NONCE_SIZE || serverNonce.length != NONCE_SIZE) {
+            throw new IOException("Invalid key exchange nonce!");
+        }
+        try {
+            Mac mac = Mac.getInstance(KEY_DERIVATION_ALGORITHM);
+            mac.init(preSharedKey);
+            mac.update(SESSION_KEY_LABEL);
+            mac.update(clientNonce);
+            mac.update(serverNonce);
+            return new FrameCipher(mac.doFinal(), clientSide);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not derive session key!", e);
+        }
+    }
+
+}
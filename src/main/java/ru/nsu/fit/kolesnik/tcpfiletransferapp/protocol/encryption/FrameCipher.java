@@ -0,0 +1,214 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Protects frames of one connection with AES-GCM. Data frames are encrypted in place and authenticated together
+ * with their header, while control messages stay in plaintext and are followed by a tag authenticating the whole
+ * message. Both kinds of frames take their nonces from one counter per direction, so no frame can be forged,
+ * replayed, reordered or reflected back to its sender. Data frames up to {@value #MAX_ARRAY_CRYPT_SIZE} bytes are
+ * processed in arrays and larger ones in direct buffers, since each of the intrinsic GCM paths of the JDK is much
+ * slower outside of this range.
+ */
+public class FrameCipher {
+
+    public static final int TAG_SIZE = 16;
+
+    private static final String ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_SIZE = 12;
+    private static final int CLIENT_DIRECTION = 0;
+    private static final int SERVER_DIRECTION = 1;
+    private static final int MAX_ARRAY_CRYPT_SIZE = 262144;
+
+    private final SecretKeySpec sessionKey;
+    private final Cipher sealingCipher;
+    private final Cipher openingCipher;
+    private final int sealingDirection;
+    private final int openingDirection;
+    private final byte[] sealingIv;
+    private final byte[] openingIv;
+    private final ByteBuffer header;
+    private byte[] inputArray;
+    private byte[] outputArray;
+    private ByteBuffer directBuffer;
+    private long sealedFramesNumber;
+    private long openedFramesNumber;
+
+    FrameCipher(byte[] sessionKey, boolean clientSide) throws GeneralSecurityException {
+        this.sessionKey = new SecretKeySpec(sessionKey, ALGORITHM);
+        sealingCipher = Cipher.getInstance(TRANSFORMATION);
+        openingCipher = Cipher.getInstance(TRANSFORMATION);
+        sealingDirection = clientSide ? CLIENT_DIRECTION : SERVER_DIRECTION;
+        openingDirection = clientSide ? SERVER_DIRECTION : CLIENT_DIRECTION;
+        sealingIv = new byte[IV_SIZE];
+        openingIv = new byte[IV_SIZE];
+        header = ByteBuffer.allocate(FileTransferMessageCodec.SEALED_HEADER_SIZE);
+        inputArray = new byte[0];
+        outputArray = new byte[0];
+        directBuffer = null;
+        sealedFramesNumber = 0;
+        openedFramesNumber = 0;
+    }
+
+    /**
+     * Encrypts remaining bytes of data in place and appends the authentication tag, so data must have at least
+     * {@link #TAG_SIZE} bytes of room after its limit.
+     */
+    public void seal(int rawDataSize, boolean compressed, ByteBuffer data) throws IOException {
+        int sealedSize = data.remaining() + TAG_SIZE;
+        try {
+            init(sealingCipher, Cipher.ENCRYPT_MODE, sealingIv, sealingDirection, sealedFramesNumber++);
+            authenticateHeader(sealingCipher, rawDataSize, compressed, sealedSize);
+            crypt(sealingCipher, data, sealedSize);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not seal data message!", e);
+        }
+    }
+
+    /**
+     * Verifies and decrypts remaining bytes of data in place, leaving only plaintext remaining.
+     */
+    public void open(int rawDataSize, boolean compressed, ByteBuffer data) throws IOException {
+        if (data.remaining() < TAG_SIZE) {
+            throw new IOException("Sealed message is too small!");
+        }
+        try {
+            init(openingCipher, Cipher.DECRYPT_MODE, openingIv, openingDirection, openedFramesNumber++);
+            authenticateHeader(openingCipher, rawDataSize, compressed, data.remaining());
+            crypt(openingCipher, data, data.remaining());
+        } catch (AEADBadTagException e) {
+            throw new IOException("Sealed message authentication failed!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not open sealed message!", e);
+        }
+    }
+
+    /**
+     * Encodes the message and appends the tag authenticating it.
+     */
+    public byte[] sealMessage(FileTransferMessage message) throws IOException {
+        byte[] encodedMessage = message.getBytes();
+        byte[] sealedMessage = Arrays.copyOf(encodedMessage, encodedMessage.length + TAG_SIZE);
+        try {
+            init(sealingCipher, Cipher.ENCRYPT_MODE, sealingIv, sealingDirection, sealedFramesNumber++);
+            sealingCipher.updateAAD(encodedMessage);
+            sealingCipher.doFinal(sealedMessage, encodedMessage.length);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not seal control message!", e);
+        }
+        return sealedMessage;
+    }
+
+    /**
+     * Verifies the tag following the encoded message and consumes it.
+     */
+    public void openMessage(byte[] encodedMessage, ByteBuffer tag) throws IOException {
+        if (tag.remaining() < TAG_SIZE) {
+            throw new IOException("Control message is not authenticated!");
+        }
+        byte[] tagBytes = new byte[TAG_SIZE];
+        tag.get(tagBytes);
+        try {
+            init(openingCipher, Cipher.DECRYPT_MODE, openingIv, openingDirection, openedFramesNumber++);
+            openingCipher.updateAAD(encodedMessage);
+            openingCipher.doFinal(tagBytes);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Control message authentication failed!", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not open control message!", e);
+        }
+    }
+
+    public byte[] sealKeyConfirmation() throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FileTransferMessageCodec.SEALED_HEADER_SIZE + TAG_SIZE);
+        FileTransferMessageCodec.encodeSealedHeader(0, false, TAG_SIZE, frame);
+        seal(0, false, frame.slice().limit(0));
+        return frame.array();
+    }
+
+    public void openKeyConfirmation(ByteBuffer tag) throws IOException {
+        if (tag.remaining() != TAG_SIZE) {
+            throw new IOException("Invalid key confirmation!");
+        }
+        open(0, false, tag);
+        if (tag.hasRemaining()) {
+            throw new IOException("Invalid key confirmation!");
+        }
+    }
+
+    private void init(Cipher cipher, int mode, byte[] iv, int direction, long framesNumber)
+            throws GeneralSecurityException {
+        ByteBuffer.wrap(iv).putInt(direction).putLong(framesNumber);
+        cipher.init(mode, sessionKey, new GCMParameterSpec(TAG_SIZE * Byte.SIZE, iv));
+    }
+
+    private void authenticateHeader(Cipher cipher, int rawDataSize, boolean compressed, int sealedSize) {
+        FileTransferMessageCodec.encodeSealedHeader(rawDataSize, compressed, sealedSize, header.clear());
+        cipher.updateAAD(header.array());
+    }
+
+    private void crypt(Cipher cipher, ByteBuffer data, int outputSize) throws GeneralSecurityException {
+        int position = data.position();
+        int inputSize = data.remaining();
+        int outputLength;
+        if (Math.min(inputSize, outputSize) > MAX_ARRAY_CRYPT_SIZE) {
+            outputLength = cryptDirect(cipher, data, outputSize);
+        } else if (data.hasArray()) {
+            int offset = data.arrayOffset() + position;
+            if (cipher == sealingCipher) {
+                outputLength = cipher.doFinal(data.array(), offset, inputSize, data.array(), offset);
+            } else {
+                byte[] input = inputArray(inputSize);
+                data.get(position, input, 0, inputSize);
+                outputLength = cipher.doFinal(input, 0, inputSize, data.array(), offset);
+            }
+        } else {
+            byte[] input = inputArray(inputSize);
+            byte[] output = outputArray(outputSize);
+            data.get(position, input, 0, inputSize);
+            outputLength = cipher.doFinal(input, 0, inputSize, output, 0);
+            data.limit(position + outputLength).put(position, output, 0, outputLength);
+        }
+        data.limit(position + outputLength).position(position);
+    }
+
+    private int cryptDirect(Cipher cipher, ByteBuffer data, int outputSize) throws GeneralSecurityException {
+        int position = data.position();
+        if (data.isDirect()) {
+            return cipher.doFinal(data, data.duplicate().limit(position + outputSize));
+        }
+        if (directBuffer == null || directBuffer.capacity() < Math.max(data.remaining(), outputSize)) {
+            directBuffer = ByteBuffer.allocateDirect(Math.max(data.remaining(), outputSize));
+        }
+        directBuffer.clear().put(data).flip();
+        int outputLength = cipher.doFinal(directBuffer, directBuffer.duplicate().clear());
+        data.limit(position + outputLength).put(position, directBuffer.clear(), 0, outputLength);
+        return outputLength;
+    }
+
+    private byte[] inputArray(int size) {
+        if (inputArray.length < size) {
+            inputArray = new byte[size];
+        }
+        return inputArray;
+    }
+
+    private byte[] outputArray(int size) {
+        if (outputArray.length < size) {
+            outputArray = new byte[size];
+        }
+        return outputArray;
+    }
+
+}
@@ -0,0 +1,78 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ContentStore {
+
+    private static final Logger logger = LogManager.getLogger(ContentStore.class);
+
+    private final UploadsStorage uploadsStorage;
+    private final ExecutorService indexer;
+
+    public ContentStore(UploadsStorage uploadsStorage, boolean enabled) {
+        this.uploadsStorage = uploadsStorage;
+        indexer = enabled ? Executors.newSingleThreadExecutor(Thread.ofPlatform().name("content-indexer").daemon()
+                .factory()) : null;
+    }
+
+    public boolean isEnabled() {
+        return indexer != null;
+    }
+
+    public File link(FileTransferMessage lookupMessage) throws IOException {
+        if (!isEnabled() || lookupMessage.getContentDigest().length != ContentDigest.SIZE) {
+            return null;
+        }
+        Path blobFilePath = uploadsStorage.findBlobFilePath(lookupMessage.getContentDigest());
+        if (blobFilePath == null || Files.size(blobFilePath) != lookupMessage.getFileSize()) {
+            return null;
+        }
+        return uploadsStorage.linkFile(blobFilePath, lookupMessage.getFileName());
+    }
+
+    public void index(File file) {
+        if (isEnabled() && file.length() >= ContentDigest.MIN_FILE_SIZE) {
+            indexer.execute(() -> indexFile(file.toPath()));
+        }
+    }
+
+    public void stop() {
+        if (isEnabled()) {
+            indexer.shutdownNow();
+        }
+    }
+
+    private void indexFile(Path filePath) {
+        try {
+            byte[] contentDigest;
+            try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                contentDigest = ContentDigest.compute(fileChannel);
+            }
+            Path blobFilePath = uploadsStorage.getBlobFilePath(filePath, contentDigest);
+            if (Files.exists(blobFilePath)) {
+                return;
+            }
+            Files.createDirectories(blobFilePath.getParent());
+            Files.createLink(blobFilePath, filePath);
+            logger.info("File {} indexed as {}", filePath.getFileName(), blobFilePath.getFileName());
+        } catch (FileAlreadyExistsException e) {
+            logger.debug("Content of file {} is already indexed", filePath.getFileName());
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.error("Could not index content of file {}!", filePath.getFileName());
+        }
+    }
+
+}
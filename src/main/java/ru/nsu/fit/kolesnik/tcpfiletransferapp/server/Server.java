@@ -2,61 +2,164 @@ package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.BasisSigner;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriters;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFileCache;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.handler.ClientHandler;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.MetricsHttpServer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.TransferRegistry;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
 
+import javax.management.JMException;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
     public static final String UPLOADS_DIRECTORY_NAME = "uploads";
+    public static final long MAX_POOLED_BUFFER_BYTES = 67108864;
+    public static final long DEFAULT_FILE_CACHE_SIZE = 268435456;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+    public static final long ABORT_TIMEOUT_MILLIS = 5000;
 
     private static final Logger logger = LogManager.getLogger(Server.class);
 
-    private final ServerSocket serverSocket;
+    private final ServerSocketChannel serverSocketChannel;
     private final ExecutorService threadPool;
+    private final ScheduledExecutorService speedReportScheduler;
+    private final UploadsStorage uploadsStorage;
+    private final DiskWriters diskWriters;
+    private final ContentStore contentStore;
+    private final BasisSigner basisSigner;
+    private final TransferRegistry transferRegistry;
+    private final BufferPool bufferPool;
+    private final TransportConfig transportConfig;
+    private final ServerMetrics metrics;
+    private final BandwidthController bandwidthController;
+    private final AdmissionController admissionController;
+    private final Set<ClientHandler> clientHandlers;
+    private final long drainTimeoutMillis;
+    private final CountDownLatch terminated;
+    private volatile boolean started;
+    private MetricsHttpServer metricsHttpServer;
 
+    public Server(int port, ServerEngine engine) {
+        this(port, engine, null, TransportConfig.DEFAULT, new BandwidthController(0, 0, Map.of()),
+                false, DEFAULT_FILE_CACHE_SIZE, List.of(UPLOADS_DIRECTORY_NAME), new AdmissionController(),
+                DEFAULT_DRAIN_TIMEOUT_MILLIS);
+    }
 
-    public Server(int port) {
+    public Server(int port, ServerEngine engine, Integer metricsPort, TransportConfig transportConfig,
+                  BandwidthController bandwidthController, boolean deduplication, long fileCacheSize,
+                  List<String> uploadsDirectoryNames, AdmissionController admissionController,
+                  long drainTimeoutMillis) {
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocketChannel = transportConfig.openServerSocketChannel(port);
         } catch (IOException e) {
             logger.error("Could not create server!");
             throw new ServerException("Could not create server!", e);
         }
-        threadPool = Executors.newCachedThreadPool();
+        if (engine == ServerEngine.VIRTUAL) {
+            threadPool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-handler-", 0).factory());
+        } else {
+            threadPool = Executors.newCachedThreadPool();
+        }
+        speedReportScheduler = Executors.newSingleThreadScheduledExecutor();
+        uploadsStorage = new UploadsStorage(uploadsDirectoryNames);
+        metrics = new ServerMetrics();
+        diskWriters = new DiskWriters(metrics);
+        contentStore = new ContentStore(uploadsStorage, deduplication);
+        basisSigner = new BasisSigner(uploadsStorage);
+        transferRegistry = new TransferRegistry(uploadsStorage, diskWriters, contentStore, basisSigner,
+                new MappedFileCache(fileCacheSize, metrics));
+        bufferPool = new BufferPool(transportConfig.getFrameSize() + FileTransferMessageCodec.MAX_HEADER_SIZE,
+                MAX_POOLED_BUFFER_BYTES);
+        this.transportConfig = transportConfig;
+        this.bandwidthController = bandwidthController;
+        this.admissionController = admissionController;
+        clientHandlers = ConcurrentHashMap.newKeySet();
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        terminated = new CountDownLatch(1);
+        started = false;
         createUploadsDirectory();
+        exposeMetrics(metricsPort);
         logger.info("Server created successfully");
     }
 
     public void start() {
+        started = true;
         logger.info("Server started");
-        while (!serverSocket.isClosed()) {
-            try {
-                Socket socket = serverSocket.accept();
-                logger.info("New connection accepted");
-                threadPool.execute(new ClientHandler(socket));
-            } catch (IOException e) {
-                logger.error("Error occurred while waiting for new connection!");
-                shutdown();
-                throw new ServerException("Error occurred while waiting for new connection!", e);
+        try {
+            while (serverSocketChannel.isOpen()) {
+                try {
+                    SocketChannel socketChannel = serverSocketChannel.accept();
+                    logger.info("New connection accepted");
+                    threadPool.execute(new ClientHandler(socketChannel, transferRegistry, bufferPool,
+                            speedReportScheduler, metrics, transportConfig, bandwidthController, admissionController,
+                            clientHandlers));
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    logger.error("Error occurred while waiting for new connection!");
+                    drainClientHandlers();
+                    shutdown();
+                    throw new ServerException("Error occurred while waiting for new connection!", e);
+                }
             }
+            drainClientHandlers();
+            shutdown();
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    public int getPort() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    public void stop() {
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to stop server!");
+            throw new ServerException("Failed to stop server!", e);
+        }
+        if (!started) {
+            return;
+        }
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Waiting for server shutdown was interrupted!");
         }
-        shutdown();
     }
 
     private void createUploadsDirectory() {
-        Path uploadsPath = Path.of("./", UPLOADS_DIRECTORY_NAME);
         try {
-            if (!Files.isDirectory(uploadsPath)) {
-                Files.createDirectory(uploadsPath);
+            if (uploadsStorage.createUploadsDirectories()) {
                 logger.info("Uploads directory created successfully");
             }
+            long begin = System.nanoTime();
+            int indexedFilesNumber = uploadsStorage.indexStoredFiles();
+            logger.info("{} stored files on {} volume(s) indexed in {} ms", indexedFilesNumber,
+                    uploadsStorage.getVolumesNumber(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
         } catch (IOException e) {
             logger.error("Error occurred while creating uploads directory!");
             shutdown();
@@ -64,16 +167,73 @@ public class Server {
         }
     }
 
+    private void exposeMetrics(Integer metricsPort) {
+        try {
+            metrics.registerMBean();
+            bandwidthController.registerMBean();
+            admissionController.registerMBean();
+            if (metricsPort != null) {
+                metricsHttpServer = new MetricsHttpServer(metrics, metricsPort);
+                metricsHttpServer.start();
+                logger.info("Metrics are available at http://localhost:{}{}", metricsHttpServer.getPort(),
+                        MetricsHttpServer.METRICS_PATH);
+            }
+        } catch (IOException | JMException e) {
+            logger.error("Error occurred while exposing server metrics!");
+            shutdown();
+            throw new ServerException("Error occurred while exposing server metrics!", e);
+        }
+    }
+
+    private void drainClientHandlers() {
+        admissionController.close();
+        logger.info("Waiting for {} connection(s) to finish running transfers...", clientHandlers.size());
+        for (ClientHandler clientHandler : clientHandlers) {
+            clientHandler.drain();
+        }
+        threadPool.shutdown();
+        try {
+            if (threadPool.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            logger.warn("{} connection(s) did not finish within {} ms, closing them", clientHandlers.size(),
+                    drainTimeoutMillis);
+            for (ClientHandler clientHandler : clientHandlers) {
+                clientHandler.abort();
+            }
+            threadPool.awaitTermination(ABORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Waiting for running transfers was interrupted!");
+        }
+    }
+
     private void shutdown() {
         logger.info("Shutting server down");
         threadPool.shutdown();
+        speedReportScheduler.shutdown();
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
+        try {
+            metrics.unregisterMBean();
+            bandwidthController.unregisterMBean();
+            admissionController.unregisterMBean();
+        } catch (JMException e) {
+            logger.error("Failed to unregister server metrics!");
+        }
         try {
-            if (!serverSocket.isClosed()) {
-                serverSocket.close();
+            if (serverSocketChannel.isOpen()) {
+                serverSocketChannel.close();
             }
         } catch (IOException e) {
             logger.error("Failed to shutdown server gracefully!");
             throw new ServerException("Failed to shutdown server gracefully!", e);
+        } finally {
+            basisSigner.stop();
+            contentStore.stop();
+            diskWriters.stop();
+            transferRegistry.stop();
         }
         logger.info("Server shutdown");
     }
@@ -0,0 +1,5 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+public enum ServerEngine {
+    BLOCKING, VIRTUAL, NIO
+}
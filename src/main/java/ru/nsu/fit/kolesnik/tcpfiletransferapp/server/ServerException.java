@@ -1,7 +1,12 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
 
+import java.io.Serial;
+
 public class ServerException extends RuntimeException {
 
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     public ServerException(String message, Throwable cause) {
         super(message, cause);
     }
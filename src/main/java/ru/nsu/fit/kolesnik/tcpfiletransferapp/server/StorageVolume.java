@@ -0,0 +1,36 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Getter
+class StorageVolume {
+
+    private final Path rootPath;
+    private final FileStore fileStore;
+    private final AtomicInteger activeWritesNumber;
+
+    StorageVolume(Path rootPath) throws IOException {
+        this.rootPath = rootPath;
+        fileStore = Files.getFileStore(rootPath);
+        activeWritesNumber = new AtomicInteger();
+    }
+
+    boolean contains(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(rootPath);
+    }
+
+    long getUsableSpace() {
+        try {
+            return fileStore.getUsableSpace();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+}
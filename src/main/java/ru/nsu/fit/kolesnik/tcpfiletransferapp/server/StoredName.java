@@ -0,0 +1,33 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+import java.nio.file.Path;
+
+class StoredName {
+
+    private int nextCopyIndex;
+    private int latestCopyIndex;
+    private Path latestFilePath;
+
+    StoredName() {
+        nextCopyIndex = 0;
+        latestCopyIndex = -1;
+        latestFilePath = null;
+    }
+
+    synchronized int reserveCopyIndex() {
+        return nextCopyIndex++;
+    }
+
+    synchronized void stored(int copyIndex, Path filePath) {
+        nextCopyIndex = Math.max(nextCopyIndex, copyIndex + 1);
+        if (copyIndex > latestCopyIndex) {
+            latestCopyIndex = copyIndex;
+            latestFilePath = filePath;
+        }
+    }
+
+    synchronized Path getLatestFilePath() {
+        return latestFilePath;
+    }
+
+}
@@ -0,0 +1,293 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+public class UploadsStorage {
+
+    private static final String BLOBS_DIRECTORY_NAME = ".blobs";
+    private static final int SHARDS_NUMBER = 256;
+    private static final Pattern SHARD_DIRECTORY_NAME_PATTERN = Pattern.compile("[0-9a-f]{2}");
+    private static final Pattern COPY_NAME_PATTERN = Pattern.compile("copy([0-9]+)_(.+)");
+    private static final int MAX_COPY_INDEX_LENGTH = 9;
+
+    private final List<Path> rootPaths;
+    private final List<StorageVolume> volumes;
+    private final Map<String, StoredName> storedNames;
+    private final AtomicInteger nextVolumeIndex;
+
+    public UploadsStorage(List<String> uploadsDirectoryNames) {
+        rootPaths = new ArrayList<>();
+        for (String uploadsDirectoryName : uploadsDirectoryNames) {
+            rootPaths.add(Path.of("./", uploadsDirectoryName).toAbsolutePath().normalize());
+        }
+        volumes = new ArrayList<>();
+        storedNames = new ConcurrentHashMap<>();
+        nextVolumeIndex = new AtomicInteger();
+    }
+
+    public boolean createUploadsDirectories() throws IOException {
+        boolean created = false;
+        for (Path rootPath : rootPaths) {
+            if (!Files.isDirectory(rootPath)) {
+                Files.createDirectories(rootPath);
+                created = true;
+            }
+            volumes.add(new StorageVolume(rootPath));
+        }
+        return created;
+    }
+
+    public int indexStoredFiles() throws IOException {
+        int indexedFilesNumber = 0;
+        for (StorageVolume volume : volumes) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(volume.getRootPath())) {
+                for (Path entry : entries) {
+                    String entryName = entry.getFileName().toString();
+                    if (SHARD_DIRECTORY_NAME_PATTERN.matcher(entryName).matches() && Files.isDirectory(entry)) {
+                        indexedFilesNumber += indexDirectory(entry);
+                    } else if (!entryName.startsWith(".") && Files.isRegularFile(entry)) {
+                        indexStoredFile(entry);
+                        indexedFilesNumber++;
+                    }
+                }
+            }
+        }
+        return indexedFilesNumber;
+    }
+
+    public int getVolumesNumber() {
+        return volumes.size();
+    }
+
+    public Path findPartFilePath(long transferId) {
+        for (StorageVolume volume : volumes) {
+            Path partFilePath = volume.getRootPath().resolve(getPartFileName(transferId));
+            if (Files.isRegularFile(partFilePath)) {
+                return partFilePath;
+            }
+        }
+        return null;
+    }
+
+    public Path createPartFile(long transferId, long fileSize) throws IOException {
+        StorageVolume volume = chooseVolume(fileSize);
+        Path partFilePath = volume.getRootPath().resolve(getPartFileName(transferId));
+        Files.deleteIfExists(getJournalFilePath(partFilePath));
+        Files.deleteIfExists(partFilePath);
+        Files.createFile(partFilePath);
+        volume.getActiveWritesNumber().incrementAndGet();
+        return partFilePath;
+    }
+
+    public Path getJournalFilePath(Path partFilePath) {
+        String partFileName = partFilePath.getFileName().toString();
+        return partFilePath.resolveSibling(partFileName.substring(0, partFileName.lastIndexOf('.')) + ".journal");
+    }
+
+    public void writeStarted(Path partFilePath) throws IOException {
+        getVolume(partFilePath).getActiveWritesNumber().incrementAndGet();
+    }
+
+    public void writeFinished(Path partFilePath) throws IOException {
+        getVolume(partFilePath).getActiveWritesNumber().decrementAndGet();
+    }
+
+    public Path findBlobFilePath(byte[] contentDigest) {
+        for (StorageVolume volume : volumes) {
+            Path blobFilePath = getBlobFilePath(volume, contentDigest);
+            if (Files.isRegularFile(blobFilePath)) {
+                return blobFilePath;
+            }
+        }
+        return null;
+    }
+
+    public Path getBlobFilePath(Path storedFilePath, byte[] contentDigest) throws IOException {
+        return getBlobFilePath(getVolume(storedFilePath), contentDigest);
+    }
+
+    public boolean isPlainFileName(String fileName) {
+        try {
+            return !fileName.isEmpty() && !fileName.equals(".") && !fileName.equals("..")
+                    && fileName.equals(String.valueOf(Path.of(fileName).getFileName()))
+                    && !COPY_NAME_PATTERN.matcher(fileName).matches();
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    public Path findStoredFile(String fileName) {
+        if (!isPlainFileName(fileName)) {
+            return null;
+        }
+        StoredName storedName = storedNames.get(fileName);
+        if (storedName != null) {
+            Path latestFilePath = storedName.getLatestFilePath();
+            if (latestFilePath != null && Files.isRegularFile(latestFilePath)) {
+                return latestFilePath;
+            }
+        }
+        for (StorageVolume volume : volumes) {
+            Path filePath = getShardDirectoryPath(volume, fileName).resolve(fileName);
+            if (Files.isRegularFile(filePath)) {
+                return filePath;
+            }
+            filePath = volume.getRootPath().resolve(fileName);
+            if (!fileName.startsWith(".") && Files.isRegularFile(filePath)) {
+                return filePath;
+            }
+        }
+        return null;
+    }
+
+    public File commitPartFile(Path partFilePath, String fileName) throws IOException {
+        return claimFileName(getVolume(partFilePath), fileName, path -> {
+            try {
+                try {
+                    Files.createLink(path, partFilePath);
+                    Files.delete(partFilePath);
+                } catch (UnsupportedOperationException e) {
+                    Files.move(partFilePath, path);
+                }
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        });
+    }
+
+    public File linkFile(Path existingFilePath, String fileName) throws IOException {
+        return claimFileName(getVolume(existingFilePath), fileName, path -> {
+            try {
+                try {
+                    Files.createLink(path, existingFilePath);
+                } catch (UnsupportedOperationException e) {
+                    Files.copy(existingFilePath, path);
+                }
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+        });
+    }
+
+    private File claimFileName(StorageVolume volume, String fileName, FileNameClaim claim) throws IOException {
+        if (!isPlainFileName(fileName)) {
+            throw new IOException("Invalid file name!");
+        }
+        StoredName storedName = storedNames.computeIfAbsent(fileName, name -> new StoredName());
+        Path shardDirectoryPath = getShardDirectoryPath(volume, fileName);
+        Files.createDirectories(shardDirectoryPath);
+        while (true) {
+            int copyIndex = storedName.reserveCopyIndex();
+            Path path = shardDirectoryPath.resolve(getCopyPrefix(copyIndex) + fileName);
+            if (claim.tryCreate(path)) {
+                storedName.stored(copyIndex, path);
+                return path.toFile();
+            }
+        }
+    }
+
+    private StorageVolume chooseVolume(long fileSize) throws IOException {
+        StorageVolume chosenVolume = null;
+        long chosenUsableSpace = 0;
+        int firstVolumeIndex = Math.floorMod(nextVolumeIndex.getAndIncrement(), volumes.size());
+        for (int i = 0; i < volumes.size(); i++) {
+            StorageVolume volume = volumes.get((firstVolumeIndex + i) % volumes.size());
+            long usableSpace = volume.getUsableSpace();
+            if (usableSpace < fileSize) {
+                continue;
+            }
+            if (chosenVolume == null
+                    || volume.getActiveWritesNumber().get() < chosenVolume.getActiveWritesNumber().get()
+                    || volume.getActiveWritesNumber().get() == chosenVolume.getActiveWritesNumber().get()
+                    && !volume.getFileStore().equals(chosenVolume.getFileStore())
+                    && usableSpace > chosenUsableSpace) {
+                chosenVolume = volume;
+                chosenUsableSpace = usableSpace;
+            }
+        }
+        if (chosenVolume == null) {
+            throw new IOException("No storage volume has enough free space!");
+        }
+        return chosenVolume;
+    }
+
+    private StorageVolume getVolume(Path path) throws IOException {
+        for (StorageVolume volume : volumes) {
+            if (volume.contains(path)) {
+                return volume;
+            }
+        }
+        throw new IOException("Path is outside of storage volumes!");
+    }
+
+    private int indexDirectory(Path directoryPath) throws IOException {
+        int indexedFilesNumber = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directoryPath)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry)) {
+                    indexStoredFile(entry);
+                    indexedFilesNumber++;
+                }
+            }
+        }
+        return indexedFilesNumber;
+    }
+
+    private void indexStoredFile(Path filePath) {
+        String storedFileName = filePath.getFileName().toString();
+        String fileName = storedFileName;
+        int copyIndex = 0;
+        Matcher matcher = COPY_NAME_PATTERN.matcher(storedFileName);
+        if (matcher.matches() && matcher.group(1).length() <= MAX_COPY_INDEX_LENGTH
+                && !matcher.group(1).startsWith("0")) {
+            fileName = matcher.group(2);
+            copyIndex = Integer.parseInt(matcher.group(1));
+        }
+        storedNames.computeIfAbsent(fileName, name -> new StoredName()).stored(copyIndex, filePath);
+    }
+
+    private Path getShardDirectoryPath(StorageVolume volume, String fileName) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(fileName.getBytes(StandardCharsets.UTF_8));
+        return volume.getRootPath().resolve(String.format("%02x", checksum.getValue() % SHARDS_NUMBER));
+    }
+
+    private Path getBlobFilePath(StorageVolume volume, byte[] contentDigest) {
+        String name = ContentDigest.toHex(contentDigest);
+        return volume.getRootPath().resolve(BLOBS_DIRECTORY_NAME).resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private String getPartFileName(long transferId) {
+        return "." + Long.toHexString(transferId) + ".part";
+    }
+
+    private String getCopyPrefix(int copyIndex) {
+        return copyIndex == 0 ? "" : "copy" + copyIndex + "_";
+    }
+
+    private interface FileNameClaim {
+
+        boolean tryCreate(Path path) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.CompletableFuture;
+
+public class Admission {
+
+    private final AdmissionController admissionController;
+    @Getter(AccessLevel.PACKAGE)
+    private final CompletableFuture<Admission> result;
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private long bytesNumber;
+    @Getter(AccessLevel.PACKAGE)
+    @Setter(AccessLevel.PACKAGE)
+    private boolean granted;
+
+    Admission(AdmissionController admissionController, long bytesNumber) {
+        this.admissionController = admissionController;
+        this.bytesNumber = bytesNumber;
+        result = new CompletableFuture<>();
+        granted = false;
+    }
+
+    public void resize(long bytesNumber) {
+        admissionController.resize(this, bytesNumber);
+    }
+
+    public void close() {
+        admissionController.release(this);
+    }
+
+}
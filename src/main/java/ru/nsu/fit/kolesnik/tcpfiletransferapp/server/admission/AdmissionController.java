@@ -0,0 +1,255 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class AdmissionController implements AdmissionControllerMXBean {
+
+    public static final String OBJECT_NAME = "ru.nsu.fit.kolesnik.tcpfiletransferapp:type=AdmissionController";
+    public static final long RETRY_AFTER_MILLIS = 1000;
+
+    private static final Logger logger = LogManager.getLogger(AdmissionController.class);
+
+    private final int maxQueuedTransfers;
+    private final long queueTimeoutMillis;
+    private final Queue<Admission> queuedAdmissions;
+    private final Lock lock;
+    private int maxTransfers;
+    private long maxInFlightBytes;
+    private int admittedTransfersNumber;
+    private long admittedBytes;
+    private boolean closed;
+
+    public AdmissionController() {
+        this(0, 0, 0, 0);
+    }
+
+    public AdmissionController(int maxTransfers, long maxInFlightBytes, int maxQueuedTransfers,
+                               long queueTimeoutMillis) {
+        if (maxTransfers < 0 || maxInFlightBytes < 0 || maxQueuedTransfers < 0 || queueTimeoutMillis < 0) {
+            logger.error("Admission limits must not be negative!");
+            throw new IllegalArgumentException("Admission limits must not be negative!");
+        }
+        this.maxTransfers = maxTransfers;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.maxQueuedTransfers = maxQueuedTransfers;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        queuedAdmissions = new ArrayDeque<>();
+        lock = new ReentrantLock();
+        admittedTransfersNumber = 0;
+        admittedBytes = 0;
+        closed = false;
+    }
+
+    public void registerMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        mBeanServer.registerMBean(this, objectName);
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    public CompletableFuture<Admission> admit(long bytesNumber) {
+        Admission admission = new Admission(this, Math.max(0, bytesNumber));
+        boolean queued = false;
+        lock.lock();
+        try {
+            if (!closed && queuedAdmissions.isEmpty() && fits(admission.getBytesNumber())) {
+                grant(admission);
+            } else if (!closed && queuedAdmissions.size() < maxQueuedTransfers) {
+                queuedAdmissions.add(admission);
+                queued = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!queued) {
+            admission.getResult().complete(admission.isGranted() ? admission : null);
+            return admission.getResult();
+        }
+        admission.getResult().completeOnTimeout(null, queueTimeoutMillis, TimeUnit.MILLISECONDS)
+                .thenAccept(grantedAdmission -> {
+                    if (grantedAdmission == null) {
+                        release(admission);
+                    }
+                });
+        return admission.getResult();
+    }
+
+    public void close() {
+        List<Admission> rejectedAdmissions;
+        lock.lock();
+        try {
+            closed = true;
+            rejectedAdmissions = new ArrayList<>(queuedAdmissions);
+            queuedAdmissions.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Admission admission : rejectedAdmissions) {
+            admission.getResult().complete(null);
+        }
+    }
+
+    void resize(Admission admission, long bytesNumber) {
+        List<Admission> grantedAdmissions;
+        lock.lock();
+        try {
+            if (admission.isGranted()) {
+                admittedBytes += Math.max(0, bytesNumber) - admission.getBytesNumber();
+                admission.setBytesNumber(Math.max(0, bytesNumber));
+            }
+            grantedAdmissions = grantQueued();
+        } finally {
+            lock.unlock();
+        }
+        complete(grantedAdmissions);
+    }
+
+    void release(Admission admission) {
+        List<Admission> grantedAdmissions;
+        lock.lock();
+        try {
+            if (admission.isGranted()) {
+                admission.setGranted(false);
+                admittedTransfersNumber--;
+                admittedBytes -= admission.getBytesNumber();
+            } else {
+                queuedAdmissions.remove(admission);
+            }
+            grantedAdmissions = grantQueued();
+        } finally {
+            lock.unlock();
+        }
+        complete(grantedAdmissions);
+    }
+
+    @Override
+    public int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    @Override
+    public void setMaxTransfers(int maxTransfers) {
+        if (maxTransfers < 0) {
+            throw new IllegalArgumentException("Admission limits must not be negative!");
+        }
+        List<Admission> grantedAdmissions;
+        lock.lock();
+        try {
+            this.maxTransfers = maxTransfers;
+            grantedAdmissions = grantQueued();
+        } finally {
+            lock.unlock();
+        }
+        complete(grantedAdmissions);
+        logger.info("Maximum number of transfers set to {}", maxTransfers);
+    }
+
+    @Override
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    @Override
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes < 0) {
+            throw new IllegalArgumentException("Admission limits must not be negative!");
+        }
+        List<Admission> grantedAdmissions;
+        lock.lock();
+        try {
+            this.maxInFlightBytes = maxInFlightBytes;
+            grantedAdmissions = grantQueued();
+        } finally {
+            lock.unlock();
+        }
+        complete(grantedAdmissions);
+        logger.info("Maximum number of in-flight bytes set to {}", maxInFlightBytes);
+    }
+
+    @Override
+    public int getAdmittedTransfers() {
+        lock.lock();
+        try {
+            return admittedTransfersNumber;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getAdmittedBytes() {
+        lock.lock();
+        try {
+            return admittedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueuedTransfers() {
+        lock.lock();
+        try {
+            return queuedAdmissions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean fits(long bytesNumber) {
+        return (maxTransfers == 0 || admittedTransfersNumber < maxTransfers)
+                && (maxInFlightBytes == 0 || admittedBytes == 0 || admittedBytes + bytesNumber <= maxInFlightBytes);
+    }
+
+    private void grant(Admission admission) {
+        admission.setGranted(true);
+        admittedTransfersNumber++;
+        admittedBytes += admission.getBytesNumber();
+    }
+
+    private List<Admission> grantQueued() {
+        List<Admission> grantedAdmissions = new ArrayList<>();
+        Admission admission;
+        while ((admission = queuedAdmissions.peek()) != null && fits(admission.getBytesNumber())) {
+            queuedAdmissions.poll();
+            if (!admission.getResult().isDone()) {
+                grant(admission);
+                grantedAdmissions.add(admission);
+            }
+        }
+        return grantedAdmissions;
+    }
+
+    private void complete(List<Admission> grantedAdmissions) {
+        for (Admission admission : grantedAdmissions) {
+            if (!admission.getResult().complete(admission)) {
+                release(admission);
+            }
+        }
+    }
+
+}
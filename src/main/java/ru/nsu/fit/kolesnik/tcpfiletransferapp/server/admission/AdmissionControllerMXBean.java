@@ -0,0 +1,19 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission;
+
+public interface AdmissionControllerMXBean {
+
+    int getMaxTransfers();
+
+    void setMaxTransfers(int maxTransfers);
+
+    long getMaxInFlightBytes();
+
+    void setMaxInFlightBytes(long maxInFlightBytes);
+
+    int getAdmittedTransfers();
+
+    long getAdmittedBytes();
+
+    int getQueuedTransfers();
+
+}
@@ -0,0 +1,47 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+@Getter
+public class Basis {
+
+    private final Path filePath;
+    private final long fileSize;
+    private final BlockSignatures signatures;
+    @Getter(AccessLevel.NONE)
+    private final FileChannel fileChannel;
+
+    Basis(Path filePath, FileChannel fileChannel, BlockSignatures signatures) throws IOException {
+        this.filePath = filePath;
+        fileSize = fileChannel.size();
+        this.signatures = signatures;
+        this.fileChannel = fileChannel;
+    }
+
+    public void checkRange(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset > fileSize - length) {
+            throw new IOException("Invalid basis file range!");
+        }
+    }
+
+    public void read(ByteBuffer destination, long position) throws IOException {
+        while (destination.hasRemaining()) {
+            if (fileChannel.read(destination, position + destination.position()) == -1) {
+                throw new EOFException("Basis file was truncated!");
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+}
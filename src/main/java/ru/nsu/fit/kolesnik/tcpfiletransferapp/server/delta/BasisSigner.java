@@ -0,0 +1,85 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.UploadsStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class BasisSigner {
+
+    private static final int SIGNER_THREADS_NUMBER = 2;
+    private static final int READER_THREADS_NUMBER = 4;
+
+    private static final Logger logger = LogManager.getLogger(BasisSigner.class);
+
+    private final UploadsStorage uploadsStorage;
+    private final ExecutorService signers;
+    private final ExecutorService readers;
+
+    public BasisSigner(UploadsStorage uploadsStorage) {
+        this.uploadsStorage = uploadsStorage;
+        signers = Executors.newFixedThreadPool(SIGNER_THREADS_NUMBER,
+                Thread.ofPlatform().name("basis-signer-", 0).daemon().factory());
+        readers = Executors.newFixedThreadPool(READER_THREADS_NUMBER,
+                Thread.ofPlatform().name("basis-reader-", 0).daemon().factory());
+    }
+
+    public CompletableFuture<Basis> open(FileTransferMessage basisMessage) {
+        CompletableFuture<Basis> basis = new CompletableFuture<>();
+        signers.execute(() -> {
+            try {
+                basis.complete(openBasis(basisMessage.getFileName()));
+            } catch (IOException | RuntimeException e) {
+                basis.completeExceptionally(e);
+            }
+        });
+        return basis;
+    }
+
+    public CompletableFuture<ByteBuffer> read(Basis basis, ByteBuffer destination, long position) {
+        CompletableFuture<ByteBuffer> data = new CompletableFuture<>();
+        readers.execute(() -> {
+            try {
+                basis.read(destination, position);
+                data.complete(destination.flip());
+            } catch (IOException | RuntimeException e) {
+                data.completeExceptionally(e);
+            }
+        });
+        return data;
+    }
+
+    public void stop() {
+        signers.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    private Basis openBasis(String fileName) throws IOException {
+        Path filePath = uploadsStorage.findStoredFile(fileName);
+        if (filePath == null) {
+            return null;
+        }
+        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        try {
+            BlockSignatures signatures = BlockSignatures.compute(fileChannel,
+                    BlockSignatures.chooseBlockSize(fileChannel.size()));
+            logger.info("Signatures of {} computed: {} blocks of {} bytes", filePath.getFileName(),
+                    signatures.getBlocksNumber(), signatures.getBlockSize());
+            return new Basis(filePath, fileChannel, signatures);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+}
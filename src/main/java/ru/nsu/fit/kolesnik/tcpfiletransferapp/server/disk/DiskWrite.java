@@ -0,0 +1,30 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+
+@Getter
+class DiskWrite {
+
+    private final DiskWriteStream stream;
+    private final FileChannel fileChannel;
+    private final ByteBuffer buffer;
+    private final long position;
+    private final CompletableFuture<Void> syncFuture;
+
+    DiskWrite(DiskWriteStream stream, FileChannel fileChannel, ByteBuffer buffer, long position) {
+        this.stream = stream;
+        this.fileChannel = fileChannel;
+        this.buffer = buffer;
+        this.position = position;
+        syncFuture = buffer == null ? new CompletableFuture<>() : null;
+    }
+
+    boolean isSync() {
+        return buffer == null;
+    }
+
+}
@@ -0,0 +1,282 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class DiskWriteStream {
+
+    private static final int MAX_PENDING_WRITES = 8;
+
+    private final DiskWriter diskWriter;
+    private final FileChannel fileChannel;
+    private final Lock lock;
+    private final Condition writesFinished;
+    private final Queue<DiskWrite> deferredWrites;
+    private ByteBuffer chunk;
+    private long chunkPosition;
+    @Getter
+    private long position;
+    private int pendingWrites;
+    private long deferBegin;
+    private Runnable writableListener;
+    private CompletableFuture<Void> flushFuture;
+    private volatile IOException failure;
+
+    public DiskWriteStream(DiskWriter diskWriter, FileChannel fileChannel, long position) {
+        this.diskWriter = diskWriter;
+        this.fileChannel = fileChannel;
+        lock = new ReentrantLock();
+        writesFinished = lock.newCondition();
+        deferredWrites = new ArrayDeque<>();
+        this.position = position;
+        pendingWrites = 0;
+    }
+
+    public void write(ByteBuffer source) throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write file data!", failure);
+        }
+        while (source.hasRemaining()) {
+            if (chunk == null) {
+                chunk = diskWriter.acquireChunk();
+                chunkPosition = position;
+                chunk.limit((int) (DiskWriter.CHUNK_SIZE - chunkPosition % DiskWriter.CHUNK_SIZE));
+            }
+            int bytesNumber = Math.min(source.remaining(), chunk.remaining());
+            int limit = source.limit();
+            source.limit(source.position() + bytesNumber);
+            chunk.put(source);
+            source.limit(limit);
+            position += bytesNumber;
+            if (!chunk.hasRemaining()) {
+                submitChunk();
+            }
+        }
+    }
+
+    public boolean isBackpressured() {
+        lock.lock();
+        try {
+            return isFull();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void notifyWhenWritable(Runnable listener) {
+        lock.lock();
+        try {
+            if (isFull()) {
+                writableListener = listener;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        listener.run();
+    }
+
+    public void awaitWritable() throws IOException {
+        lock.lock();
+        try {
+            while (isFull()) {
+                writesFinished.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for disk writes was interrupted!");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CompletableFuture<Void> flushAsync() {
+        try {
+            submitPartialChunk();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        lock.lock();
+        try {
+            if (pendingWrites > 0) {
+                if (flushFuture == null) {
+                    flushFuture = new CompletableFuture<>();
+                }
+                return flushFuture;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return failure != null ? CompletableFuture.failedFuture(new IOException("Could not write file data!",
+                failure)) : CompletableFuture.completedFuture(null);
+    }
+
+    public CompletableFuture<Void> syncAsync() {
+        DiskWrite syncWrite = new DiskWrite(this, fileChannel, null, position);
+        try {
+            submitPartialChunk();
+            submit(syncWrite);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return syncWrite.getSyncFuture();
+    }
+
+    public void flush() throws IOException {
+        await(flushAsync());
+    }
+
+    public void sync() throws IOException {
+        await(syncAsync());
+    }
+
+    void writeFinished(DiskWrite write, IOException writeFailure) {
+        Runnable listener;
+        CompletableFuture<Void> finishedFlushFuture = null;
+        lock.lock();
+        try {
+            pendingWrites--;
+            if (writeFailure != null && failure == null) {
+                failure = writeFailure;
+            }
+            if (pendingWrites == 0) {
+                finishedFlushFuture = flushFuture;
+                flushFuture = null;
+            }
+            listener = takeWritableListener();
+            writesFinished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (write.isSync()) {
+            complete(write.getSyncFuture(), writeFailure);
+        }
+        if (finishedFlushFuture != null) {
+            complete(finishedFlushFuture, failure);
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    void ringAvailable() {
+        Runnable listener;
+        lock.lock();
+        try {
+            offerDeferredWrites();
+            listener = takeWritableListener();
+            writesFinished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private boolean isFull() {
+        return pendingWrites >= MAX_PENDING_WRITES || !deferredWrites.isEmpty();
+    }
+
+    private Runnable takeWritableListener() {
+        if (writableListener == null || isFull()) {
+            return null;
+        }
+        Runnable listener = writableListener;
+        writableListener = null;
+        return listener;
+    }
+
+    private void submitPartialChunk() throws IOException {
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.position() > 0) {
+            submitChunk();
+        } else {
+            diskWriter.releaseChunk(chunk);
+            chunk = null;
+        }
+    }
+
+    private void submitChunk() throws IOException {
+        ByteBuffer fullChunk = chunk.flip();
+        chunk = null;
+        try {
+            submit(new DiskWrite(this, fileChannel, fullChunk, chunkPosition));
+        } catch (IOException e) {
+            diskWriter.releaseChunk(fullChunk);
+            throw e;
+        }
+    }
+
+    private void submit(DiskWrite write) throws IOException {
+        lock.lock();
+        try {
+            if (deferredWrites.isEmpty() && diskWriter.offer(write)) {
+                pendingWrites++;
+                return;
+            }
+            if (deferredWrites.isEmpty()) {
+                deferBegin = System.nanoTime();
+            }
+            deferredWrites.add(write);
+            pendingWrites++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offerDeferredWrites() {
+        if (deferredWrites.isEmpty()) {
+            return;
+        }
+        try {
+            while (!deferredWrites.isEmpty() && diskWriter.offer(deferredWrites.peek())) {
+                deferredWrites.poll();
+            }
+            if (deferredWrites.isEmpty()) {
+                diskWriter.backpressured(System.nanoTime() - deferBegin);
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+            DiskWrite deferredWrite;
+            while ((deferredWrite = deferredWrites.poll()) != null) {
+                diskWriter.failWrite(deferredWrite, e);
+            }
+        }
+    }
+
+    private void complete(CompletableFuture<Void> future, IOException writeFailure) {
+        if (writeFailure != null) {
+            future.completeExceptionally(new IOException("Could not write file data!", writeFailure));
+        } else {
+            future.complete(null);
+        }
+    }
+
+    private void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for disk writes was interrupted!");
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+}
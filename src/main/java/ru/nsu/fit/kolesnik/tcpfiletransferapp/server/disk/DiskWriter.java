@@ -0,0 +1,179 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class DiskWriter implements Runnable {
+
+    public static final int CHUNK_SIZE = 1048576;
+    public static final int RING_CAPACITY = 64;
+
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final DiskWrite STOP = new DiskWrite(null, null, null, 0);
+
+    private static final Logger logger = LogManager.getLogger(DiskWriter.class);
+
+    private final BlockingQueue<DiskWrite> ring;
+    private final BufferPool chunkPool;
+    private final ServerMetrics metrics;
+    private final List<DiskWrite> batch;
+    private final Map<FileChannel, IOException> syncedChannels;
+    private final Queue<DiskWriteStream> waitingStreams;
+    private volatile boolean running;
+
+    DiskWriter(BufferPool chunkPool, ServerMetrics metrics) {
+        ring = new ArrayBlockingQueue<>(RING_CAPACITY);
+        this.chunkPool = chunkPool;
+        this.metrics = metrics;
+        batch = new ArrayList<>(MAX_BATCH_SIZE);
+        syncedChannels = new IdentityHashMap<>();
+        waitingStreams = new ConcurrentLinkedQueue<>();
+        running = true;
+    }
+
+    @Override
+    public void run() {
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                batch.add(ring.take());
+                ring.drainTo(batch, MAX_BATCH_SIZE - 1);
+                notifyWaitingStreams();
+                for (DiskWrite write : batch) {
+                    if (write == STOP) {
+                        stopping = true;
+                    } else if (!write.isSync()) {
+                        write(write);
+                    }
+                }
+                for (DiskWrite write : batch) {
+                    if (write != STOP && write.isSync()) {
+                        sync(write);
+                    }
+                }
+                batch.clear();
+                syncedChannels.clear();
+            }
+        } catch (InterruptedException e) {
+            logger.error("Disk writer was interrupted!");
+        } finally {
+            running = false;
+            failPendingWrites();
+            notifyWaitingStreams();
+        }
+    }
+
+    boolean offer(DiskWrite write) throws IOException {
+        if (!running) {
+            throw new IOException("Disk writer is stopped!");
+        }
+        if (ring.offer(write)) {
+            return true;
+        }
+        waitingStreams.add(write.getStream());
+        return ring.offer(write);
+    }
+
+    void backpressured(long elapsedNanos) {
+        metrics.diskBackpressure(elapsedNanos);
+    }
+
+    void failWrite(DiskWrite write, IOException failure) {
+        if (write == STOP) {
+            return;
+        }
+        if (!write.isSync()) {
+            releaseChunk(write.getBuffer());
+        }
+        write.getStream().writeFinished(write, failure);
+    }
+
+    ByteBuffer acquireChunk() {
+        return chunkPool.acquire();
+    }
+
+    void releaseChunk(ByteBuffer chunk) {
+        chunkPool.release(chunk);
+    }
+
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            ring.put(STOP);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Stopping disk writer was interrupted!");
+        }
+    }
+
+    private void write(DiskWrite write) {
+        ByteBuffer buffer = write.getBuffer();
+        long position = write.getPosition();
+        IOException failure = null;
+        long begin = System.nanoTime();
+        try {
+            while (buffer.hasRemaining()) {
+                position += write.getFileChannel().write(buffer, position);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        metrics.diskWriteFinished(System.nanoTime() - begin);
+        releaseChunk(buffer);
+        write.getStream().writeFinished(write, failure);
+    }
+
+    private void sync(DiskWrite write) {
+        FileChannel fileChannel = write.getFileChannel();
+        if (!syncedChannels.containsKey(fileChannel)) {
+            IOException failure = null;
+            try {
+                fileChannel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+            syncedChannels.put(fileChannel, failure);
+        }
+        write.getStream().writeFinished(write, syncedChannels.get(fileChannel));
+    }
+
+    private void notifyWaitingStreams() {
+        for (int i = waitingStreams.size(); i > 0; i--) {
+            DiskWriteStream stream = waitingStreams.poll();
+            if (stream == null) {
+                return;
+            }
+            stream.ringAvailable();
+        }
+    }
+
+    private void failPendingWrites() {
+        IOException failure = new IOException("Disk writer is stopped!");
+        for (DiskWrite write : batch) {
+            failWrite(write, failure);
+        }
+        batch.clear();
+        DiskWrite write;
+        while ((write = ring.poll()) != null) {
+            failWrite(write, failure);
+        }
+    }
+
+}
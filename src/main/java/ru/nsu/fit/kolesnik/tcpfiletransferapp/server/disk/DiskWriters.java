@@ -0,0 +1,67 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class DiskWriters {
+
+    private static final Logger logger = LogManager.getLogger(DiskWriters.class);
+
+    private final BufferPool chunkPool;
+    private final ServerMetrics metrics;
+    private final Map<FileStore, DiskWriter> diskWriters;
+    private final Lock lock;
+    private boolean stopped;
+
+    public DiskWriters(ServerMetrics metrics) {
+        chunkPool = new BufferPool(DiskWriter.CHUNK_SIZE, (long) DiskWriter.CHUNK_SIZE * DiskWriter.RING_CAPACITY * 2);
+        this.metrics = metrics;
+        diskWriters = new HashMap<>();
+        lock = new ReentrantLock();
+        stopped = false;
+    }
+
+    public DiskWriter forPath(Path path) throws IOException {
+        FileStore fileStore = Files.getFileStore(path);
+        lock.lock();
+        try {
+            if (stopped) {
+                throw new IOException("Disk writers are stopped!");
+            }
+            DiskWriter diskWriter = diskWriters.get(fileStore);
+            if (diskWriter == null) {
+                diskWriter = new DiskWriter(chunkPool, metrics);
+                Thread.ofPlatform().name("disk-writer-" + diskWriters.size()).start(diskWriter);
+                diskWriters.put(fileStore, diskWriter);
+                logger.info("Disk writer started for {}", fileStore);
+            }
+            return diskWriter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            for (DiskWriter diskWriter : diskWriters.values()) {
+                diskWriter.stop();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
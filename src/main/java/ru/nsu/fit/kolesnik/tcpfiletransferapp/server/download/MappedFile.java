@@ -0,0 +1,91 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32C;
+
+@Getter
+public class MappedFile {
+
+    public static final long SEGMENT_SIZE = FileTransferMessage.MAX_BODY_SIZE;
+
+    private static final long REGION_SIZE = 1073741824;
+    private static final long UNKNOWN_CHECKSUM = -1;
+
+    private final Path filePath;
+    private final long fileSize;
+    private final long lastModified;
+    @Getter(AccessLevel.NONE)
+    private final MappedByteBuffer[] regions;
+    @Getter(AccessLevel.NONE)
+    private final AtomicLongArray segmentChecksums;
+
+    private MappedFile(Path filePath, long fileSize, long lastModified, MappedByteBuffer[] regions) {
+        this.filePath = filePath;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.regions = regions;
+        segmentChecksums = new AtomicLongArray((int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE));
+        for (int i = 0; i < segmentChecksums.length(); i++) {
+            segmentChecksums.set(i, UNKNOWN_CHECKSUM);
+        }
+    }
+
+    static MappedFile map(Path filePath) throws IOException {
+        long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long fileSize = fileChannel.size();
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((fileSize + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = i * REGION_SIZE;
+                regions[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE, fileSize - position));
+            }
+            return new MappedFile(filePath, fileSize, lastModified, regions);
+        }
+    }
+
+    boolean isFresh() throws IOException {
+        try {
+            return Files.size(filePath) == fileSize
+                    && Files.getLastModifiedTime(filePath).toMillis() == lastModified;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    public ByteBuffer slice(long position, int length) {
+        int region = (int) (position / REGION_SIZE);
+        return regions[region].slice((int) (position % REGION_SIZE), length);
+    }
+
+    public int getChecksum(long position, int length) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        boolean wholeSegment = position % SEGMENT_SIZE == 0
+                && length == Math.min(SEGMENT_SIZE, fileSize - position);
+        if (wholeSegment) {
+            long checksum = segmentChecksums.get(segment);
+            if (checksum != UNKNOWN_CHECKSUM) {
+                return (int) checksum;
+            }
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(slice(position, length));
+        if (wholeSegment) {
+            segmentChecksums.set(segment, checksum.getValue());
+        }
+        return (int) checksum.getValue();
+    }
+
+}
@@ -0,0 +1,76 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class MappedFileCache {
+
+    private static final Logger logger = LogManager.getLogger(MappedFileCache.class);
+
+    private final long capacity;
+    private final ServerMetrics metrics;
+    private final LinkedHashMap<Path, MappedFile> files;
+    private final Lock lock;
+    private long cachedBytes;
+
+    public MappedFileCache(long capacity, ServerMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+        files = new LinkedHashMap<>(16, 0.75f, true);
+        lock = new ReentrantLock();
+        cachedBytes = 0;
+    }
+
+    public MappedFile open(Path filePath) throws IOException {
+        Path key = filePath.toAbsolutePath().normalize();
+        lock.lock();
+        try {
+            MappedFile file = files.get(key);
+            if (file != null) {
+                if (file.isFresh()) {
+                    metrics.fileCacheHit();
+                    return file;
+                }
+                remove(key);
+            }
+            metrics.fileCacheMissed();
+            file = MappedFile.map(key);
+            if (file.getFileSize() <= capacity) {
+                files.put(key, file);
+                cachedBytes += file.getFileSize();
+                metrics.fileCacheResized(file.getFileSize());
+                evict();
+            }
+            return file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, MappedFile>> iterator = files.entrySet().iterator();
+        while (cachedBytes > capacity && iterator.hasNext()) {
+            MappedFile file = iterator.next().getValue();
+            iterator.remove();
+            cachedBytes -= file.getFileSize();
+            metrics.fileCacheResized(-file.getFileSize());
+            logger.debug("File {} evicted from file cache", file.getFilePath().getFileName());
+        }
+    }
+
+    private void remove(Path key) {
+        MappedFile file = files.remove(key);
+        cachedBytes -= file.getFileSize();
+        metrics.fileCacheResized(-file.getFileSize());
+    }
+
+}
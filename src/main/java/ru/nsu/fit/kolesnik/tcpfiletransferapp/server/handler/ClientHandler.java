@@ -2,67 +2,147 @@ package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.handler;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferFrame;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
 import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
-import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.Server;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.Decompressor;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.Admission;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.Basis;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriteStream;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFile;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.Throttle;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.Transfer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.TransferRegistry;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
 
 import java.io.*;
 import java.net.Socket;
-import java.nio.file.Files;
-import java.time.Instant;
-import java.util.concurrent.Executors;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
 
 import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.receiveMessageTag;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.receiveFrameHeader;
 import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.sendFileTransferMessage;
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage.writeFileTransferMessage;
 
 public class ClientHandler implements Runnable {
 
     private static final long SPEED_COUNT_PERIOD = 3;
+    private static final int LINGER_TIMEOUT_MILLIS = 1000;
+    private static final long MAX_LINGER_BYTES = 16777216;
 
     private static final Logger logger = LogManager.getLogger(ClientHandler.class);
 
+    private final SocketChannel socketChannel;
+    private final TransferRegistry transferRegistry;
     private final Socket socket;
-    private final ScheduledExecutorService scheduledExecutorService;
-    private final Lock lock;
-    private File downloadingFile;
-    private long bytesReceivedWithinPeriod;
+    private final BufferPool bufferPool;
+    private final FileTransferFrame frame;
+    private final ScheduledExecutorService speedReportScheduler;
+    private final CRC32C frameChecksum;
+    private final CRC32C fileChecksum;
+    private final ServerMetrics metrics;
+    private final TransportConfig transportConfig;
+    private final BandwidthController bandwidthController;
+    private final AdmissionController admissionController;
+    private final Set<ClientHandler> clientHandlers;
+    private final LongAdder bytesReceivedWithinPeriod;
+    private ScheduledFuture<?> speedReportTask;
+    private ByteBuffer dataBuffer;
+    private Decompressor decompressor;
+    private ByteBuffer rawDataBuffer;
+    private int maxDataSize;
+    private FrameCipher frameCipher;
+    private boolean authenticated;
+    private Transfer transfer;
+    private DiskWriteStream diskWriteStream;
+    private Throttle throttle;
+    private Basis basis;
+    private Admission admission;
+    private boolean awaitingMessage;
+    private boolean draining;
+    private long rangeOffset;
+    private long writePosition;
+    private long verifiedPosition;
+    private long lastCheckpointPosition;
     private long totalBytesReceived;
+    private long totalWireBytesReceived;
 
-    public ClientHandler(Socket socket) {
-        this.socket = socket;
-        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-        lock = new ReentrantLock();
-        bytesReceivedWithinPeriod = 0;
+    public ClientHandler(SocketChannel socketChannel, TransferRegistry transferRegistry, BufferPool bufferPool,
+                         ScheduledExecutorService speedReportScheduler, ServerMetrics metrics,
+                         TransportConfig transportConfig, BandwidthController bandwidthController,
+                         AdmissionController admissionController, Set<ClientHandler> clientHandlers) {
+        this.socketChannel = socketChannel;
+        this.transferRegistry = transferRegistry;
+        this.bufferPool = bufferPool;
+        socket = socketChannel.socket();
+        frame = new FileTransferFrame();
+        dataBuffer = bufferPool.acquire();
+        this.speedReportScheduler = speedReportScheduler;
+        frameChecksum = new CRC32C();
+        fileChecksum = new CRC32C();
+        this.metrics = metrics;
+        this.transportConfig = transportConfig;
+        this.bandwidthController = bandwidthController;
+        this.admissionController = admissionController;
+        this.clientHandlers = clientHandlers;
+        maxDataSize = FileTransferMessage.DEFAULT_DATA_SIZE;
+        authenticated = transportConfig.getEncryptionKey() == null;
+        bytesReceivedWithinPeriod = new LongAdder();
+        metrics.connectionOpened();
         totalBytesReceived = 0;
+        totalWireBytesReceived = 0;
+        awaitingMessage = false;
+        draining = false;
+        clientHandlers.add(this);
+    }
+
+    public synchronized void drain() {
+        draining = true;
+        if (awaitingMessage) {
+            closeSocket();
+        }
+    }
+
+    public void abort() {
+        closeSocket();
     }
 
     @Override
     public void run() {
         try (DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
              DataInputStream dataInputStream = new DataInputStream(socket.getInputStream())) {
-            logger.info("Initializing file download from {}...", socket.getInetAddress().getHostAddress());
-            long requiredBytesNumber = initializeFileDownload(dataInputStream);
-            logger.info("File download initialized");
-            scheduledExecutorService.scheduleAtFixedRate(this::printCurrentFileDownloadSpeed, SPEED_COUNT_PERIOD,
-                    SPEED_COUNT_PERIOD, TimeUnit.SECONDS);
-            logger.info("Downloading file from {}...", socket.getInetAddress().getHostAddress());
-            Instant begin = Instant.now();
-            boolean fileDownloadedSuccessfully = downloadFile(requiredBytesNumber, dataOutputStream, dataInputStream);
-            Instant end = Instant.now();
-            logger.info("File download finished");
-            scheduledExecutorService.shutdown();
-            if (fileDownloadedSuccessfully) {
-                logger.info("File downloaded successfully");
-            } else {
-                logger.error("File download failed! Server did not receive whole file!");
+            transportConfig.configure(socketChannel);
+            speedReportTask = speedReportScheduler.scheduleAtFixedRate(this::printCurrentFileDownloadSpeed,
+                    SPEED_COUNT_PERIOD, SPEED_COUNT_PERIOD, TimeUnit.SECONDS);
+            FileTransferMessage initializingMessage;
+            while ((initializingMessage = receiveInitializingMessage(dataOutputStream, dataInputStream)) != null) {
+                handleFileDownload(initializingMessage, dataOutputStream, dataInputStream);
+                closeAdmission();
             }
-            printAverageDownloadSpeed(begin, end);
         } catch (IOException e) {
             logger.error("Error occurred while handling client {}!", socket.getInetAddress().getHostAddress());
+            metrics.connectionFailed();
             shutdown();
             throw new ClientHandlerException(
                     String.format("Error occurred while handling client %s!", socket.getInetAddress().getHostAddress()),
@@ -72,99 +152,663 @@ public class ClientHandler implements Runnable {
         shutdown();
     }
 
-    private long initializeFileDownload(DataInputStream dataInputStream) {
-        FileTransferMessage initializingMessage;
+    private void handleFileDownload(FileTransferMessage initializingMessage, DataOutputStream dataOutputStream,
+                                    DataInputStream dataInputStream) {
+        logger.info("Initializing file download from {}...", socket.getInetAddress().getHostAddress());
+        long requiredBytesNumber = initializeFileDownload(initializingMessage);
+        logger.info("File download initialized");
+        logger.info("Downloading file from {}...", socket.getInetAddress().getHostAddress());
+        long begin = System.nanoTime();
+        boolean fileDownloadedSuccessfully = downloadFile(requiredBytesNumber, dataOutputStream, dataInputStream);
+        long elapsedNanos = System.nanoTime() - begin;
+        metrics.transferFinished(elapsedNanos, fileDownloadedSuccessfully);
+        logger.info("File download finished");
+        if (fileDownloadedSuccessfully) {
+            logger.info("File downloaded successfully");
+        } else {
+            logger.error("File download failed! Server did not receive whole file!");
+        }
+        printAverageDownloadSpeed(elapsedNanos);
+    }
+
+    private FileTransferMessage receiveInitializingMessage(DataOutputStream dataOutputStream,
+                                                           DataInputStream dataInputStream) {
         try {
-            initializingMessage = receiveFileTransferMessage(dataInputStream);
+            FileTransferMessage initializingMessage;
+            while ((initializingMessage = receiveNextMessage(dataInputStream)) != null) {
+                if (!authenticated && initializingMessage.getType() != FileTransferMessageType.HELLO
+                        && initializingMessage.getType() != FileTransferMessageType.SEALED) {
+                    throw new IOException("Connection is not authenticated!");
+                }
+                switch (initializingMessage.getType()) {
+                    case HELLO -> negotiateConnection(initializingMessage, dataOutputStream);
+                    case SEALED -> confirmSessionKey(initializingMessage);
+                    case RESUME -> sendResumeOffset(initializingMessage, dataOutputStream);
+                    case LOOKUP -> sendLookupResult(initializingMessage, dataOutputStream);
+                    case BASIS -> sendBasisSignatures(initializingMessage, dataOutputStream);
+                    case GET -> sendStoredFile(initializingMessage, dataOutputStream);
+                    case INIT -> {
+                        return admitTransfer(initializingMessage, dataOutputStream, dataInputStream)
+                                ? initializingMessage : null;
+                    }
+                    default -> throw new IOException("File download was not initialized!");
+                }
+            }
+            return null;
         } catch (IOException e) {
             logger.error("Error occurred while initializing file download!");
+            metrics.connectionFailed();
             shutdown();
             throw new ClientHandlerException("Error occurred while initializing file download!", e);
         }
-        downloadingFile = createDownloadingFile(initializingMessage.getFileName());
-        return initializingMessage.getFileSize();
     }
 
-    private File createDownloadingFile(String fileName) {
-        File file;
-        boolean fileCreated;
-        String prefix = "";
-        int i = 0;
-        do {
-            file = new File("./" + Server.UPLOADS_DIRECTORY_NAME + "/" + prefix + fileName);
-            try {
-                fileCreated = file.createNewFile();
-            } catch (IOException e) {
-                logger.error("Error occurred while creating download file!");
-                shutdown();
-                throw new ClientHandlerException("Error occurred while creating downloading file!", e);
+    private FileTransferMessage receiveNextMessage(DataInputStream dataInputStream) throws IOException {
+        if (!startAwaitingMessage()) {
+            return null;
+        }
+        try {
+            FileTransferMessage message = receiveFileTransferMessage(dataInputStream, sessionCipher());
+            return stopAwaitingMessage() ? message : null;
+        } catch (EOFException e) {
+            if (!authenticated && frameCipher != null) {
+                logger.warn("Client {} did not confirm session key", socket.getInetAddress().getHostAddress());
             }
-            if (i > 0) {
-                prefix = "copy" + i + "_";
-            } else {
-                prefix = "copy_";
+            return null;
+        } catch (IOException e) {
+            if (!stopAwaitingMessage()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized boolean startAwaitingMessage() {
+        awaitingMessage = admission == null;
+        return !draining || !awaitingMessage;
+    }
+
+    private synchronized boolean stopAwaitingMessage() {
+        boolean idle = awaitingMessage;
+        awaitingMessage = false;
+        return !draining || !idle;
+    }
+
+    private boolean admitTransfer(FileTransferMessage initializingMessage, DataOutputStream dataOutputStream,
+                                  DataInputStream dataInputStream) throws IOException {
+        if (admission != null) {
+            admission.resize(initializingMessage.getLength());
+            return true;
+        }
+        admission = awaitAdmission(admissionController.admit(initializingMessage.getLength()));
+        if (admission == null) {
+            rejectTransfer(dataOutputStream);
+            discardPipelinedData(dataInputStream);
+            return false;
+        }
+        return true;
+    }
+
+    private Admission awaitAdmission(CompletableFuture<Admission> admissionFuture) throws IOException {
+        long begin = System.nanoTime();
+        try {
+            return admissionFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for transfer admission was interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not admit transfer!", e.getCause());
+        } finally {
+            metrics.admissionWaited(System.nanoTime() - begin);
+        }
+    }
+
+    private void rejectTransfer(DataOutputStream dataOutputStream) throws IOException {
+        logger.warn("Server is busy, transfer from {} rejected", socket.getInetAddress().getHostAddress());
+        metrics.transferRejected();
+        sendFileTransferMessage(FileTransferMessage.busy(AdmissionController.RETRY_AFTER_MILLIS,
+                admissionController.getQueuedTransfers()), sessionCipher(), dataOutputStream);
+    }
+
+    private void discardPipelinedData(DataInputStream dataInputStream) throws IOException {
+        socket.shutdownOutput();
+        socket.setSoTimeout(LINGER_TIMEOUT_MILLIS);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_TIMEOUT_MILLIS);
+        byte[] discardedBytes = new byte[8192];
+        long discardedBytesNumber = 0;
+        try {
+            int readBytesNumber;
+            while (discardedBytesNumber < MAX_LINGER_BYTES && System.nanoTime() - deadline < 0
+                    && (readBytesNumber = dataInputStream.read(discardedBytes)) != -1) {
+                discardedBytesNumber += readBytesNumber;
+            }
+        } catch (SocketTimeoutException e) {
+            logger.warn("Client {} did not close rejected connection", socket.getInetAddress().getHostAddress());
+        }
+    }
+
+    private void closeAdmission() {
+        if (admission != null) {
+            admission.close();
+            admission = null;
+        }
+    }
+
+    private long initializeFileDownload(FileTransferMessage initializingMessage) {
+        try {
+            transfer = transferRegistry.join(initializingMessage);
+        } catch (IOException e) {
+            logger.error("Error occurred while creating downloading file!");
+            metrics.connectionFailed();
+            shutdown();
+            throw new ClientHandlerException("Error occurred while creating downloading file!", e);
+        }
+        throttle = bandwidthController.open(socket.getInetAddress(), initializingMessage.getStreamsNumber());
+        rangeOffset = initializingMessage.getOffset();
+        diskWriteStream = transfer.openWriteStream(rangeOffset);
+        writePosition = rangeOffset;
+        verifiedPosition = rangeOffset;
+        lastCheckpointPosition = rangeOffset;
+        totalBytesReceived = 0;
+        totalWireBytesReceived = 0;
+        fileChecksum.reset();
+        return initializingMessage.getLength();
+    }
+
+    private void negotiateConnection(FileTransferMessage helloMessage, DataOutputStream dataOutputStream)
+            throws IOException {
+        String compression = CompressionCodecs.negotiate(Arrays.asList(helloMessage.getCompression().split(",")));
+        if (CompressionCodecs.NONE.equals(compression)) {
+            decompressor = null;
+        } else {
+            decompressor = CompressionCodecs.find(compression).createDecompressor();
+            if (rawDataBuffer == null) {
+                rawDataBuffer = bufferPool.acquire();
             }
-            i++;
-        } while (!fileCreated);
-        return file;
+        }
+        maxDataSize = Math.max(FileTransferMessage.DEFAULT_DATA_SIZE,
+                Math.min(helloMessage.getDataSize(), transportConfig.getFrameSize()));
+        logger.info("Using {} compression and {} bytes frames for {}", compression, maxDataSize,
+                socket.getInetAddress().getHostAddress());
+        EncryptionKey encryptionKey = transportConfig.getEncryptionKey();
+        if (encryptionKey == null) {
+            sendFileTransferMessage(FileTransferMessage.hello(compression, maxDataSize),
+                    dataOutputStream);
+            return;
+        }
+        if (helloMessage.getNonce().length == 0) {
+            throw new IOException("Encryption is required!");
+        }
+        if (frameCipher != null) {
+            throw new IOException("Session key was already negotiated!");
+        }
+        byte[] serverNonce = encryptionKey.generateNonce();
+        frameCipher = encryptionKey.createCipher(helloMessage.getNonce(), serverNonce, false);
+        writeFileTransferMessage(FileTransferMessage.hello(compression, maxDataSize,
+                serverNonce), dataOutputStream);
+        dataOutputStream.write(frameCipher.sealKeyConfirmation());
+        dataOutputStream.flush();
+    }
+
+    private void confirmSessionKey(FileTransferMessage sealedMessage) throws IOException {
+        if (frameCipher == null || authenticated || sealedMessage.getRawDataSize() != 0) {
+            throw new IOException("Unexpected sealed message!");
+        }
+        frameCipher.openKeyConfirmation(ByteBuffer.wrap(sealedMessage.getData(), 0, sealedMessage.getDataSize()));
+        authenticated = true;
+        logger.info("Encrypted session established with {}", socket.getInetAddress().getHostAddress());
+    }
+
+    private FrameCipher sessionCipher() {
+        return authenticated ? frameCipher : null;
+    }
+
+    private void sendResumeOffset(FileTransferMessage resumingMessage, DataOutputStream dataOutputStream)
+            throws IOException {
+        long resumeOffset = transferRegistry.getResumeOffset(resumingMessage);
+        long remainingLength = resumingMessage.getOffset() + resumingMessage.getLength() - resumeOffset;
+        closeAdmission();
+        admission = awaitAdmission(admissionController.admit(remainingLength));
+        if (admission == null) {
+            rejectTransfer(dataOutputStream);
+            return;
+        }
+        if (resumeOffset > resumingMessage.getOffset()) {
+            logger.info("Resuming file download from {} at byte {}", socket.getInetAddress().getHostAddress(),
+                    resumeOffset);
+        }
+        sendFileTransferMessage(FileTransferMessage.offset(resumingMessage.getTransferId(),
+                resumingMessage.getFileSize(), resumeOffset), sessionCipher(), dataOutputStream);
+    }
+
+    private void sendLookupResult(FileTransferMessage lookupMessage, DataOutputStream dataOutputStream)
+            throws IOException {
+        File file = transferRegistry.linkDuplicate(lookupMessage);
+        if (file != null) {
+            logger.info("File {} from {} stored as a link to existing content", file.getName(),
+                    socket.getInetAddress().getHostAddress());
+            metrics.fileDeduplicated(lookupMessage.getFileSize());
+        }
+        sendFileTransferMessage(file != null ? FileTransferMessage.success() : FileTransferMessage.missing(),
+                sessionCipher(), dataOutputStream);
     }
 
-    private void deleteDownloadingFile() {
+    private void sendBasisSignatures(FileTransferMessage basisMessage, DataOutputStream dataOutputStream)
+            throws IOException {
+        closeBasis();
+        basis = awaitBasis(transferRegistry.openBasis(basisMessage));
+        if (basis == null) {
+            sendFileTransferMessage(FileTransferMessage.missing(), sessionCipher(), dataOutputStream);
+            return;
+        }
+        BlockSignatures signatures = basis.getSignatures();
+        logger.info("Sending signatures of stored file {} to {}", basis.getFilePath().getFileName(),
+                socket.getInetAddress().getHostAddress());
+        writeFileTransferMessage(FileTransferMessage.basis(basisMessage.getFileName(), basis.getFileSize(),
+                signatures.getBlockSize()), sessionCipher(), dataOutputStream);
+        for (int i = 0; i < signatures.getMessagesNumber(); i++) {
+            writeFileTransferMessage(signatures.encodeMessage(i), sessionCipher(), dataOutputStream);
+        }
+        dataOutputStream.flush();
+    }
+
+    private void sendStoredFile(FileTransferMessage getMessage, DataOutputStream dataOutputStream)
+            throws IOException {
+        MappedFile file = transferRegistry.openStoredFile(getMessage);
+        if (file == null) {
+            sendFileTransferMessage(FileTransferMessage.missing(), sessionCipher(), dataOutputStream);
+            return;
+        }
+        long offset = getMessage.getOffset();
+        if (offset < 0 || getMessage.getLength() < 0 || offset > file.getFileSize()) {
+            throw new IOException("Invalid file range!");
+        }
+        long length = Math.min(getMessage.getLength(), file.getFileSize() - offset);
+        sendFileTransferMessage(FileTransferMessage.file(getMessage.getFileName(), file.getFileSize(), offset,
+                length), sessionCipher(), dataOutputStream);
+        if (length > 0) {
+            logger.info("Sending {} bytes of stored file {} to {}", length, file.getFilePath().getFileName(),
+                    socket.getInetAddress().getHostAddress());
+        }
+        if (frameCipher != null) {
+            sendSealedFileRange(file, offset, length);
+            return;
+        }
+        ByteBuffer bodyHeader = ByteBuffer.allocate(FileTransferMessageCodec.BODY_HEADER_SIZE);
+        ByteBuffer bodyChecksum = ByteBuffer.allocate(Integer.BYTES);
+        long position = offset;
+        while (position < offset + length) {
+            int bodySize = (int) Math.min(offset + length - position,
+                    MappedFile.SEGMENT_SIZE - position % MappedFile.SEGMENT_SIZE);
+            FileTransferMessageCodec.encodeBodyHeader(bodySize, bodyHeader.clear());
+            bodyChecksum.clear().putInt(file.getChecksum(position, bodySize));
+            ByteBuffer[] buffers = {bodyHeader.flip(), file.slice(position, bodySize), bodyChecksum.flip()};
+            while (bodyChecksum.hasRemaining()) {
+                socketChannel.write(buffers);
+            }
+            metrics.bytesSent(bodySize);
+            position += bodySize;
+        }
+    }
+
+    private void sendSealedFileRange(MappedFile file, long offset, long length) throws IOException {
+        ByteBuffer sealedHeader = ByteBuffer.allocate(FileTransferMessageCodec.SEALED_HEADER_SIZE);
+        long position = offset;
+        while (position < offset + length) {
+            int dataSize = (int) Math.min(Math.min(offset + length - position, maxDataSize),
+                    MappedFile.SEGMENT_SIZE - position % MappedFile.SEGMENT_SIZE);
+            dataBuffer.clear().put(file.slice(position, dataSize)).flip();
+            frameCipher.seal(dataSize, false, dataBuffer);
+            FileTransferMessageCodec.encodeSealedHeader(dataSize, false, dataBuffer.remaining(),
+                    sealedHeader.clear());
+            ByteBuffer[] buffers = {sealedHeader.flip(), dataBuffer};
+            while (dataBuffer.hasRemaining()) {
+                socketChannel.write(buffers);
+            }
+            metrics.bytesSent(dataSize);
+            position += dataSize;
+        }
+    }
+
+    private Basis awaitBasis(CompletableFuture<Basis> basisFuture) throws IOException {
+        try {
+            return basisFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Computing basis file signatures was interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute basis file signatures!", e.getCause());
+        }
+    }
+
+    private void closeBasis() {
+        if (basis == null) {
+            return;
+        }
         try {
-            Files.delete(downloadingFile.toPath());
+            basis.close();
         } catch (IOException e) {
-            logger.error("Error occurred while deleting redundant downloading file!");
-            throw new ClientHandlerException("Error occurred while deleting redundant downloading file!", e);
+            logger.error("Failed to close basis file!");
+        }
+        basis = null;
+    }
+
+    private void checkpointTransfer() throws IOException {
+        verifiedPosition = writePosition;
+        if (verifiedPosition - lastCheckpointPosition >= TransferRegistry.CHECKPOINT_SIZE) {
+            diskWriteStream.sync();
+            transferRegistry.checkpoint(transfer, rangeOffset, verifiedPosition);
+            lastCheckpointPosition = verifiedPosition;
+        }
+    }
+
+    private void completeTransfer() throws IOException {
+        Transfer completedTransfer = transfer;
+        transfer = null;
+        closeThrottle();
+        diskWriteStream.flush();
+        File file = transferRegistry.complete(completedTransfer, rangeOffset, writePosition);
+        if (file != null) {
+            logger.info("All parts of file {} received", file.getName());
+        }
+    }
+
+    private void failTransfer() {
+        if (transfer == null) {
+            return;
+        }
+        Transfer failedTransfer = transfer;
+        transfer = null;
+        closeThrottle();
+        try {
+            transferRegistry.fail(failedTransfer, rangeOffset, flushReceivedData());
+        } catch (IOException e) {
+            logger.error("Error occurred while saving partially downloaded file!");
+            throw new ClientHandlerException("Error occurred while saving partially downloaded file!", e);
+        }
+    }
+
+    private long flushReceivedData() {
+        try {
+            diskWriteStream.flush();
+            return verifiedPosition;
+        } catch (IOException e) {
+            logger.error("Error occurred while writing received file data!");
+            return lastCheckpointPosition;
+        }
+    }
+
+    private void closeThrottle() {
+        if (throttle != null) {
+            throttle.close();
+            throttle = null;
         }
     }
 
     private boolean downloadFile(long requiredBytesNumber, DataOutputStream dataOutputStream,
                                  DataInputStream dataInputStream) {
-        try (FileOutputStream fileOutputStream = new FileOutputStream(downloadingFile)) {
+        try {
             boolean receiving = true;
+            int expectedFileChecksum = 0;
             while (receiving) {
-                FileTransferMessage message = receiveFileTransferMessage(dataInputStream);
-                if (message.getType() == FileTransferMessageType.DATA) {
-                    fileOutputStream.write(message.getData());
-                    totalBytesReceived += message.getDataSize();
-                    lock.lock();
-                    bytesReceivedWithinPeriod += message.getDataSize();
-                    lock.unlock();
-                } else if (message.getType() == FileTransferMessageType.FIN) {
-                    receiving = false;
+                receiveFrameHeader(dataInputStream, frame);
+                if (frameCipher != null) {
+                    receiveFrameTag(dataInputStream);
                 }
+                switch (frame.getType()) {
+                    case DATA -> {
+                        checkRemainingBytes(frame.getDataSize(), requiredBytesNumber);
+                        receiveFileData(frame.getDataSize(), frame.getChecksum());
+                    }
+                    case COMPRESSED -> {
+                        checkRemainingBytes(frame.getRawDataSize(), requiredBytesNumber);
+                        receiveCompressedFileData(frame.getRawDataSize(), frame.getDataSize(), frame.getChecksum());
+                    }
+                    case SEALED -> {
+                        checkRemainingBytes(frame.getRawDataSize(), requiredBytesNumber);
+                        receiveSealedFileData(frame.getRawDataSize(), frame.isCompressed(), frame.getDataSize());
+                    }
+                    case BODY -> {
+                        checkRemainingBytes(frame.getBodySize(), requiredBytesNumber);
+                        receiveFileBody(frame.getBodySize(), dataInputStream);
+                    }
+                    case COPY -> copyBasisData(frame.getMessage().getOffset(), frame.getMessage().getLength(),
+                            requiredBytesNumber);
+                    case FIN -> {
+                        expectedFileChecksum = frame.getChecksum();
+                        receiving = false;
+                    }
+                    default -> throw new IOException("Unexpected message during file download!");
+                }
+            }
+            boolean fileChecksumMatches = expectedFileChecksum == (int) fileChecksum.getValue();
+            if (!fileChecksumMatches) {
+                logger.error("File checksum mismatch!");
             }
-            if (requiredBytesNumber == totalBytesReceived) {
-                sendFileTransferMessage(new FileTransferMessage(FileTransferMessageType.SUCCESS), dataOutputStream);
+            if (requiredBytesNumber == totalBytesReceived && fileChecksumMatches) {
+                completeTransfer();
+                sendFileTransferMessage(FileTransferMessage.success(), sessionCipher(), dataOutputStream);
                 return true;
             } else {
-                deleteDownloadingFile();
-                sendFileTransferMessage(new FileTransferMessage(FileTransferMessageType.FAILED), dataOutputStream);
+                failTransfer();
+                sendFileTransferMessage(FileTransferMessage.failed(), sessionCipher(), dataOutputStream);
                 return false;
             }
         } catch (IOException e) {
             logger.error("Failed to download file from {}!", socket.getInetAddress().getHostAddress());
-            deleteDownloadingFile();
-            shutdown();
+            metrics.connectionFailed();
+            metrics.transferAborted();
+            try {
+                failTransfer();
+            } finally {
+                shutdown();
+            }
             throw new ClientHandlerException(
                     String.format("Failed to download file from %s!", socket.getInetAddress().getHostAddress()), e);
         }
     }
 
+    private void receiveFrameTag(DataInputStream dataInputStream) throws IOException {
+        if (frame.getType() == FileTransferMessageType.DATA || frame.getType() == FileTransferMessageType.COMPRESSED
+                || frame.getType() == FileTransferMessageType.BODY
+                || frame.getType() == FileTransferMessageType.SIGNATURES) {
+            throw new IOException("Data message is not encrypted!");
+        }
+        if (frame.getType() != FileTransferMessageType.SEALED) {
+            receiveMessageTag(frame.toMessage(), frameCipher, dataInputStream);
+        }
+    }
+
+    private void checkRemainingBytes(long bytesNumber, long requiredBytesNumber) throws IOException {
+        if (bytesNumber < 0 || bytesNumber > requiredBytesNumber - totalBytesReceived) {
+            throw new IOException("Client sent more bytes than announced!");
+        }
+    }
+
+    private void receiveFileData(int dataSize, int checksum) throws IOException {
+        readDataMessage(dataSize);
+        verifyFrameChecksum(dataBuffer, checksum);
+        writeFileData(dataBuffer);
+        metrics.frameReceived(FileTransferMessageCodec.DATA_HEADER_SIZE + dataSize);
+        countReceivedBytes(dataSize, dataSize);
+        checkpointTransfer();
+    }
+
+    private void receiveCompressedFileData(int rawDataSize, int dataSize, int checksum) throws IOException {
+        if (decompressor == null) {
+            throw new IOException("Compression was not negotiated!");
+        }
+        if (rawDataSize > maxDataSize) {
+            throw new IOException("Compressed message is too big!");
+        }
+        readDataMessage(dataSize);
+        rawDataBuffer.clear().limit(rawDataSize);
+        decompressor.decompress(dataBuffer, rawDataBuffer, rawDataSize);
+        rawDataBuffer.flip();
+        verifyFrameChecksum(rawDataBuffer, checksum);
+        writeFileData(rawDataBuffer);
+        metrics.frameReceived(FileTransferMessageCodec.COMPRESSED_HEADER_SIZE + dataSize);
+        countReceivedBytes(rawDataSize, dataSize);
+        checkpointTransfer();
+    }
+
+    private void receiveSealedFileData(int rawDataSize, boolean compressed, int dataSize) throws IOException {
+        if (frameCipher == null) {
+            throw new IOException("Encryption was not negotiated!");
+        }
+        if (rawDataSize > maxDataSize) {
+            throw new IOException("Sealed message is too big!");
+        }
+        readDataMessage(dataSize, maxDataSize + FrameCipher.TAG_SIZE);
+        frameCipher.open(rawDataSize, compressed, dataBuffer);
+        if (!compressed) {
+            if (dataBuffer.remaining() != rawDataSize) {
+                throw new IOException("Sealed message size mismatch!");
+            }
+            writeFileData(dataBuffer);
+        } else {
+            if (decompressor == null) {
+                throw new IOException("Compression was not negotiated!");
+            }
+            rawDataBuffer.clear().limit(rawDataSize);
+            decompressor.decompress(dataBuffer, rawDataBuffer, rawDataSize);
+            writeFileData(rawDataBuffer.flip());
+        }
+        metrics.frameReceived(FileTransferMessageCodec.SEALED_HEADER_SIZE + dataSize);
+        countReceivedBytes(rawDataSize, dataSize);
+        checkpointTransfer();
+    }
+
+    private void readDataMessage(int dataSize) throws IOException {
+        readDataMessage(dataSize, maxDataSize);
+    }
+
+    private void readDataMessage(int dataSize, int maxSize) throws IOException {
+        if (dataSize < 0 || dataSize > maxSize) {
+            throw new IOException("Data message is too big!");
+        }
+        dataBuffer.clear().limit(dataSize);
+        while (dataBuffer.hasRemaining()) {
+            if (socketChannel.read(dataBuffer) == -1) {
+                throw new EOFException("Connection closed before whole data message was received!");
+            }
+        }
+        dataBuffer.flip();
+    }
+
+    private void verifyFrameChecksum(ByteBuffer buffer, int checksum) throws IOException {
+        frameChecksum.reset();
+        updateChecksum(frameChecksum, buffer);
+        if ((int) frameChecksum.getValue() != checksum) {
+            throw new IOException("Data message checksum mismatch!");
+        }
+    }
+
+    private void updateChecksum(CRC32C checksum, ByteBuffer buffer) {
+        int position = buffer.position();
+        checksum.update(buffer);
+        buffer.position(position);
+    }
+
+    private void writeFileData(ByteBuffer buffer) throws IOException {
+        updateChecksum(fileChecksum, buffer);
+        diskWriteStream.write(buffer);
+        diskWriteStream.awaitWritable();
+        writePosition = diskWriteStream.getPosition();
+    }
+
+    private void copyBasisData(long offset, long length, long requiredBytesNumber) throws IOException {
+        checkRemainingBytes(length, requiredBytesNumber);
+        if (basis == null) {
+            throw new IOException("Basis file was not requested!");
+        }
+        if (length > FileTransferMessage.MAX_COPY_SIZE) {
+            throw new IOException("Copy message is too big!");
+        }
+        basis.checkRange(offset, length);
+        long position = offset;
+        while (position < offset + length) {
+            dataBuffer.clear().limit((int) Math.min(dataBuffer.capacity(), offset + length - position));
+            basis.read(dataBuffer, position);
+            dataBuffer.flip();
+            position += dataBuffer.remaining();
+            writeFileData(dataBuffer);
+        }
+        metrics.frameReceived(FileTransferMessageCodec.COPY_SIZE);
+        metrics.basisBytesCopied(length);
+        countReceivedBytes(length, FileTransferMessageCodec.COPY_SIZE);
+        checkpointTransfer();
+    }
+
+    private void receiveFileBody(long bodySize, DataInputStream dataInputStream) throws IOException {
+        if (bodySize > FileTransferMessage.MAX_BODY_SIZE) {
+            throw new IOException("Body message is too big!");
+        }
+        frameChecksum.reset();
+        long bytesRemaining = bodySize;
+        while (bytesRemaining > 0) {
+            dataBuffer.clear().limit((int) Math.min(bytesRemaining, dataBuffer.capacity()));
+            if (socketChannel.read(dataBuffer) == -1) {
+                throw new EOFException("Connection closed before whole file body was received!");
+            }
+            dataBuffer.flip();
+            int bytesReceived = dataBuffer.remaining();
+            updateChecksum(frameChecksum, dataBuffer);
+            writeFileData(dataBuffer);
+            bytesRemaining -= bytesReceived;
+            countReceivedBytes(bytesReceived, bytesReceived);
+        }
+        if ((int) frameChecksum.getValue() != dataInputStream.readInt()) {
+            throw new IOException("Body message checksum mismatch!");
+        }
+        metrics.frameReceived(FileTransferMessageCodec.BODY_HEADER_SIZE + bodySize + Integer.BYTES);
+        checkpointTransfer();
+    }
+
+    private void countReceivedBytes(long bytesNumber, long wireBytesNumber) throws IOException {
+        totalBytesReceived += bytesNumber;
+        totalWireBytesReceived += wireBytesNumber;
+        bytesReceivedWithinPeriod.add(bytesNumber);
+        metrics.bytesReceived(bytesNumber, wireBytesNumber);
+        long delayNanos = throttle.acquire(wireBytesNumber);
+        if (delayNanos > 0) {
+            metrics.throttled(delayNanos);
+        }
+    }
+
     private void printCurrentFileDownloadSpeed() {
-        lock.lock();
-        logger.info("Current file download speed: {} bytes/s", bytesReceivedWithinPeriod / SPEED_COUNT_PERIOD);
-        bytesReceivedWithinPeriod = 0;
-        lock.unlock();
+        logger.info("Current file download speed: {} bytes/s",
+                bytesReceivedWithinPeriod.sumThenReset() / SPEED_COUNT_PERIOD);
     }
 
-    private void printAverageDownloadSpeed(Instant begin, Instant end) {
-        long averageDownloadSpeed = totalBytesReceived * 1000 / (end.toEpochMilli() - begin.toEpochMilli());
-        logger.info("Average file download speed: {} bytes/s", averageDownloadSpeed);
+    private void printAverageDownloadSpeed(long elapsedNanos) {
+        long averageDownloadSpeed = (long) (totalBytesReceived * 1e9 / Math.max(1, elapsedNanos));
+        if (decompressor != null && totalWireBytesReceived > 0) {
+            logger.info("Average file download speed: {} bytes/s (wire {} bytes, compression ratio {})",
+                    averageDownloadSpeed, totalWireBytesReceived,
+                    String.format("%.2f", (double) totalBytesReceived / totalWireBytesReceived));
+        } else {
+            logger.info("Average file download speed: {} bytes/s", averageDownloadSpeed);
+        }
     }
 
     private void shutdown() {
-        scheduledExecutorService.shutdown();
+        if (speedReportTask != null) {
+            speedReportTask.cancel(false);
+        }
+        try {
+            failTransfer();
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        closeAdmission();
+        closeBasis();
+        releaseBuffers();
+        clientHandlers.remove(this);
+        metrics.connectionClosed();
         logger.info("Shutting connection with {} down", socket.getInetAddress().getHostAddress());
         try {
             socket.close();
@@ -176,4 +820,19 @@ public class ClientHandler implements Runnable {
         logger.info("Connection with {} shutdown", socket.getInetAddress().getHostAddress());
     }
 
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.error("Failed to close connection with {}!", socket.getInetAddress().getHostAddress());
+        }
+    }
+
+    private void releaseBuffers() {
+        bufferPool.release(dataBuffer);
+        bufferPool.release(rawDataBuffer);
+        dataBuffer = null;
+        rawDataBuffer = null;
+    }
+
 }
@@ -1,7 +1,12 @@
 package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.handler;
 
+import java.io.Serial;
+
 public class ClientHandlerException extends RuntimeException {
 
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     public ClientHandlerException(String message, Throwable cause) {
         super(message, cause);
     }
@@ -0,0 +1,89 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS_NUMBER = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS_NUMBER = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS_NUMBER;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        buckets = new AtomicLongArray(BUCKETS_NUMBER);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS_NUMBER];
+        long total = 0;
+        for (int i = 0; i < BUCKETS_NUMBER; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS_NUMBER; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS_NUMBER) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS_NUMBER - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS_NUMBER + subBucket;
+    }
+
+    private static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKETS_NUMBER) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS_NUMBER - 1;
+        if (shift >= Long.SIZE - SUB_BUCKET_BITS - 1) {
+            return Long.MAX_VALUE;
+        }
+        long lowerBound = (long) (SUB_BUCKETS_NUMBER + index % SUB_BUCKETS_NUMBER) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+}
@@ -0,0 +1,353 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    public static final String OBJECT_NAME = "ru.nsu.fit.kolesnik.tcpfiletransferapp:type=ServerMetrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder bytesReceived;
+    private final LongAdder wireBytesReceived;
+    private final LongAdder activeConnections;
+    private final LongAdder connectionsAccepted;
+    private final LongAdder transfersCompleted;
+    private final LongAdder transfersFailed;
+    private final LongAdder connectionErrors;
+    private final LongAdder throttledNanos;
+    private final LongAdder diskBackpressureNanos;
+    private final LongAdder filesDeduplicated;
+    private final LongAdder bytesDeduplicated;
+    private final LongAdder basisBytesCopied;
+    private final LongAdder bytesSent;
+    private final LongAdder fileCacheHits;
+    private final LongAdder fileCacheMisses;
+    private final LongAdder fileCacheBytes;
+    private final LongAdder transfersRejected;
+    private final LongAdder admissionWaitNanos;
+    private final Histogram transferDuration;
+    private final Histogram frameSize;
+    private final Histogram diskWriteLatency;
+
+    public ServerMetrics() {
+        bytesReceived = new LongAdder();
+        wireBytesReceived = new LongAdder();
+        activeConnections = new LongAdder();
+        connectionsAccepted = new LongAdder();
+        transfersCompleted = new LongAdder();
+        transfersFailed = new LongAdder();
+        connectionErrors = new LongAdder();
+        throttledNanos = new LongAdder();
+        diskBackpressureNanos = new LongAdder();
+        filesDeduplicated = new LongAdder();
+        bytesDeduplicated = new LongAdder();
+        basisBytesCopied = new LongAdder();
+        bytesSent = new LongAdder();
+        fileCacheHits = new LongAdder();
+        fileCacheMisses = new LongAdder();
+        fileCacheBytes = new LongAdder();
+        transfersRejected = new LongAdder();
+        admissionWaitNanos = new LongAdder();
+        transferDuration = new Histogram();
+        frameSize = new Histogram();
+        diskWriteLatency = new Histogram();
+    }
+
+    public void registerMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        mBeanServer.registerMBean(this, objectName);
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    public void connectionOpened() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void connectionFailed() {
+        connectionErrors.increment();
+    }
+
+    public void bytesReceived(long bytesNumber, long wireBytesNumber) {
+        bytesReceived.add(bytesNumber);
+        wireBytesReceived.add(wireBytesNumber);
+    }
+
+    public void frameReceived(long wireBytesNumber) {
+        frameSize.record(wireBytesNumber);
+    }
+
+    public void diskWriteFinished(long elapsedNanos) {
+        diskWriteLatency.record(elapsedNanos);
+    }
+
+    public void transferFinished(long elapsedNanos, boolean successful) {
+        transferDuration.record(elapsedNanos);
+        if (successful) {
+            transfersCompleted.increment();
+        } else {
+            transfersFailed.increment();
+        }
+    }
+
+    public void transferAborted() {
+        transfersFailed.increment();
+    }
+
+    public void throttled(long delayNanos) {
+        throttledNanos.add(delayNanos);
+    }
+
+    public void diskBackpressure(long elapsedNanos) {
+        diskBackpressureNanos.add(elapsedNanos);
+    }
+
+    public void fileDeduplicated(long fileSize) {
+        filesDeduplicated.increment();
+        bytesDeduplicated.add(fileSize);
+    }
+
+    public void basisBytesCopied(long bytesNumber) {
+        basisBytesCopied.add(bytesNumber);
+    }
+
+    public void bytesSent(long bytesNumber) {
+        bytesSent.add(bytesNumber);
+    }
+
+    public void fileCacheHit() {
+        fileCacheHits.increment();
+    }
+
+    public void fileCacheMissed() {
+        fileCacheMisses.increment();
+    }
+
+    public void fileCacheResized(long bytesNumber) {
+        fileCacheBytes.add(bytesNumber);
+    }
+
+    public void transferRejected() {
+        transfersRejected.increment();
+    }
+
+    public void admissionWaited(long elapsedNanos) {
+        admissionWaitNanos.add(elapsedNanos);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getWireBytesReceived() {
+        return wireBytesReceived.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getTransfersCompleted() {
+        return transfersCompleted.sum();
+    }
+
+    @Override
+    public long getTransfersFailed() {
+        return transfersFailed.sum();
+    }
+
+    @Override
+    public long getConnectionErrors() {
+        return connectionErrors.sum();
+    }
+
+    @Override
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    @Override
+    public long getDiskBackpressureMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(diskBackpressureNanos.sum());
+    }
+
+    @Override
+    public long getFilesDeduplicated() {
+        return filesDeduplicated.sum();
+    }
+
+    @Override
+    public long getBytesDeduplicated() {
+        return bytesDeduplicated.sum();
+    }
+
+    @Override
+    public long getBasisBytesCopied() {
+        return basisBytesCopied.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getFileCacheHits() {
+        return fileCacheHits.sum();
+    }
+
+    @Override
+    public long getFileCacheMisses() {
+        return fileCacheMisses.sum();
+    }
+
+    @Override
+    public long getFileCacheBytes() {
+        return fileCacheBytes.sum();
+    }
+
+    @Override
+    public long getTransfersRejected() {
+        return transfersRejected.sum();
+    }
+
+    @Override
+    public long getAdmissionWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(admissionWaitNanos.sum());
+    }
+
+    @Override
+    public long getTransferDurationP50Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(transferDuration.getPercentile(50));
+    }
+
+    @Override
+    public long getTransferDurationP99Millis() {
+        return TimeUnit.NANOSECONDS.toMillis(transferDuration.getPercentile(99));
+    }
+
+    @Override
+    public long getFrameSizeP50Bytes() {
+        return frameSize.getPercentile(50);
+    }
+
+    @Override
+    public long getFrameSizeP99Bytes() {
+        return frameSize.getPercentile(99);
+    }
+
+    @Override
+    public long getDiskWriteLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(diskWriteLatency.getPercentile(50));
+    }
+
+    @Override
+    public long getDiskWriteLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(diskWriteLatency.getPercentile(99));
+    }
+
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        appendCounter(text, "tcpfiletransfer_received_bytes_total", "File bytes received", getBytesReceived());
+        appendCounter(text, "tcpfiletransfer_received_wire_bytes_total", "Bytes received on the wire",
+                getWireBytesReceived());
+        appendGauge(text, "tcpfiletransfer_active_connections", "Open client connections", getActiveConnections());
+        appendCounter(text, "tcpfiletransfer_accepted_connections_total", "Accepted client connections",
+                getConnectionsAccepted());
+        appendCounter(text, "tcpfiletransfer_completed_transfers_total", "File ranges received successfully",
+                getTransfersCompleted());
+        appendCounter(text, "tcpfiletransfer_failed_transfers_total", "File ranges failed or aborted",
+                getTransfersFailed());
+        appendCounter(text, "tcpfiletransfer_connection_errors_total", "Connections closed because of an error",
+                getConnectionErrors());
+        appendCounter(text, "tcpfiletransfer_throttled_seconds_total", "Time reads were delayed by rate limits",
+                throttledNanos.sum() / 1e9);
+        appendCounter(text, "tcpfiletransfer_disk_backpressure_seconds_total",
+                "Time reads waited for a full disk write queue", diskBackpressureNanos.sum() / 1e9);
+        appendCounter(text, "tcpfiletransfer_deduplicated_files_total", "Files stored by linking existing content",
+                getFilesDeduplicated());
+        appendCounter(text, "tcpfiletransfer_deduplicated_bytes_total", "File bytes not transferred thanks to "
+                + "deduplication", getBytesDeduplicated());
+        appendCounter(text, "tcpfiletransfer_delta_copied_bytes_total", "File bytes rebuilt from stored file "
+                + "versions instead of being transferred", getBasisBytesCopied());
+        appendCounter(text, "tcpfiletransfer_sent_bytes_total", "File bytes sent to downloading clients",
+                getBytesSent());
+        appendCounter(text, "tcpfiletransfer_file_cache_hits_total", "Downloads served from already mapped files",
+                getFileCacheHits());
+        appendCounter(text, "tcpfiletransfer_file_cache_misses_total", "Downloads which had to map the file",
+                getFileCacheMisses());
+        appendGauge(text, "tcpfiletransfer_file_cache_bytes", "Size of files kept mapped by the file cache",
+                getFileCacheBytes());
+        appendCounter(text, "tcpfiletransfer_rejected_transfers_total", "Transfers answered with BUSY because the "
+                + "server was at its admission limit", getTransfersRejected());
+        appendCounter(text, "tcpfiletransfer_admission_wait_seconds_total", "Time transfers waited in the admission "
+                + "queue", admissionWaitNanos.sum() / 1e9);
+        appendSummary(text, "tcpfiletransfer_transfer_duration_seconds", "Duration of file range transfers",
+                transferDuration, 1e9);
+        appendSummary(text, "tcpfiletransfer_frame_size_bytes", "Wire size of received data frames", frameSize, 1);
+        appendSummary(text, "tcpfiletransfer_disk_write_latency_seconds", "Latency of disk writes",
+                diskWriteLatency, 1e9);
+        return text.toString();
+    }
+
+    private void appendCounter(StringBuilder text, String name, String help, long value) {
+        appendHeader(text, name, help, "counter");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private void appendCounter(StringBuilder text, String name, String help, double value) {
+        appendHeader(text, name, help, "counter");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private void appendGauge(StringBuilder text, String name, String help, long value) {
+        appendHeader(text, name, help, "gauge");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private void appendSummary(StringBuilder text, String name, String help, Histogram histogram, double unit) {
+        appendHeader(text, name, help, "summary");
+        for (double quantile : QUANTILES) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(quantile * 100) / unit).append('\n');
+        }
+        text.append(name).append("_sum ").append(histogram.getSum() / unit).append('\n');
+        text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private void appendHeader(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+}
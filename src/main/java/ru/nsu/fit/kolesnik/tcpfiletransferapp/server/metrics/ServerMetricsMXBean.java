@@ -0,0 +1,53 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics;
+
+public interface ServerMetricsMXBean {
+
+    long getBytesReceived();
+
+    long getWireBytesReceived();
+
+    long getActiveConnections();
+
+    long getConnectionsAccepted();
+
+    long getTransfersCompleted();
+
+    long getTransfersFailed();
+
+    long getConnectionErrors();
+
+    long getThrottledMillis();
+
+    long getDiskBackpressureMillis();
+
+    long getFilesDeduplicated();
+
+    long getBytesDeduplicated();
+
+    long getBasisBytesCopied();
+
+    long getBytesSent();
+
+    long getFileCacheHits();
+
+    long getFileCacheMisses();
+
+    long getFileCacheBytes();
+
+    long getTransfersRejected();
+
+    long getAdmissionWaitMillis();
+
+    long getTransferDurationP50Millis();
+
+    long getTransferDurationP99Millis();
+
+    long getFrameSizeP50Bytes();
+
+    long getFrameSizeP99Bytes();
+
+    long getDiskWriteLatencyP50Micros();
+
+    long getDiskWriteLatencyP99Micros();
+
+}
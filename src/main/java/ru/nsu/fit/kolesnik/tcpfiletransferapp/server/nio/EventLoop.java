@@ -0,0 +1,173 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.nio;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.TransferRegistry;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+class EventLoop implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger(EventLoop.class);
+
+    private final Selector selector;
+    private final TransferRegistry transferRegistry;
+    private final BufferPool bufferPool;
+    private final Set<NioClientConnection> activeConnections;
+    private final ServerMetrics metrics;
+    private final TransportConfig transportConfig;
+    private final BandwidthController bandwidthController;
+    private final AdmissionController admissionController;
+    private final Queue<SocketChannel> pendingChannels;
+    private final Queue<Runnable> pendingTasks;
+    private final Queue<SelectionKey> pausedKeys;
+    private volatile boolean running;
+
+    EventLoop(TransferRegistry transferRegistry, BufferPool bufferPool, Set<NioClientConnection> activeConnections,
+              ServerMetrics metrics, TransportConfig transportConfig, BandwidthController bandwidthController,
+              AdmissionController admissionController) throws IOException {
+        selector = Selector.open();
+        this.transferRegistry = transferRegistry;
+        this.bufferPool = bufferPool;
+        this.activeConnections = activeConnections;
+        this.metrics = metrics;
+        this.transportConfig = transportConfig;
+        this.bandwidthController = bandwidthController;
+        this.admissionController = admissionController;
+        pendingChannels = new ConcurrentLinkedQueue<>();
+        pendingTasks = new ConcurrentLinkedQueue<>();
+        pausedKeys = new PriorityQueue<>(Comparator.comparingLong(
+                key -> ((NioClientConnection) key.attachment()).getResumeNanos()));
+        running = true;
+    }
+
+    void register(SocketChannel socketChannel) {
+        pendingChannels.add(socketChannel);
+        selector.wakeup();
+    }
+
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    void pauseReading(SelectionKey key) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        pausedKeys.add(key);
+    }
+
+    void drain() {
+        execute(() -> {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    ((NioClientConnection) key.attachment()).drain(key);
+                }
+            }
+        });
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                select();
+                registerPendingChannels();
+                runPendingTasks();
+                resumePausedKeys();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid()) {
+                        ((NioClientConnection) key.attachment()).handle(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error occurred while selecting ready connections!");
+        } finally {
+            closeSelector();
+        }
+    }
+
+    private void select() throws IOException {
+        SelectionKey pausedKey = pausedKeys.peek();
+        if (pausedKey == null) {
+            selector.select();
+            return;
+        }
+        long delayNanos = ((NioClientConnection) pausedKey.attachment()).getResumeNanos() - System.nanoTime();
+        if (delayNanos > 0) {
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delayNanos)));
+        } else {
+            selector.selectNow();
+        }
+    }
+
+    private void resumePausedKeys() {
+        long now = System.nanoTime();
+        SelectionKey key;
+        while ((key = pausedKeys.peek()) != null
+                && ((NioClientConnection) key.attachment()).getResumeNanos() - now <= 0) {
+            pausedKeys.poll();
+            if (key.isValid()) {
+                ((NioClientConnection) key.attachment()).resumeReading(key);
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel socketChannel;
+        while ((socketChannel = pendingChannels.poll()) != null) {
+            NioClientConnection connection = new NioClientConnection(socketChannel, this, transferRegistry,
+                    bufferPool, activeConnections, metrics, bandwidthController, admissionController,
+                    transportConfig.getFrameSize(), transportConfig.getEncryptionKey());
+            try {
+                transportConfig.configure(socketChannel);
+                socketChannel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                logger.error("Error occurred while registering new connection!");
+                connection.close(null);
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeSelector() {
+        for (SelectionKey key : selector.keys()) {
+            ((NioClientConnection) key.attachment()).close(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Failed to close selector gracefully!");
+        }
+    }
+
+}
@@ -0,0 +1,1192 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.nio;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferFrame;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageType;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.CompressionCodecs;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.compression.Decompressor;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.FrameCipher;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.Admission;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.Basis;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriteStream;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFile;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.Throttle;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.Transfer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.TransferRegistry;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+import static ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec.decodeFrameHeader;
+
+class NioClientConnection {
+
+    private static final long LINGER_TIMEOUT_MILLIS = 1000;
+    private static final long MAX_LINGER_BYTES = 16777216;
+
+    private static final Logger logger = LogManager.getLogger(NioClientConnection.class);
+
+    private enum State {
+        AWAITING_INIT, AWAITING_KEY_CONFIRMATION, AWAITING_BASIS, AWAITING_ADMISSION, AWAITING_REGISTRY,
+        AWAITING_MESSAGE, RECEIVING_FRAME, RECEIVING_BODY, AWAITING_BODY_CHECKSUM, COPYING_BASIS, FLUSHING,
+        SENDING_FILE, FINISHING, LINGERING, CLOSED
+    }
+
+    private final SocketChannel socketChannel;
+    private final EventLoop eventLoop;
+    private final String hostAddress;
+    private final TransferRegistry transferRegistry;
+    private final BufferPool bufferPool;
+    private final Set<NioClientConnection> activeConnections;
+    private final FileTransferFrame frame;
+    private final ServerMetrics metrics;
+    private final BandwidthController bandwidthController;
+    private final AdmissionController admissionController;
+    private final int maxNegotiableDataSize;
+    private final EncryptionKey encryptionKey;
+    private final LongAdder bytesReceivedWithinPeriod;
+    private final Queue<ByteBuffer> outgoingBuffers;
+    private final CRC32C frameChecksum;
+    private final CRC32C fileChecksum;
+    private State state;
+    private ByteBuffer readBuffer;
+    private Decompressor decompressor;
+    private ByteBuffer rawDataBuffer;
+    private int maxDataSize;
+    private FrameCipher frameCipher;
+    private boolean authenticated;
+    private ByteBuffer sealBuffer;
+    private Transfer transfer;
+    private DiskWriteStream diskWriteStream;
+    private Throttle throttle;
+    private Basis basis;
+    private Admission admission;
+    private boolean draining;
+    private boolean throttled;
+    private boolean awaitingDisk;
+    private boolean checkpointing;
+    private MappedFile storedFile;
+    private long storedFilePosition;
+    private long storedFileEnd;
+    private long throttleDelayNanos;
+    @Getter(AccessLevel.PACKAGE)
+    private long resumeNanos;
+    private long lingerDeadlineNanos;
+    private long discardedBytesNumber;
+    private long rangeOffset;
+    private long writePosition;
+    private long copyPosition;
+    private long copyEnd;
+    private long verifiedPosition;
+    private long lastCheckpointPosition;
+    private long requiredBytesNumber;
+    private long bodyBytesRemaining;
+    private long totalBytesReceived;
+    private long totalWireBytesReceived;
+    private long begin;
+
+    NioClientConnection(SocketChannel socketChannel, EventLoop eventLoop, TransferRegistry transferRegistry,
+                        BufferPool bufferPool, Set<NioClientConnection> activeConnections, ServerMetrics metrics,
+                        BandwidthController bandwidthController, AdmissionController admissionController,
+                        int maxNegotiableDataSize, EncryptionKey encryptionKey) {
+        this.socketChannel = socketChannel;
+        this.eventLoop = eventLoop;
+        hostAddress = socketChannel.socket().getInetAddress().getHostAddress();
+        this.transferRegistry = transferRegistry;
+        this.bufferPool = bufferPool;
+        this.activeConnections = activeConnections;
+        frame = new FileTransferFrame();
+        readBuffer = bufferPool.acquire();
+        this.metrics = metrics;
+        this.bandwidthController = bandwidthController;
+        this.admissionController = admissionController;
+        this.maxNegotiableDataSize = maxNegotiableDataSize;
+        this.encryptionKey = encryptionKey;
+        maxDataSize = FileTransferMessage.DEFAULT_DATA_SIZE;
+        authenticated = encryptionKey == null;
+        bytesReceivedWithinPeriod = new LongAdder();
+        outgoingBuffers = new ArrayDeque<>();
+        frameChecksum = new CRC32C();
+        fileChecksum = new CRC32C();
+        state = State.AWAITING_INIT;
+        requiredBytesNumber = 0;
+        bodyBytesRemaining = 0;
+        totalBytesReceived = 0;
+        totalWireBytesReceived = 0;
+        draining = false;
+        metrics.connectionOpened();
+    }
+
+    void handle(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                receive(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                sendOutgoingBuffers(key);
+            }
+            if (draining && isIdle()) {
+                close(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            if (transfer != null) {
+                metrics.transferAborted();
+            }
+            close(key);
+        }
+    }
+
+    void printCurrentFileDownloadSpeed(long period) {
+        logger.info("Current file download speed from {}: {} bytes/s", hostAddress,
+                bytesReceivedWithinPeriod.sumThenReset() / period);
+    }
+
+    void drain(SelectionKey key) {
+        draining = true;
+        if (isIdle() || state == State.LINGERING) {
+            close(key);
+        }
+    }
+
+    void close(SelectionKey key) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        activeConnections.remove(this);
+        if (key != null) {
+            key.cancel();
+        }
+        logger.info("Shutting connection with {} down", hostAddress);
+        failTransfer();
+        closeAdmission();
+        closeBasis();
+        storedFile = null;
+        outgoingBuffers.clear();
+        bufferPool.release(readBuffer);
+        bufferPool.release(rawDataBuffer);
+        bufferPool.release(sealBuffer);
+        readBuffer = null;
+        rawDataBuffer = null;
+        sealBuffer = null;
+        metrics.connectionClosed();
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to shutdown connection with {} gracefully!", hostAddress);
+        }
+        logger.info("Connection with {} shutdown", hostAddress);
+    }
+
+    private boolean isReceiving() {
+        return state == State.AWAITING_INIT || state == State.AWAITING_MESSAGE || state == State.RECEIVING_FRAME
+                || state == State.RECEIVING_BODY || state == State.AWAITING_BODY_CHECKSUM;
+    }
+
+    private boolean isIdle() {
+        return (state == State.AWAITING_INIT || state == State.AWAITING_KEY_CONFIRMATION)
+                && outgoingBuffers.isEmpty() && admission == null;
+    }
+
+    private void receive(SelectionKey key) throws IOException {
+        if (state == State.LINGERING) {
+            discardPipelinedData(key);
+            return;
+        }
+        if (socketChannel.read(readBuffer) == -1) {
+            if (state == State.AWAITING_KEY_CONFIRMATION) {
+                logger.warn("Client {} did not confirm session key", hostAddress);
+                close(key);
+                return;
+            }
+            if (state != State.AWAITING_INIT || readBuffer.position() > 0) {
+                throw new EOFException("Connection closed by client!");
+            }
+            state = State.FINISHING;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            sendOutgoingBuffers(key);
+            return;
+        }
+        readBuffer.flip();
+        processReceivedBytes(key);
+        if (!awaitingDisk && readBuffer.position() == 0 && readBuffer.limit() == readBuffer.capacity()) {
+            throw new IOException("Message header is too big!");
+        }
+        readBuffer.compact();
+        pauseIfThrottled(key);
+    }
+
+    private void pauseIfThrottled(SelectionKey key) {
+        if (throttleDelayNanos <= 0 || state == State.CLOSED) {
+            return;
+        }
+        metrics.throttled(throttleDelayNanos);
+        resumeNanos = System.nanoTime() + throttleDelayNanos;
+        throttleDelayNanos = 0;
+        throttled = true;
+        eventLoop.pauseReading(key);
+    }
+
+    void resumeReading(SelectionKey key) {
+        throttled = false;
+        if (!awaitingDisk && isReceiving()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void awaitDiskWrites(SelectionKey key) {
+        awaitingDisk = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        diskWriteStream.notifyWhenWritable(() -> eventLoop.execute(() -> continueAfterDiskWrites(key)));
+    }
+
+    private void continueAfterDiskWrites(SelectionKey key) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        try {
+            awaitingDisk = false;
+            if (!throttled) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+            readBuffer.flip();
+            processReceivedBytes(key);
+            readBuffer.compact();
+            pauseIfThrottled(key);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void processReceivedBytes(SelectionKey key) throws IOException {
+        boolean progress = true;
+        while (progress) {
+            if (transfer != null && diskWriteStream.isBackpressured()) {
+                awaitDiskWrites(key);
+                return;
+            }
+            switch (state) {
+                case AWAITING_INIT, AWAITING_MESSAGE -> progress = processMessageHeader(key);
+                case AWAITING_KEY_CONFIRMATION -> progress = confirmSessionKey();
+                case RECEIVING_FRAME -> progress = writeFrame(key);
+                case RECEIVING_BODY -> progress = writeBody();
+                case AWAITING_BODY_CHECKSUM -> progress = verifyBodyChecksum(key);
+                default -> progress = false;
+            }
+        }
+    }
+
+    private boolean processMessageHeader(SelectionKey key) throws IOException {
+        int frameStart = readBuffer.position();
+        if (!decodeFrameHeader(readBuffer, frame)) {
+            return false;
+        }
+        if (frameCipher != null && !openMessageTag(frameStart)) {
+            readBuffer.position(frameStart);
+            return false;
+        }
+        if (state == State.AWAITING_INIT) {
+            if (frame.getType() == FileTransferMessageType.HELLO) {
+                negotiateConnection(key, frame.getMessage());
+                return true;
+            }
+            if (!authenticated) {
+                throw new IOException("Connection is not authenticated!");
+            }
+            if (frame.getType() == FileTransferMessageType.RESUME) {
+                admitResume(key, frame.getMessage());
+                return true;
+            }
+            if (frame.getType() == FileTransferMessageType.LOOKUP) {
+                linkDuplicate(key, frame.getMessage());
+                return true;
+            }
+            if (frame.getType() == FileTransferMessageType.BASIS) {
+                requestBasis(key, frame.getMessage());
+                return true;
+            }
+            if (frame.getType() == FileTransferMessageType.GET) {
+                startSendingStoredFile(key, frame.getMessage());
+                return true;
+            }
+            if (frame.getType() != FileTransferMessageType.INIT) {
+                throw new IOException("File download was not initialized!");
+            }
+            admitFileDownload(key, frame.getMessage());
+            return true;
+        }
+        switch (frame.getType()) {
+            case DATA, COMPRESSED -> startReceivingFrame();
+            case SEALED -> startReceivingSealedFrame();
+            case BODY -> startReceivingBody(frame.getBodySize());
+            case COPY -> copyBasisData(key, frame.getMessage().getOffset(), frame.getMessage().getLength());
+            case FIN -> finishFileDownload(key, frame.getChecksum());
+            default -> throw new IOException("Unexpected message during file download!");
+        }
+        return true;
+    }
+
+    private boolean openMessageTag(int frameStart) throws IOException {
+        switch (frame.getType()) {
+            case SEALED -> {
+                return true;
+            }
+            case DATA, COMPRESSED, BODY, SIGNATURES -> throw new IOException("Data message is not encrypted!");
+            default -> {
+                if (readBuffer.remaining() < FrameCipher.TAG_SIZE) {
+                    return false;
+                }
+                byte[] encodedMessage = new byte[readBuffer.position() - frameStart];
+                readBuffer.get(frameStart, encodedMessage);
+                frameCipher.openMessage(encodedMessage, readBuffer);
+                return true;
+            }
+        }
+    }
+
+    private void initializeFileDownload(SelectionKey key, FileTransferMessage initializingMessage) {
+        logger.info("Initializing file download from {}...", hostAddress);
+        awaitRegistry(key);
+        transferRegistry.joinAsync(initializingMessage).whenComplete((joinedTransfer, error) ->
+                eventLoop.execute(() -> {
+                    if (state == State.CLOSED && joinedTransfer != null) {
+                        abandonTransfer(joinedTransfer, initializingMessage.getOffset());
+                    }
+                    continueAfterRegistry(key, error, () -> startFileDownload(joinedTransfer, initializingMessage));
+                }));
+    }
+
+    private void startFileDownload(Transfer joinedTransfer, FileTransferMessage initializingMessage) {
+        transfer = joinedTransfer;
+        throttle = bandwidthController.open(socketChannel.socket().getInetAddress(),
+                initializingMessage.getStreamsNumber());
+        rangeOffset = initializingMessage.getOffset();
+        diskWriteStream = transfer.openWriteStream(rangeOffset);
+        writePosition = rangeOffset;
+        verifiedPosition = rangeOffset;
+        lastCheckpointPosition = rangeOffset;
+        requiredBytesNumber = initializingMessage.getLength();
+        fileChecksum.reset();
+        logger.info("File download initialized");
+        logger.info("Downloading file from {}...", hostAddress);
+        activeConnections.add(this);
+        begin = System.nanoTime();
+        state = State.AWAITING_MESSAGE;
+    }
+
+    private void negotiateConnection(SelectionKey key, FileTransferMessage helloMessage) throws IOException {
+        String compression = CompressionCodecs.negotiate(Arrays.asList(helloMessage.getCompression().split(",")));
+        if (CompressionCodecs.NONE.equals(compression)) {
+            decompressor = null;
+        } else {
+            decompressor = CompressionCodecs.find(compression).createDecompressor();
+            if (rawDataBuffer == null) {
+                rawDataBuffer = bufferPool.acquire();
+            }
+        }
+        maxDataSize = Math.max(FileTransferMessage.DEFAULT_DATA_SIZE,
+                Math.min(helloMessage.getDataSize(), maxNegotiableDataSize));
+        logger.info("Using {} compression and {} bytes frames for {}", compression, maxDataSize, hostAddress);
+        if (encryptionKey == null) {
+            send(key, FileTransferMessage.hello(compression, maxDataSize));
+            return;
+        }
+        if (helloMessage.getNonce().length == 0) {
+            throw new IOException("Encryption is required!");
+        }
+        if (frameCipher != null) {
+            throw new IOException("Session key was already negotiated!");
+        }
+        byte[] serverNonce = encryptionKey.generateNonce();
+        frameCipher = encryptionKey.createCipher(helloMessage.getNonce(), serverNonce, false);
+        outgoingBuffers.add(ByteBuffer.wrap(FileTransferMessage.hello(compression,
+                maxDataSize, serverNonce).getBytes()));
+        state = State.AWAITING_KEY_CONFIRMATION;
+        send(key, frameCipher.sealKeyConfirmation());
+    }
+
+    private boolean confirmSessionKey() throws IOException {
+        if (readBuffer.remaining() < FileTransferMessageCodec.SEALED_HEADER_SIZE + FrameCipher.TAG_SIZE) {
+            return false;
+        }
+        decodeFrameHeader(readBuffer, frame);
+        if (frame.getType() != FileTransferMessageType.SEALED || frame.getRawDataSize() != 0
+                || frame.getDataSize() != FrameCipher.TAG_SIZE) {
+            throw new IOException("Session key was not confirmed!");
+        }
+        int limit = readBuffer.limit();
+        frameCipher.openKeyConfirmation(readBuffer.limit(readBuffer.position() + FrameCipher.TAG_SIZE));
+        readBuffer.limit(limit).position(readBuffer.position() + FrameCipher.TAG_SIZE);
+        authenticated = true;
+        logger.info("Encrypted session established with {}", hostAddress);
+        state = State.AWAITING_INIT;
+        return true;
+    }
+
+    private void admitResume(SelectionKey key, FileTransferMessage resumingMessage) {
+        awaitRegistry(key);
+        transferRegistry.getResumeOffsetAsync(resumingMessage).whenComplete((resumeOffset, error) ->
+                eventLoop.execute(() -> continueAfterRegistry(key, error,
+                        () -> requestResumeAdmission(key, resumingMessage, resumeOffset))));
+    }
+
+    private void requestResumeAdmission(SelectionKey key, FileTransferMessage resumingMessage, long resumeOffset)
+            throws IOException {
+        long remainingLength = resumingMessage.getOffset() + resumingMessage.getLength() - resumeOffset;
+        closeAdmission();
+        requestAdmission(key, remainingLength, grantedAdmission -> {
+            admission = grantedAdmission;
+            if (admission == null) {
+                rejectTransfer(key, false);
+                return;
+            }
+            if (resumeOffset > resumingMessage.getOffset()) {
+                logger.info("Resuming file download from {} at byte {}", hostAddress, resumeOffset);
+            }
+            send(key, FileTransferMessage.offset(resumingMessage.getTransferId(),
+                    resumingMessage.getFileSize(), resumeOffset));
+        });
+    }
+
+    private void admitFileDownload(SelectionKey key, FileTransferMessage initializingMessage) throws IOException {
+        if (admission != null) {
+            admission.resize(initializingMessage.getLength());
+            initializeFileDownload(key, initializingMessage);
+            return;
+        }
+        requestAdmission(key, initializingMessage.getLength(), grantedAdmission -> {
+            admission = grantedAdmission;
+            if (admission == null) {
+                rejectTransfer(key, true);
+                return;
+            }
+            initializeFileDownload(key, initializingMessage);
+        });
+    }
+
+    private void requestAdmission(SelectionKey key, long bytesNumber, AdmissionHandler admissionHandler)
+            throws IOException {
+        long begin = System.nanoTime();
+        CompletableFuture<Admission> admissionFuture = admissionController.admit(bytesNumber);
+        if (admissionFuture.isDone()) {
+            admissionHandler.admitted(admissionFuture.join());
+            return;
+        }
+        state = State.AWAITING_ADMISSION;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        admissionFuture.whenComplete((grantedAdmission, error) -> eventLoop.execute(() -> {
+            metrics.admissionWaited(System.nanoTime() - begin);
+            continueAdmittedTransfer(key, grantedAdmission, admissionHandler);
+        }));
+    }
+
+    private void continueAdmittedTransfer(SelectionKey key, Admission grantedAdmission,
+                                          AdmissionHandler admissionHandler) {
+        if (state == State.CLOSED) {
+            if (grantedAdmission != null) {
+                grantedAdmission.close();
+            }
+            return;
+        }
+        try {
+            state = State.AWAITING_INIT;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            admissionHandler.admitted(grantedAdmission);
+            if (state == State.AWAITING_INIT || state == State.AWAITING_MESSAGE) {
+                readBuffer.flip();
+                processReceivedBytes(key);
+                readBuffer.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void awaitRegistry(SelectionKey key) {
+        state = State.AWAITING_REGISTRY;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    private void continueAfterRegistry(SelectionKey key, Throwable error, RegistryHandler registryHandler) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        try {
+            if (error != null) {
+                throw new IOException("Transfer registry request failed!", error);
+            }
+            state = State.AWAITING_INIT;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            registryHandler.completed();
+            if (state == State.AWAITING_INIT || state == State.AWAITING_MESSAGE) {
+                readBuffer.flip();
+                processReceivedBytes(key);
+                readBuffer.compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void rejectTransfer(SelectionKey key, boolean closing) throws IOException {
+        logger.warn("Server is busy, transfer from {} rejected", hostAddress);
+        metrics.transferRejected();
+        FileTransferMessage busyMessage = FileTransferMessage.busy(
+                AdmissionController.RETRY_AFTER_MILLIS, admissionController.getQueuedTransfers());
+        if (closing) {
+            outgoingBuffers.add(ByteBuffer.wrap(encode(busyMessage)));
+            state = State.LINGERING;
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (draining) {
+            sendAndClose(key, busyMessage);
+        } else {
+            send(key, busyMessage);
+        }
+    }
+
+    private void discardPipelinedData(SelectionKey key) throws IOException {
+        readBuffer.clear();
+        int readBytesNumber = socketChannel.read(readBuffer);
+        readBuffer.clear();
+        if (readBytesNumber == -1) {
+            close(key);
+            return;
+        }
+        discardedBytesNumber += readBytesNumber;
+        if (discardedBytesNumber >= MAX_LINGER_BYTES || System.nanoTime() - lingerDeadlineNanos > 0) {
+            close(key);
+        }
+    }
+
+    private void closeAdmission() {
+        if (admission != null) {
+            admission.close();
+            admission = null;
+        }
+    }
+
+    private void linkDuplicate(SelectionKey key, FileTransferMessage lookupMessage) {
+        awaitRegistry(key);
+        transferRegistry.linkDuplicateAsync(lookupMessage).whenComplete((file, error) ->
+                eventLoop.execute(() -> continueAfterRegistry(key, error,
+                        () -> sendLookupResult(key, lookupMessage, file))));
+    }
+
+    private void sendLookupResult(SelectionKey key, FileTransferMessage lookupMessage, File file)
+            throws IOException {
+        if (file != null) {
+            logger.info("File {} from {} stored as a link to existing content", file.getName(), hostAddress);
+            metrics.fileDeduplicated(lookupMessage.getFileSize());
+        }
+        send(key, file != null ? FileTransferMessage.success() : FileTransferMessage.missing());
+    }
+
+    private void requestBasis(SelectionKey key, FileTransferMessage basisMessage) {
+        closeBasis();
+        state = State.AWAITING_BASIS;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        transferRegistry.openBasis(basisMessage).whenComplete((openedBasis, error) ->
+                eventLoop.execute(() -> sendBasisSignatures(key, basisMessage, openedBasis, error)));
+    }
+
+    private void sendBasisSignatures(SelectionKey key, FileTransferMessage basisMessage, Basis openedBasis,
+                                     Throwable error) {
+        if (state == State.CLOSED) {
+            basis = openedBasis;
+            closeBasis();
+            return;
+        }
+        try {
+            if (error != null) {
+                throw new IOException("Could not compute basis file signatures!", error);
+            }
+            basis = openedBasis;
+            state = State.AWAITING_INIT;
+            if (basis == null) {
+                send(key, FileTransferMessage.missing());
+            } else {
+                BlockSignatures signatures = basis.getSignatures();
+                logger.info("Sending signatures of stored file {} to {}", basis.getFilePath().getFileName(),
+                        hostAddress);
+                outgoingBuffers.add(ByteBuffer.wrap(encode(FileTransferMessage.basis(basisMessage.getFileName(),
+                        basis.getFileSize(), signatures.getBlockSize()))));
+                for (int i = 0; i < signatures.getMessagesNumber(); i++) {
+                    outgoingBuffers.add(ByteBuffer.wrap(encode(signatures.encodeMessage(i))));
+                }
+                sendOutgoingBuffers(key);
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            readBuffer.flip();
+            processReceivedBytes(key);
+            readBuffer.compact();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void startSendingStoredFile(SelectionKey key, FileTransferMessage getMessage) throws IOException {
+        MappedFile file = transferRegistry.openStoredFile(getMessage);
+        if (file == null) {
+            send(key, FileTransferMessage.missing());
+            return;
+        }
+        long offset = getMessage.getOffset();
+        if (offset < 0 || getMessage.getLength() < 0 || offset > file.getFileSize()) {
+            throw new IOException("Invalid file range!");
+        }
+        long length = Math.min(getMessage.getLength(), file.getFileSize() - offset);
+        if (length > 0) {
+            logger.info("Sending {} bytes of stored file {} to {}", length, file.getFilePath().getFileName(),
+                    hostAddress);
+        }
+        storedFile = file;
+        storedFilePosition = offset;
+        storedFileEnd = offset + length;
+        state = State.SENDING_FILE;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        send(key, FileTransferMessage.file(getMessage.getFileName(), file.getFileSize(), offset, length));
+    }
+
+    private void queueStoredFileSegment(SelectionKey key) throws IOException {
+        if (storedFilePosition == storedFileEnd) {
+            storedFile = null;
+            if (draining) {
+                state = State.FINISHING;
+                return;
+            }
+            state = State.AWAITING_INIT;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            eventLoop.execute(() -> processPendingMessages(key));
+            return;
+        }
+        if (frameCipher != null) {
+            queueSealedFileSegment();
+            return;
+        }
+        int bodySize = (int) Math.min(storedFileEnd - storedFilePosition,
+                MappedFile.SEGMENT_SIZE - storedFilePosition % MappedFile.SEGMENT_SIZE);
+        ByteBuffer bodyHeader = ByteBuffer.allocate(FileTransferMessageCodec.BODY_HEADER_SIZE);
+        FileTransferMessageCodec.encodeBodyHeader(bodySize, bodyHeader);
+        outgoingBuffers.add(bodyHeader.flip());
+        outgoingBuffers.add(storedFile.slice(storedFilePosition, bodySize));
+        outgoingBuffers.add(ByteBuffer.allocate(Integer.BYTES)
+                .putInt(storedFile.getChecksum(storedFilePosition, bodySize))
+                .flip());
+        metrics.bytesSent(bodySize);
+        storedFilePosition += bodySize;
+    }
+
+    private void queueSealedFileSegment() throws IOException {
+        int dataSize = (int) Math.min(Math.min(storedFileEnd - storedFilePosition, maxDataSize),
+                MappedFile.SEGMENT_SIZE - storedFilePosition % MappedFile.SEGMENT_SIZE);
+        if (sealBuffer == null) {
+            sealBuffer = bufferPool.acquire();
+        }
+        sealBuffer.clear().put(storedFile.slice(storedFilePosition, dataSize)).flip();
+        frameCipher.seal(dataSize, false, sealBuffer);
+        ByteBuffer sealedHeader = ByteBuffer.allocate(FileTransferMessageCodec.SEALED_HEADER_SIZE);
+        FileTransferMessageCodec.encodeSealedHeader(dataSize, false, sealBuffer.remaining(), sealedHeader);
+        outgoingBuffers.add(sealedHeader.flip());
+        outgoingBuffers.add(sealBuffer);
+        metrics.bytesSent(dataSize);
+        storedFilePosition += dataSize;
+    }
+
+    private void processPendingMessages(SelectionKey key) {
+        if (state != State.AWAITING_INIT || readBuffer.position() == 0) {
+            return;
+        }
+        try {
+            readBuffer.flip();
+            processReceivedBytes(key);
+            readBuffer.compact();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void closeBasis() {
+        if (basis == null) {
+            return;
+        }
+        try {
+            basis.close();
+        } catch (IOException e) {
+            logger.error("Failed to close basis file!");
+        }
+        basis = null;
+    }
+
+    private void startReceivingFrame() throws IOException {
+        boolean compressed = frame.getType() == FileTransferMessageType.COMPRESSED;
+        int rawDataSize = compressed ? frame.getRawDataSize() : frame.getDataSize();
+        checkRemainingBytes(rawDataSize);
+        if (compressed && decompressor == null) {
+            throw new IOException("Compression was not negotiated!");
+        }
+        if (rawDataSize > maxDataSize || frame.getDataSize() < 0 || frame.getDataSize() > maxDataSize) {
+            throw new IOException("Data message is too big!");
+        }
+        state = State.RECEIVING_FRAME;
+    }
+
+    private void startReceivingSealedFrame() throws IOException {
+        checkRemainingBytes(frame.getRawDataSize());
+        if (frameCipher == null) {
+            throw new IOException("Encryption was not negotiated!");
+        }
+        if (frame.getRawDataSize() > maxDataSize || frame.getDataSize() < FrameCipher.TAG_SIZE
+                || frame.getDataSize() > maxDataSize + FrameCipher.TAG_SIZE) {
+            throw new IOException("Sealed message is too big!");
+        }
+        state = State.RECEIVING_FRAME;
+    }
+
+    private void startReceivingBody(long bodySize) throws IOException {
+        checkRemainingBytes(bodySize);
+        if (bodySize > FileTransferMessage.MAX_BODY_SIZE) {
+            throw new IOException("Body message is too big!");
+        }
+        bodyBytesRemaining = bodySize;
+        frameChecksum.reset();
+        state = bodySize > 0 ? State.RECEIVING_BODY : State.AWAITING_BODY_CHECKSUM;
+    }
+
+    private void checkRemainingBytes(long bytesNumber) throws IOException {
+        if (bytesNumber < 0 || bytesNumber > requiredBytesNumber - totalBytesReceived) {
+            throw new IOException("Client sent more bytes than announced!");
+        }
+    }
+
+    private void copyBasisData(SelectionKey key, long offset, long length) throws IOException {
+        checkRemainingBytes(length);
+        if (basis == null) {
+            throw new IOException("Basis file was not requested!");
+        }
+        if (length > FileTransferMessage.MAX_COPY_SIZE) {
+            throw new IOException("Copy message is too big!");
+        }
+        basis.checkRange(offset, length);
+        copyPosition = offset;
+        copyEnd = offset + length;
+        state = State.COPYING_BASIS;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        readBasisData(key);
+    }
+
+    private void readBasisData(SelectionKey key) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        ByteBuffer copyBuffer = bufferPool.acquire();
+        copyBuffer.limit((int) Math.min(copyBuffer.capacity(), copyEnd - copyPosition));
+        transferRegistry.readBasis(basis, copyBuffer, copyPosition).whenComplete((data, error) ->
+                eventLoop.execute(() -> writeBasisData(key, copyBuffer, error)));
+    }
+
+    private void writeBasisData(SelectionKey key, ByteBuffer copyBuffer, Throwable error) {
+        try {
+            if (state == State.CLOSED) {
+                return;
+            }
+            if (error != null) {
+                throw new IOException("Could not read basis file data!", error);
+            }
+            copyPosition += copyBuffer.remaining();
+            writeFileData(copyBuffer);
+            if (copyPosition < copyEnd) {
+                diskWriteStream.notifyWhenWritable(() -> eventLoop.execute(() -> readBasisData(key)));
+                return;
+            }
+            long length = frame.getMessage().getLength();
+            metrics.frameReceived(FileTransferMessageCodec.COPY_SIZE);
+            metrics.basisBytesCopied(length);
+            countReceivedBytes(length, FileTransferMessageCodec.COPY_SIZE);
+            checkpointTransfer(key);
+            state = State.AWAITING_MESSAGE;
+            if (!throttled) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+            readBuffer.flip();
+            processReceivedBytes(key);
+            readBuffer.compact();
+            pauseIfThrottled(key);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            metrics.transferAborted();
+            close(key);
+        } finally {
+            bufferPool.release(copyBuffer);
+        }
+    }
+
+    private boolean writeFrame(SelectionKey key) throws IOException {
+        int dataSize = frame.getDataSize();
+        if (readBuffer.remaining() < dataSize) {
+            return false;
+        }
+        if (frame.getType() == FileTransferMessageType.SEALED) {
+            return writeSealedFrame(key);
+        }
+        int limit = readBuffer.limit();
+        readBuffer.limit(readBuffer.position() + dataSize);
+        ByteBuffer rawData = readBuffer;
+        if (frame.getType() == FileTransferMessageType.COMPRESSED) {
+            rawDataBuffer.clear().limit(frame.getRawDataSize());
+            decompressor.decompress(readBuffer, rawDataBuffer, frame.getRawDataSize());
+            readBuffer.position(readBuffer.limit());
+            rawData = rawDataBuffer.flip();
+        }
+        frameChecksum.reset();
+        updateChecksum(frameChecksum, rawData);
+        if ((int) frameChecksum.getValue() != frame.getChecksum()) {
+            throw new IOException("Data message checksum mismatch!");
+        }
+        int rawDataSize = rawData.remaining();
+        writeFileData(rawData);
+        readBuffer.limit(limit);
+        metrics.frameReceived((frame.getType() == FileTransferMessageType.COMPRESSED
+                ? FileTransferMessageCodec.COMPRESSED_HEADER_SIZE : FileTransferMessageCodec.DATA_HEADER_SIZE)
+                + dataSize);
+        countReceivedBytes(rawDataSize, dataSize);
+        checkpointTransfer(key);
+        state = State.AWAITING_MESSAGE;
+        return true;
+    }
+
+    private boolean writeSealedFrame(SelectionKey key) throws IOException {
+        int dataSize = frame.getDataSize();
+        int rawDataSize = frame.getRawDataSize();
+        int limit = readBuffer.limit();
+        int frameEnd = readBuffer.position() + dataSize;
+        frameCipher.open(rawDataSize, frame.isCompressed(), readBuffer.limit(frameEnd));
+        ByteBuffer rawData = readBuffer;
+        if (!frame.isCompressed()) {
+            if (readBuffer.remaining() != rawDataSize) {
+                throw new IOException("Sealed message size mismatch!");
+            }
+        } else {
+            if (decompressor == null) {
+                throw new IOException("Compression was not negotiated!");
+            }
+            rawDataBuffer.clear().limit(rawDataSize);
+            decompressor.decompress(readBuffer, rawDataBuffer, rawDataSize);
+            rawData = rawDataBuffer.flip();
+        }
+        writeFileData(rawData);
+        readBuffer.limit(limit).position(frameEnd);
+        metrics.frameReceived(FileTransferMessageCodec.SEALED_HEADER_SIZE + dataSize);
+        countReceivedBytes(rawDataSize, dataSize);
+        checkpointTransfer(key);
+        state = State.AWAITING_MESSAGE;
+        return true;
+    }
+
+    private boolean writeBody() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            return false;
+        }
+        int bytesNumber = (int) Math.min(readBuffer.remaining(), bodyBytesRemaining);
+        int limit = readBuffer.limit();
+        readBuffer.limit(readBuffer.position() + bytesNumber);
+        updateChecksum(frameChecksum, readBuffer);
+        writeFileData(readBuffer);
+        readBuffer.limit(limit);
+        bodyBytesRemaining -= bytesNumber;
+        countReceivedBytes(bytesNumber, bytesNumber);
+        if (bodyBytesRemaining == 0) {
+            state = State.AWAITING_BODY_CHECKSUM;
+        }
+        return true;
+    }
+
+    private boolean verifyBodyChecksum(SelectionKey key) throws IOException {
+        if (readBuffer.remaining() < Integer.BYTES) {
+            return false;
+        }
+        if ((int) frameChecksum.getValue() != readBuffer.getInt()) {
+            throw new IOException("Body message checksum mismatch!");
+        }
+        metrics.frameReceived(FileTransferMessageCodec.BODY_HEADER_SIZE + frame.getBodySize() + Integer.BYTES);
+        checkpointTransfer(key);
+        state = State.AWAITING_MESSAGE;
+        return true;
+    }
+
+    private void updateChecksum(CRC32C checksum, ByteBuffer buffer) {
+        int position = buffer.position();
+        checksum.update(buffer);
+        buffer.position(position);
+    }
+
+    private void writeFileData(ByteBuffer buffer) throws IOException {
+        updateChecksum(fileChecksum, buffer);
+        diskWriteStream.write(buffer);
+        writePosition = diskWriteStream.getPosition();
+    }
+
+    private void countReceivedBytes(long bytesNumber, long wireBytesNumber) {
+        totalBytesReceived += bytesNumber;
+        totalWireBytesReceived += wireBytesNumber;
+        bytesReceivedWithinPeriod.add(bytesNumber);
+        metrics.bytesReceived(bytesNumber, wireBytesNumber);
+        throttleDelayNanos = Math.max(throttleDelayNanos, throttle.reserve(wireBytesNumber));
+    }
+
+    private void checkpointTransfer(SelectionKey key) {
+        verifiedPosition = writePosition;
+        if (checkpointing || verifiedPosition - lastCheckpointPosition < TransferRegistry.CHECKPOINT_SIZE) {
+            return;
+        }
+        checkpointing = true;
+        Transfer checkpointedTransfer = transfer;
+        long checkpointOffset = rangeOffset;
+        long checkpointPosition = verifiedPosition;
+        diskWriteStream.syncAsync()
+                .thenCompose(synced -> transferRegistry.checkpointAsync(checkpointedTransfer, checkpointOffset,
+                        checkpointPosition))
+                .whenComplete((checkpointed, error) -> eventLoop.execute(() ->
+                        finishCheckpoint(key, checkpointedTransfer, checkpointPosition, error)));
+    }
+
+    private void finishCheckpoint(SelectionKey key, Transfer checkpointedTransfer, long checkpointPosition,
+                                  Throwable error) {
+        checkpointing = false;
+        if (state == State.CLOSED || transfer != checkpointedTransfer) {
+            return;
+        }
+        try {
+            if (error != null) {
+                throw new IOException("Could not checkpoint received file data!", error);
+            }
+            lastCheckpointPosition = checkpointPosition;
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            metrics.transferAborted();
+            close(key);
+        }
+    }
+
+    private void finishFileDownload(SelectionKey key, int expectedFileChecksum) {
+        long elapsedNanos = System.nanoTime() - begin;
+        activeConnections.remove(this);
+        logger.info("File download finished");
+        boolean fileChecksumMatches = expectedFileChecksum == (int) fileChecksum.getValue();
+        if (!fileChecksumMatches) {
+            logger.error("File checksum mismatch!");
+        }
+        boolean fileReceived = requiredBytesNumber == totalBytesReceived && fileChecksumMatches;
+        Transfer finishedTransfer = transfer;
+        transfer = null;
+        closeThrottle();
+        long finishedRangeOffset = rangeOffset;
+        long receivedPosition = verifiedPosition;
+        long checkpointedPosition = lastCheckpointPosition;
+        state = State.FLUSHING;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        diskWriteStream.flushAsync().handle((flushed, error) -> error)
+                .thenCompose(flushError -> saveReceivedFile(finishedTransfer, fileReceived, finishedRangeOffset,
+                        flushError == null ? receivedPosition : checkpointedPosition, flushError))
+                .whenComplete((fileSaved, error) -> eventLoop.execute(() ->
+                        finishTransfer(key, fileSaved, error, elapsedNanos)));
+    }
+
+    private CompletableFuture<Boolean> saveReceivedFile(Transfer finishedTransfer, boolean fileReceived,
+                                                        long start, long end, Throwable flushError) {
+        if (flushError != null) {
+            logger.error("Error occurred while writing received file data!");
+        }
+        if (!fileReceived || flushError != null) {
+            logger.error("File download failed! Server did not receive whole file!");
+            return transferRegistry.failAsync(finishedTransfer, start, end).thenApply(failed -> false);
+        }
+        logger.info("File downloaded successfully");
+        return transferRegistry.completeAsync(finishedTransfer, start, end).thenApply(file -> {
+            if (file != null) {
+                logger.info("All parts of file {} received", file.getName());
+            }
+            return true;
+        });
+    }
+
+    private void finishTransfer(SelectionKey key, Boolean fileDownloadedSuccessfully, Throwable error,
+                                long elapsedNanos) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        try {
+            if (error != null) {
+                throw new IOException("Could not save received file!", error);
+            }
+            metrics.transferFinished(elapsedNanos, fileDownloadedSuccessfully);
+            printAverageDownloadSpeed(elapsedNanos);
+            FileTransferMessage resultMessage = fileDownloadedSuccessfully ? FileTransferMessage.success()
+                    : FileTransferMessage.failed();
+            totalBytesReceived = 0;
+            totalWireBytesReceived = 0;
+            closeAdmission();
+            if (draining) {
+                sendAndClose(key, resultMessage);
+                return;
+            }
+            state = State.AWAITING_INIT;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            send(key, resultMessage);
+            readBuffer.flip();
+            processReceivedBytes(key);
+            readBuffer.compact();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error occurred while handling client {}!", hostAddress, e);
+            metrics.connectionFailed();
+            close(key);
+        }
+    }
+
+    private void send(SelectionKey key, FileTransferMessage message) throws IOException {
+        send(key, encode(message));
+    }
+
+    private void send(SelectionKey key, byte[] bytes) throws IOException {
+        outgoingBuffers.add(ByteBuffer.wrap(bytes));
+        sendOutgoingBuffers(key);
+    }
+
+    private void sendAndClose(SelectionKey key, FileTransferMessage message) throws IOException {
+        outgoingBuffers.add(ByteBuffer.wrap(encode(message)));
+        state = State.FINISHING;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private byte[] encode(FileTransferMessage message) throws IOException {
+        return frameCipher != null ? frameCipher.sealMessage(message) : message.getBytes();
+    }
+
+    private void sendOutgoingBuffers(SelectionKey key) throws IOException {
+        while (true) {
+            if (outgoingBuffers.isEmpty() && state == State.SENDING_FILE) {
+                queueStoredFileSegment(key);
+            }
+            if (outgoingBuffers.isEmpty()) {
+                break;
+            }
+            ByteBuffer outgoingBuffer = outgoingBuffers.peek();
+            socketChannel.write(outgoingBuffer);
+            if (outgoingBuffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            outgoingBuffers.poll();
+        }
+        if (state == State.FINISHING) {
+            close(key);
+        } else if (state == State.LINGERING) {
+            socketChannel.shutdownOutput();
+            lingerDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_TIMEOUT_MILLIS);
+            discardedBytesNumber = 0;
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void failTransfer() {
+        if (transfer == null) {
+            return;
+        }
+        Transfer failedTransfer = transfer;
+        transfer = null;
+        closeThrottle();
+        long failedRangeOffset = rangeOffset;
+        long receivedPosition = verifiedPosition;
+        long checkpointedPosition = lastCheckpointPosition;
+        diskWriteStream.flushAsync().handle((flushed, error) -> error)
+                .thenCompose(flushError -> {
+                    if (flushError != null) {
+                        logger.error("Error occurred while writing received file data!");
+                    }
+                    return transferRegistry.failAsync(failedTransfer, failedRangeOffset,
+                            flushError == null ? receivedPosition : checkpointedPosition);
+                })
+                .whenComplete((failed, error) -> {
+                    if (error != null) {
+                        logger.error("Error occurred while saving partially downloaded file!");
+                    }
+                });
+    }
+
+    private void abandonTransfer(Transfer joinedTransfer, long offset) {
+        transferRegistry.failAsync(joinedTransfer, offset, offset).whenComplete((failed, error) -> {
+            if (error != null) {
+                logger.error("Error occurred while saving partially downloaded file!");
+            }
+        });
+    }
+
+    private void closeThrottle() {
+        if (throttle != null) {
+            throttle.close();
+            throttle = null;
+        }
+    }
+
+    private void printAverageDownloadSpeed(long elapsedNanos) {
+        long averageDownloadSpeed = (long) (totalBytesReceived * 1e9 / Math.max(1, elapsedNanos));
+        if (decompressor != null && totalWireBytesReceived > 0) {
+            logger.info("Average file download speed from {}: {} bytes/s (wire {} bytes, compression ratio {})",
+                    hostAddress, averageDownloadSpeed, totalWireBytesReceived,
+                    String.format("%.2f", (double) totalBytesReceived / totalWireBytesReceived));
+        } else {
+            logger.info("Average file download speed from {}: {} bytes/s", hostAddress, averageDownloadSpeed);
+        }
+    }
+
+    private interface AdmissionHandler {
+
+        void admitted(Admission grantedAdmission) throws IOException;
+
+    }
+
+    private interface RegistryHandler {
+
+        void completed() throws IOException;
+
+    }
+
+}
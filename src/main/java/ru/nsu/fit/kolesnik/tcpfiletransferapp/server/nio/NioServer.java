@@ -0,0 +1,282 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.nio;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.BufferPool;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessageCodec;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.Server;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ContentStore;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ServerException;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.UploadsStorage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.admission.AdmissionController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.BasisSigner;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriters;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFileCache;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.MetricsHttpServer;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle.BandwidthController;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer.TransferRegistry;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TransportConfig;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class NioServer {
+
+    private static final long SPEED_COUNT_PERIOD = 3;
+    private static final long DRAIN_POLL_PERIOD_MILLIS = 100;
+
+    private static final Logger logger = LogManager.getLogger(NioServer.class);
+
+    private final ServerSocketChannel serverSocketChannel;
+    private final UploadsStorage uploadsStorage;
+    private final DiskWriters diskWriters;
+    private final ContentStore contentStore;
+    private final BasisSigner basisSigner;
+    private final TransferRegistry transferRegistry;
+    private final BufferPool bufferPool;
+    private final Set<NioClientConnection> activeConnections;
+    private final EventLoop[] eventLoops;
+    private final Thread[] eventLoopThreads;
+    private final ScheduledExecutorService speedReportScheduler;
+    private final ServerMetrics metrics;
+    private final BandwidthController bandwidthController;
+    private final AdmissionController admissionController;
+    private final long drainTimeoutMillis;
+    private final CountDownLatch terminated;
+    private volatile boolean started;
+    private MetricsHttpServer metricsHttpServer;
+    private int nextEventLoopIndex;
+
+    public NioServer(int port, int eventLoopsNumber) {
+        this(port, eventLoopsNumber, null, TransportConfig.DEFAULT, new BandwidthController(0, 0, Map.of()),
+                false, Server.DEFAULT_FILE_CACHE_SIZE, List.of(Server.UPLOADS_DIRECTORY_NAME),
+                new AdmissionController(), Server.DEFAULT_DRAIN_TIMEOUT_MILLIS);
+    }
+
+    public NioServer(int port, int eventLoopsNumber, Integer metricsPort, TransportConfig transportConfig,
+                     BandwidthController bandwidthController, boolean deduplication, long fileCacheSize,
+                     List<String> uploadsDirectoryNames, AdmissionController admissionController,
+                     long drainTimeoutMillis) {
+        if (eventLoopsNumber <= 0) {
+            logger.error("Number of event loops must be positive!");
+            throw new IllegalArgumentException("Number of event loops must be positive!");
+        }
+        try {
+            serverSocketChannel = transportConfig.openServerSocketChannel(port);
+        } catch (IOException e) {
+            logger.error("Could not create server!");
+            throw new ServerException("Could not create server!", e);
+        }
+        uploadsStorage = new UploadsStorage(uploadsDirectoryNames);
+        metrics = new ServerMetrics();
+        diskWriters = new DiskWriters(metrics);
+        contentStore = new ContentStore(uploadsStorage, deduplication);
+        basisSigner = new BasisSigner(uploadsStorage);
+        transferRegistry = new TransferRegistry(uploadsStorage, diskWriters, contentStore, basisSigner,
+                new MappedFileCache(fileCacheSize, metrics));
+        bufferPool = new BufferPool(transportConfig.getFrameSize() + FileTransferMessageCodec.MAX_HEADER_SIZE,
+                Server.MAX_POOLED_BUFFER_BYTES);
+        activeConnections = ConcurrentHashMap.newKeySet();
+        this.bandwidthController = bandwidthController;
+        this.admissionController = admissionController;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        terminated = new CountDownLatch(1);
+        started = false;
+        eventLoops = new EventLoop[eventLoopsNumber];
+        eventLoopThreads = new Thread[eventLoopsNumber];
+        try {
+            for (int i = 0; i < eventLoopsNumber; i++) {
+                eventLoops[i] = new EventLoop(transferRegistry, bufferPool, activeConnections, metrics,
+                        transportConfig, bandwidthController, admissionController);
+            }
+        } catch (IOException e) {
+            logger.error("Could not create event loops!");
+            shutdown();
+            throw new ServerException("Could not create event loops!", e);
+        }
+        speedReportScheduler = Executors.newSingleThreadScheduledExecutor();
+        nextEventLoopIndex = 0;
+        createUploadsDirectory();
+        exposeMetrics(metricsPort);
+        logger.info("Server created successfully");
+    }
+
+    public void start() {
+        started = true;
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoopThreads[i] = new Thread(eventLoops[i], "event-loop-" + i);
+            eventLoopThreads[i].start();
+        }
+        speedReportScheduler.scheduleAtFixedRate(this::printCurrentFileDownloadSpeeds, SPEED_COUNT_PERIOD,
+                SPEED_COUNT_PERIOD, TimeUnit.SECONDS);
+        logger.info("Server started");
+        try {
+            while (serverSocketChannel.isOpen()) {
+                try {
+                    SocketChannel socketChannel = serverSocketChannel.accept();
+                    socketChannel.configureBlocking(false);
+                    logger.info("New connection accepted");
+                    eventLoops[nextEventLoopIndex].register(socketChannel);
+                    nextEventLoopIndex = (nextEventLoopIndex + 1) % eventLoops.length;
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    logger.error("Error occurred while waiting for new connection!");
+                    drainConnections();
+                    shutdown();
+                    throw new ServerException("Error occurred while waiting for new connection!", e);
+                }
+            }
+            drainConnections();
+            shutdown();
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    public int getPort() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    public void stop() {
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to stop server!");
+            throw new ServerException("Failed to stop server!", e);
+        }
+        if (!started) {
+            return;
+        }
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Waiting for server shutdown was interrupted!");
+        }
+    }
+
+    private void createUploadsDirectory() {
+        try {
+            if (uploadsStorage.createUploadsDirectories()) {
+                logger.info("Uploads directory created successfully");
+            }
+            long begin = System.nanoTime();
+            int indexedFilesNumber = uploadsStorage.indexStoredFiles();
+            logger.info("{} stored files on {} volume(s) indexed in {} ms", indexedFilesNumber,
+                    uploadsStorage.getVolumesNumber(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        } catch (IOException e) {
+            logger.error("Error occurred while creating uploads directory!");
+            shutdown();
+            throw new ServerException("Error occurred while creating uploads directory!", e);
+        }
+    }
+
+    private void exposeMetrics(Integer metricsPort) {
+        try {
+            metrics.registerMBean();
+            bandwidthController.registerMBean();
+            admissionController.registerMBean();
+            if (metricsPort != null) {
+                metricsHttpServer = new MetricsHttpServer(metrics, metricsPort);
+                metricsHttpServer.start();
+                logger.info("Metrics are available at http://localhost:{}{}", metricsHttpServer.getPort(),
+                        MetricsHttpServer.METRICS_PATH);
+            }
+        } catch (IOException | JMException e) {
+            logger.error("Error occurred while exposing server metrics!");
+            shutdown();
+            throw new ServerException("Error occurred while exposing server metrics!", e);
+        }
+    }
+
+    private void awaitEventLoopThreads() {
+        try {
+            for (Thread eventLoopThread : eventLoopThreads) {
+                if (eventLoopThread != null) {
+                    eventLoopThread.join(Server.ABORT_TIMEOUT_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Waiting for event loops was interrupted!");
+        }
+    }
+
+    private void printCurrentFileDownloadSpeeds() {
+        for (NioClientConnection connection : activeConnections) {
+            connection.printCurrentFileDownloadSpeed(SPEED_COUNT_PERIOD);
+        }
+    }
+
+    private void drainConnections() {
+        admissionController.close();
+        logger.info("Waiting for {} connection(s) to finish running transfers...", metrics.getActiveConnections());
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.drain();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        try {
+            while (metrics.getActiveConnections() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(DRAIN_POLL_PERIOD_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Waiting for running transfers was interrupted!");
+        }
+        if (metrics.getActiveConnections() > 0) {
+            logger.warn("{} connection(s) did not finish within {} ms, closing them", metrics.getActiveConnections(),
+                    drainTimeoutMillis);
+        }
+    }
+
+    private void shutdown() {
+        logger.info("Shutting server down");
+        if (speedReportScheduler != null) {
+            speedReportScheduler.shutdown();
+        }
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
+        try {
+            metrics.unregisterMBean();
+            bandwidthController.unregisterMBean();
+            admissionController.unregisterMBean();
+        } catch (JMException e) {
+            logger.error("Failed to unregister server metrics!");
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.stop();
+            }
+        }
+        awaitEventLoopThreads();
+        try {
+            if (serverSocketChannel.isOpen()) {
+                serverSocketChannel.close();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to shutdown server gracefully!");
+            throw new ServerException("Failed to shutdown server gracefully!", e);
+        } finally {
+            basisSigner.stop();
+            contentStore.stop();
+            diskWriters.stop();
+            transferRegistry.stop();
+        }
+        logger.info("Server shutdown");
+    }
+
+}
@@ -0,0 +1,181 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class BandwidthController implements BandwidthControllerMXBean {
+
+    public static final String OBJECT_NAME = "ru.nsu.fit.kolesnik.tcpfiletransferapp:type=BandwidthController";
+
+    private static final double DEFAULT_CLIENT_WEIGHT = 1;
+
+    private static final Logger logger = LogManager.getLogger(BandwidthController.class);
+
+    private final TokenBucket globalBucket;
+    private final Map<String, Double> clientWeights;
+    private final Map<InetAddress, TokenBucket> clientBuckets;
+    private final Set<Throttle> activeThrottles;
+    private final Lock lock;
+    private volatile long clientRate;
+
+    public BandwidthController(long globalRate, long clientRate, Map<String, Double> clientWeights) {
+        if (globalRate < 0 || clientRate < 0) {
+            logger.error("Rate must not be negative!");
+            throw new IllegalArgumentException("Rate must not be negative!");
+        }
+        globalBucket = new TokenBucket(globalRate);
+        this.clientRate = clientRate;
+        this.clientWeights = new ConcurrentHashMap<>();
+        clientBuckets = new HashMap<>();
+        activeThrottles = new HashSet<>();
+        lock = new ReentrantLock();
+        clientWeights.forEach(this::setClientWeight);
+    }
+
+    public void registerMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        mBeanServer.registerMBean(this, objectName);
+    }
+
+    public void unregisterMBean() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    public Throttle open(InetAddress address, int streamsNumber) {
+        lock.lock();
+        try {
+            TokenBucket clientBucket = clientBuckets.computeIfAbsent(address, a -> new TokenBucket(clientRate));
+            Throttle throttle = new Throttle(this, address, streamsNumber, clientBucket, globalBucket);
+            activeThrottles.add(throttle);
+            redistribute();
+            return throttle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close(Throttle throttle) {
+        lock.lock();
+        try {
+            if (!activeThrottles.remove(throttle)) {
+                return;
+            }
+            if (activeThrottles.stream().noneMatch(t -> t.getAddress().equals(throttle.getAddress()))) {
+                clientBuckets.remove(throttle.getAddress());
+            }
+            redistribute();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getGlobalRate() {
+        return globalBucket.getRate();
+    }
+
+    @Override
+    public void setGlobalRate(long rate) {
+        lock.lock();
+        try {
+            globalBucket.setRate(rate);
+            redistribute();
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Global rate set to {} bytes/s", rate);
+    }
+
+    @Override
+    public long getClientRate() {
+        return clientRate;
+    }
+
+    @Override
+    public void setClientRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative!");
+        }
+        lock.lock();
+        try {
+            clientRate = rate;
+            for (TokenBucket clientBucket : clientBuckets.values()) {
+                clientBucket.setRate(rate);
+            }
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Client rate set to {} bytes/s", rate);
+    }
+
+    @Override
+    public int getActiveTransfers() {
+        lock.lock();
+        try {
+            return activeThrottles.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Double> getClientWeights() {
+        return new TreeMap<>(clientWeights);
+    }
+
+    @Override
+    public void setClientWeight(String address, double weight) {
+        if (!(weight > 0)) {
+            throw new IllegalArgumentException("Weight must be positive!");
+        }
+        lock.lock();
+        try {
+            clientWeights.put(address, weight);
+            redistribute();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double getWeight(Throttle throttle) {
+        return clientWeights.getOrDefault(throttle.getAddress().getHostAddress(), DEFAULT_CLIENT_WEIGHT)
+                / throttle.getStreamsNumber();
+    }
+
+    private void redistribute() {
+        long globalRate = globalBucket.getRate();
+        double totalWeight = 0;
+        for (Throttle throttle : activeThrottles) {
+            totalWeight += getWeight(throttle);
+        }
+        for (Throttle throttle : activeThrottles) {
+            long fairShareRate = globalRate == 0 ? 0
+                    : Math.max(1, (long) (globalRate * getWeight(throttle) / totalWeight));
+            throttle.getFairShareBucket().setRate(fairShareRate);
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle;
+
+import java.util.Map;
+
+public interface BandwidthControllerMXBean {
+
+    long getGlobalRate();
+
+    void setGlobalRate(long rate);
+
+    long getClientRate();
+
+    void setClientRate(long rate);
+
+    int getActiveTransfers();
+
+    Map<String, Double> getClientWeights();
+
+    void setClientWeight(String address, double weight);
+
+}
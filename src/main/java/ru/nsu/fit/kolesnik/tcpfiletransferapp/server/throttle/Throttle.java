@@ -0,0 +1,49 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.throttle;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.transport.TokenBucket;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+
+public class Throttle {
+
+    private final BandwidthController bandwidthController;
+    @Getter(AccessLevel.PACKAGE)
+    private final InetAddress address;
+    @Getter(AccessLevel.PACKAGE)
+    private final int streamsNumber;
+    @Getter(AccessLevel.PACKAGE)
+    private final TokenBucket fairShareBucket;
+    private final TokenBucket clientBucket;
+    private final TokenBucket globalBucket;
+
+    Throttle(BandwidthController bandwidthController, InetAddress address, int streamsNumber,
+             TokenBucket clientBucket, TokenBucket globalBucket) {
+        this.bandwidthController = bandwidthController;
+        this.address = address;
+        this.streamsNumber = Math.max(1, streamsNumber);
+        fairShareBucket = new TokenBucket(0);
+        this.clientBucket = clientBucket;
+        this.globalBucket = globalBucket;
+    }
+
+    public long reserve(long bytesNumber) {
+        long fairShareDelay = fairShareBucket.reserve(bytesNumber);
+        long clientDelay = clientBucket.reserve(bytesNumber);
+        long globalDelay = globalBucket.reserve(bytesNumber);
+        return Math.max(fairShareDelay, Math.max(clientDelay, globalDelay));
+    }
+
+    public long acquire(long bytesNumber) throws InterruptedIOException {
+        long delayNanos = reserve(bytesNumber);
+        TokenBucket.pause(delayNanos);
+        return delayNanos;
+    }
+
+    public void close() {
+        bandwidthController.close(this);
+    }
+
+}
@@ -0,0 +1,129 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriteStream;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriter;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Getter
+public class Transfer {
+
+    private final long transferId;
+    private final byte[] contentDigest;
+    private final String fileName;
+    private final long fileSize;
+    private final Path partFilePath;
+    private final Path journalPath;
+    private final FileChannel fileChannel;
+    @Getter(AccessLevel.NONE)
+    private final DiskWriter diskWriter;
+    private final NavigableMap<Long, Long> receivedRanges;
+    @Getter(AccessLevel.PACKAGE)
+    private final Lock lock;
+    private int participantsNumber;
+    @Getter(AccessLevel.NONE)
+    private boolean closed;
+
+    Transfer(long transferId, byte[] contentDigest, String fileName, long fileSize, Path partFilePath,
+             Path journalPath, NavigableMap<Long, Long> receivedRanges, DiskWriter diskWriter) throws IOException {
+        this.transferId = transferId;
+        this.contentDigest = contentDigest;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.partFilePath = partFilePath;
+        this.journalPath = journalPath;
+        try (RandomAccessFile partFile = new RandomAccessFile(partFilePath.toFile(), "rw")) {
+            partFile.setLength(fileSize);
+        }
+        fileChannel = FileChannel.open(partFilePath, StandardOpenOption.WRITE);
+        this.diskWriter = diskWriter;
+        this.receivedRanges = new TreeMap<>(receivedRanges);
+        lock = new ReentrantLock();
+        participantsNumber = 0;
+        closed = false;
+    }
+
+    public DiskWriteStream openWriteStream(long position) {
+        return new DiskWriteStream(diskWriter, fileChannel, position);
+    }
+
+    boolean matches(byte[] contentDigest, long fileSize) {
+        return Arrays.equals(this.contentDigest, contentDigest) && this.fileSize == fileSize;
+    }
+
+    boolean matches(byte[] contentDigest, String fileName, long fileSize) {
+        return matches(contentDigest, fileSize) && this.fileName.equals(fileName);
+    }
+
+    void join() {
+        participantsNumber++;
+    }
+
+    void leave() {
+        participantsNumber--;
+    }
+
+    void addReceivedRange(long start, long end) {
+        addReceivedRange(receivedRanges, start, end);
+    }
+
+    long getReceivedRangeEnd(long offset) {
+        return getReceivedRangeEnd(receivedRanges, offset);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() throws IOException {
+        closed = true;
+        fileChannel.close();
+    }
+
+    boolean isComplete() {
+        return getReceivedRangeEnd(0) >= fileSize;
+    }
+
+    TransferJournal toJournal() {
+        return new TransferJournal(contentDigest, fileName, fileSize, new TreeMap<>(receivedRanges));
+    }
+
+    static void addReceivedRange(NavigableMap<Long, Long> ranges, long start, long end) {
+        if (start >= end) {
+            return;
+        }
+        Map.Entry<Long, Long> previousRange = ranges.floorEntry(start);
+        if (previousRange != null && previousRange.getValue() >= start) {
+            start = previousRange.getKey();
+            end = Math.max(end, previousRange.getValue());
+        }
+        Map.Entry<Long, Long> nextRange = ranges.ceilingEntry(start);
+        while (nextRange != null && nextRange.getKey() <= end) {
+            end = Math.max(end, nextRange.getValue());
+            ranges.remove(nextRange.getKey());
+            nextRange = ranges.ceilingEntry(start);
+        }
+        ranges.put(start, end);
+    }
+
+    static long getReceivedRangeEnd(NavigableMap<Long, Long> ranges, long offset) {
+        Map.Entry<Long, Long> range = ranges.floorEntry(offset);
+        if (range != null && range.getValue() >= offset) {
+            return range.getValue();
+        }
+        return offset;
+    }
+
+}
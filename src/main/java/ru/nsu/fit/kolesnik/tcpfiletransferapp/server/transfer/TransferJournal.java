@@ -0,0 +1,90 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer;
+
+import lombok.Getter;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+@Getter
+class TransferJournal {
+
+    private static final String CONTENT_DIGEST_KEY = "contentDigest";
+    private static final String FILE_NAME_KEY = "fileName";
+    private static final String FILE_SIZE_KEY = "fileSize";
+    private static final String RECEIVED_RANGES_KEY = "receivedRanges";
+
+    private final byte[] contentDigest;
+    private final String fileName;
+    private final long fileSize;
+    private final NavigableMap<Long, Long> receivedRanges;
+
+    TransferJournal(byte[] contentDigest, String fileName, long fileSize, NavigableMap<Long, Long> receivedRanges) {
+        this.contentDigest = contentDigest;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.receivedRanges = receivedRanges;
+    }
+
+    static TransferJournal read(Path journalPath) throws IOException {
+        if (!Files.isRegularFile(journalPath)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(journalPath);
+             Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            NavigableMap<Long, Long> receivedRanges = new TreeMap<>();
+            String ranges = properties.getProperty(RECEIVED_RANGES_KEY, "");
+            for (String range : ranges.split(",")) {
+                if (!range.isEmpty()) {
+                    String[] bounds = range.split("-");
+                    receivedRanges.put(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+                }
+            }
+            return new TransferJournal(ContentDigest.fromHex(properties.getProperty(CONTENT_DIGEST_KEY, "")),
+                    properties.getProperty(FILE_NAME_KEY),
+                    Long.parseLong(properties.getProperty(FILE_SIZE_KEY)), receivedRanges);
+        } catch (RuntimeException e) {
+            throw new IOException("Transfer journal is corrupted!", e);
+        }
+    }
+
+    void write(Path journalPath) throws IOException {
+        StringJoiner ranges = new StringJoiner(",");
+        for (Map.Entry<Long, Long> range : receivedRanges.entrySet()) {
+            ranges.add(range.getKey() + "-" + range.getValue());
+        }
+        Properties properties = new Properties();
+        properties.setProperty(CONTENT_DIGEST_KEY, ContentDigest.toHex(contentDigest));
+        properties.setProperty(FILE_NAME_KEY, fileName);
+        properties.setProperty(FILE_SIZE_KEY, Long.toString(fileSize));
+        properties.setProperty(RECEIVED_RANGES_KEY, ranges.toString());
+        Path temporaryJournalPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(temporaryJournalPath.toFile());
+             Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+            writer.flush();
+            outputStream.getFD().sync();
+        }
+        Files.move(temporaryJournalPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
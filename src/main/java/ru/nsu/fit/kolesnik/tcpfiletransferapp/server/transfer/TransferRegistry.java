@@ -0,0 +1,305 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer;
+
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.ContentDigest;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ContentStore;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.UploadsStorage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.Basis;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.BasisSigner;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriters;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFile;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFileCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public class TransferRegistry {
+
+    public static final long CHECKPOINT_SIZE = 67108864;
+
+    private static final int WORKER_THREADS_NUMBER = 4;
+
+    private final UploadsStorage uploadsStorage;
+    private final DiskWriters diskWriters;
+    private final ContentStore contentStore;
+    private final BasisSigner basisSigner;
+    private final MappedFileCache fileCache;
+    private final Map<Long, Transfer> transfers;
+    private final ExecutorService workers;
+
+    public TransferRegistry(UploadsStorage uploadsStorage, DiskWriters diskWriters, ContentStore contentStore,
+                            BasisSigner basisSigner, MappedFileCache fileCache) {
+        this.uploadsStorage = uploadsStorage;
+        this.diskWriters = diskWriters;
+        this.contentStore = contentStore;
+        this.basisSigner = basisSigner;
+        this.fileCache = fileCache;
+        transfers = new ConcurrentHashMap<>();
+        workers = Executors.newFixedThreadPool(WORKER_THREADS_NUMBER,
+                Thread.ofPlatform().name("transfer-registry-", 0).daemon().factory());
+    }
+
+    public CompletableFuture<Long> getResumeOffsetAsync(FileTransferMessage resumingMessage) {
+        return submit(() -> getResumeOffset(resumingMessage));
+    }
+
+    public CompletableFuture<File> linkDuplicateAsync(FileTransferMessage lookupMessage) {
+        return submit(() -> linkDuplicate(lookupMessage));
+    }
+
+    public CompletableFuture<Transfer> joinAsync(FileTransferMessage initializingMessage) {
+        return submit(() -> join(initializingMessage));
+    }
+
+    public CompletableFuture<Void> checkpointAsync(Transfer transfer, long start, long end) {
+        return submit(() -> {
+            checkpoint(transfer, start, end);
+            return null;
+        });
+    }
+
+    public CompletableFuture<File> completeAsync(Transfer transfer, long start, long end) {
+        return submit(() -> complete(transfer, start, end));
+    }
+
+    public CompletableFuture<Void> failAsync(Transfer transfer, long start, long end) {
+        return submit(() -> {
+            fail(transfer, start, end);
+            return null;
+        });
+    }
+
+    public void stop() {
+        workers.shutdown();
+    }
+
+    public long getResumeOffset(FileTransferMessage resumingMessage) throws IOException {
+        long transferId = resumingMessage.getTransferId();
+        byte[] contentDigest = resumingMessage.getContentDigest();
+        long fileSize = resumingMessage.getFileSize();
+        long offset = resumingMessage.getOffset();
+        long length = resumingMessage.getLength();
+        if (fileSize < 0 || offset < 0 || length < 0 || offset > fileSize - length) {
+            throw new IOException("Invalid resume range!");
+        }
+        if (contentDigest.length != ContentDigest.SIZE) {
+            throw new IOException("Invalid content digest!");
+        }
+        Transfer transfer = transfers.get(transferId);
+        if (transfer != null) {
+            transfer.getLock().lock();
+            try {
+                if (!transfer.isClosed()) {
+                    return transfer.matches(contentDigest, fileSize)
+                            ? Math.min(transfer.getReceivedRangeEnd(offset), offset + length) : offset;
+                }
+            } finally {
+                transfer.getLock().unlock();
+            }
+        }
+        Path partFilePath = uploadsStorage.findPartFilePath(transferId);
+        if (partFilePath == null) {
+            return offset;
+        }
+        TransferJournal journal = TransferJournal.read(uploadsStorage.getJournalFilePath(partFilePath));
+        if (journal != null && Arrays.equals(journal.getContentDigest(), contentDigest)
+                && journal.getFileSize() == fileSize) {
+            return Math.min(Transfer.getReceivedRangeEnd(journal.getReceivedRanges(), offset), offset + length);
+        }
+        return offset;
+    }
+
+    public File linkDuplicate(FileTransferMessage lookupMessage) throws IOException {
+        if (lookupMessage.getFileSize() < 0) {
+            throw new IOException("Invalid file size!");
+        }
+        if (!uploadsStorage.isPlainFileName(lookupMessage.getFileName())) {
+            throw new IOException("Invalid file name!");
+        }
+        return contentStore.link(lookupMessage);
+    }
+
+    public CompletableFuture<Basis> openBasis(FileTransferMessage basisMessage) {
+        return basisSigner.open(basisMessage);
+    }
+
+    public CompletableFuture<ByteBuffer> readBasis(Basis basis, ByteBuffer destination, long position) {
+        return basisSigner.read(basis, destination, position);
+    }
+
+    public MappedFile openStoredFile(FileTransferMessage getMessage) throws IOException {
+        Path filePath = uploadsStorage.findStoredFile(getMessage.getFileName());
+        if (filePath == null) {
+            return null;
+        }
+        return fileCache.open(filePath);
+    }
+
+    public Transfer join(FileTransferMessage initializingMessage) throws IOException {
+        long fileSize = initializingMessage.getFileSize();
+        long offset = initializingMessage.getOffset();
+        long length = initializingMessage.getLength();
+        if (fileSize < 0 || offset < 0 || length < 0 || offset > fileSize - length
+                || initializingMessage.getStreamsNumber() <= 0) {
+            throw new IOException("Invalid file range!");
+        }
+        if (!uploadsStorage.isPlainFileName(initializingMessage.getFileName())) {
+            throw new IOException("Invalid file name!");
+        }
+        if (initializingMessage.getContentDigest().length != ContentDigest.SIZE) {
+            throw new IOException("Invalid content digest!");
+        }
+        while (true) {
+            Transfer transfer = getOrOpenTransfer(initializingMessage.getTransferId(),
+                    initializingMessage.getContentDigest(), initializingMessage.getFileName(), fileSize);
+            transfer.getLock().lock();
+            try {
+                if (transfer.isClosed()) {
+                    continue;
+                }
+                if (!transfer.matches(initializingMessage.getContentDigest(), initializingMessage.getFileName(),
+                        fileSize)) {
+                    throw new IOException("File range does not match transfer in progress!");
+                }
+                transfer.join();
+                return transfer;
+            } finally {
+                transfer.getLock().unlock();
+            }
+        }
+    }
+
+    public void checkpoint(Transfer transfer, long start, long end) throws IOException {
+        transfer.getLock().lock();
+        try {
+            if (transfer.isClosed()) {
+                return;
+            }
+            transfer.addReceivedRange(start, end);
+            transfer.toJournal().write(transfer.getJournalPath());
+        } finally {
+            transfer.getLock().unlock();
+        }
+    }
+
+    public File complete(Transfer transfer, long start, long end) throws IOException {
+        transfer.getLock().lock();
+        try {
+            if (transfer.isClosed()) {
+                return null;
+            }
+            transfer.addReceivedRange(start, end);
+            transfer.leave();
+            if (transfer.isComplete()) {
+                transfers.remove(transfer.getTransferId(), transfer);
+                transfer.close();
+                Files.deleteIfExists(transfer.getJournalPath());
+                uploadsStorage.writeFinished(transfer.getPartFilePath());
+                File file = uploadsStorage.commitPartFile(transfer.getPartFilePath(), transfer.getFileName());
+                contentStore.index(file);
+                return file;
+            }
+            transfer.toJournal().write(transfer.getJournalPath());
+            closeIfAbandoned(transfer);
+            return null;
+        } finally {
+            transfer.getLock().unlock();
+        }
+    }
+
+    public void fail(Transfer transfer, long start, long end) throws IOException {
+        transfer.getLock().lock();
+        try {
+            if (transfer.isClosed()) {
+                return;
+            }
+            transfer.leave();
+            try {
+                transfer.getFileChannel().force(false);
+                transfer.addReceivedRange(start, end);
+                transfer.toJournal().write(transfer.getJournalPath());
+            } finally {
+                closeIfAbandoned(transfer);
+            }
+        } finally {
+            transfer.getLock().unlock();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(RegistryTask<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable worker = () -> {
+            try {
+                result.complete(task.run());
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        };
+        try {
+            workers.execute(worker);
+        } catch (RejectedExecutionException e) {
+            worker.run();
+        }
+        return result;
+    }
+
+    private Transfer getOrOpenTransfer(long transferId, byte[] contentDigest, String fileName, long fileSize)
+            throws IOException {
+        try {
+            return transfers.computeIfAbsent(transferId, id -> {
+                try {
+                    return openTransfer(id, contentDigest, fileName, fileSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Transfer openTransfer(long transferId, byte[] contentDigest, String fileName, long fileSize)
+            throws IOException {
+        Path partFilePath = uploadsStorage.findPartFilePath(transferId);
+        if (partFilePath != null) {
+            Path journalPath = uploadsStorage.getJournalFilePath(partFilePath);
+            TransferJournal journal = TransferJournal.read(journalPath);
+            if (journal != null && Arrays.equals(journal.getContentDigest(), contentDigest)
+                    && journal.getFileName().equals(fileName) && journal.getFileSize() == fileSize) {
+                uploadsStorage.writeStarted(partFilePath);
+                return new Transfer(transferId, contentDigest, fileName, fileSize, partFilePath, journalPath,
+                        journal.getReceivedRanges(), diskWriters.forPath(partFilePath));
+            }
+        }
+        partFilePath = uploadsStorage.createPartFile(transferId, fileSize);
+        return new Transfer(transferId, contentDigest, fileName, fileSize, partFilePath,
+                uploadsStorage.getJournalFilePath(partFilePath), new TreeMap<>(), diskWriters.forPath(partFilePath));
+    }
+
+    private void closeIfAbandoned(Transfer transfer) throws IOException {
+        if (transfer.getParticipantsNumber() == 0) {
+            transfers.remove(transfer.getTransferId(), transfer);
+            transfer.close();
+            uploadsStorage.writeFinished(transfer.getPartFilePath());
+        }
+    }
+
+    private interface RegistryTask<T> {
+
+        T run() throws IOException;
+
+    }
+
+}
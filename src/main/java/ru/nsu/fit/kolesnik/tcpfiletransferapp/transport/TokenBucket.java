@@ -0,0 +1,65 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.transport;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class TokenBucket {
+
+    private static final long BURST_NANOS = 50000000;
+
+    private final AtomicLong nextFreeNanos;
+    private volatile long rate;
+
+    public TokenBucket(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative!");
+        }
+        nextFreeNanos = new AtomicLong(System.nanoTime());
+        this.rate = rate;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative!");
+        }
+        this.rate = rate;
+    }
+
+    public long reserve(long bytesNumber) {
+        long currentRate = rate;
+        if (currentRate == 0 || bytesNumber <= 0) {
+            return 0;
+        }
+        long costNanos = (long) (bytesNumber * 1e9 / currentRate);
+        long now = System.nanoTime();
+        long previousFreeNanos;
+        long freeNanos;
+        do {
+            previousFreeNanos = nextFreeNanos.get();
+            freeNanos = (previousFreeNanos - now > 0 ? previousFreeNanos : now) + costNanos;
+        } while (!nextFreeNanos.compareAndSet(previousFreeNanos, freeNanos));
+        return Math.max(0, freeNanos - now - BURST_NANOS);
+    }
+
+    public void acquire(long bytesNumber) throws InterruptedIOException {
+        pause(reserve(bytesNumber));
+    }
+
+    public static void pause(long delayNanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + delayNanos;
+        long remainingNanos;
+        while ((remainingNanos = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNanos);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Rate limited transfer was interrupted!");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.transport;
+
+import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption.EncryptionKey;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+@Getter
+public class TransportConfig {
+
+    public static final String SEND_BUFFER_SIZE = "send-buffer-size";
+    public static final String RECEIVE_BUFFER_SIZE = "receive-buffer-size";
+    public static final String TCP_NO_DELAY = "tcp-no-delay";
+    public static final String FRAME_SIZE = "frame-size";
+    public static final String BACKLOG = "backlog";
+    public static final String WRITE_BUFFER_SIZE = "write-buffer-size";
+    public static final String AUTO_TUNE = "auto-tune";
+    public static final String TARGET_BANDWIDTH = "target-bandwidth";
+    public static final String MAX_RATE = "max-rate";
+    public static final String KEY_FILE = "key-file";
+
+    public static final TransportConfig DEFAULT = new TransportConfig(new Properties());
+
+    private static final int MAX_SOCKET_BUFFER_SIZE = 268435456;
+    private static final int MAX_WRITE_BUFFER_SIZE = 67108864;
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 262144;
+    private static final long DEFAULT_TARGET_BANDWIDTH = 125000000;
+
+    private static final Logger logger = LogManager.getLogger(TransportConfig.class);
+
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final boolean tcpNoDelay;
+    private final int frameSize;
+    private final int backlog;
+    private final int writeBufferSize;
+    private final boolean autoTune;
+    private final long targetBandwidth;
+    private final long maxRate;
+    private final EncryptionKey encryptionKey;
+
+    public TransportConfig(Properties properties) {
+        sendBufferSize = (int) parseSize(properties, SEND_BUFFER_SIZE, 0, 0, MAX_SOCKET_BUFFER_SIZE);
+        receiveBufferSize = (int) parseSize(properties, RECEIVE_BUFFER_SIZE, 0, 0, MAX_SOCKET_BUFFER_SIZE);
+        tcpNoDelay = parseBoolean(properties, TCP_NO_DELAY, true);
+        frameSize = (int) parseSize(properties, FRAME_SIZE, FileTransferMessage.DEFAULT_DATA_SIZE,
+                FileTransferMessage.DEFAULT_DATA_SIZE, FileTransferMessage.MAX_DATA_SIZE);
+        backlog = (int) parseSize(properties, BACKLOG, 0, 0, Integer.MAX_VALUE);
+        writeBufferSize = (int) parseSize(properties, WRITE_BUFFER_SIZE, DEFAULT_WRITE_BUFFER_SIZE, 1,
+                MAX_WRITE_BUFFER_SIZE);
+        autoTune = parseBoolean(properties, AUTO_TUNE, false);
+        targetBandwidth = parseSize(properties, TARGET_BANDWIDTH, DEFAULT_TARGET_BANDWIDTH, 1, Long.MAX_VALUE);
+        maxRate = parseSize(properties, MAX_RATE, 0, 0, Long.MAX_VALUE);
+        encryptionKey = loadEncryptionKey(properties);
+    }
+
+    public static Properties load(Path path) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            logger.error("Could not read transport configuration {}!", path);
+            throw new TransportException(String.format("Could not read transport configuration %s!", path), e);
+        }
+        return properties;
+    }
+
+    public ServerSocketChannel openServerSocketChannel(int port) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+        try {
+            if (receiveBufferSize > 0) {
+                serverSocketChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            return serverSocketChannel.bind(new InetSocketAddress(port), backlog);
+        } catch (IOException e) {
+            serverSocketChannel.close();
+            throw e;
+        }
+    }
+
+    public SocketChannel connect(String hostname, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(hostname, port);
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            configure(socketChannel);
+            long begin = System.nanoTime();
+            socketChannel.connect(address);
+            if (autoTune) {
+                tune(socketChannel, System.nanoTime() - begin);
+            }
+            return socketChannel;
+        } catch (IOException e) {
+            socketChannel.close();
+            throw e;
+        }
+    }
+
+    public void configure(SocketChannel socketChannel) throws IOException {
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if (sendBufferSize > 0) {
+            socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socketChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+    }
+
+    private void tune(SocketChannel socketChannel, long roundTripNanos) throws IOException {
+        long bandwidthDelayProduct = Math.min(MAX_SOCKET_BUFFER_SIZE,
+                (long) (targetBandwidth * (roundTripNanos / 1e9)));
+        int currentSendBufferSize = socketChannel.getOption(StandardSocketOptions.SO_SNDBUF);
+        if (bandwidthDelayProduct > currentSendBufferSize) {
+            socketChannel.setOption(StandardSocketOptions.SO_SNDBUF, (int) bandwidthDelayProduct);
+        }
+        logger.info("Measured round trip time {} us, send buffer size {} bytes", roundTripNanos / 1000,
+                socketChannel.getOption(StandardSocketOptions.SO_SNDBUF));
+    }
+
+    public static long parseSize(String key, String value, long minValue, long maxValue) {
+        if (value == null || value.isBlank()) {
+            logger.error("Invalid value {} of {}!", value, key);
+            throw new IllegalArgumentException(String.format("Invalid value %s of %s!", value, key));
+        }
+        String normalizedValue = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = switch (normalizedValue.charAt(normalizedValue.length() - 1)) {
+            case 'K' -> 1024;
+            case 'M' -> 1048576;
+            case 'G' -> 1073741824;
+            default -> 1;
+        };
+        if (multiplier != 1) {
+            normalizedValue = normalizedValue.substring(0, normalizedValue.length() - 1);
+        }
+        long size;
+        try {
+            size = Math.multiplyExact(Long.parseLong(normalizedValue.trim()), multiplier);
+        } catch (NumberFormatException | ArithmeticException e) {
+            logger.error("Invalid value {} of {}!", value, key);
+            throw new IllegalArgumentException(String.format("Invalid value %s of %s!", value, key), e);
+        }
+        if (size < minValue || size > maxValue) {
+            logger.error("Value of {} must be between {} and {}!", key, minValue, maxValue);
+            throw new IllegalArgumentException(
+                    String.format("Value of %s must be between %s and %s!", key, minValue, maxValue));
+        }
+        return size;
+    }
+
+    private static long parseSize(Properties properties, String key, long defaultValue, long minValue,
+                                  long maxValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return parseSize(key, value, minValue, maxValue);
+    }
+
+    private static EncryptionKey loadEncryptionKey(Properties properties) {
+        String keyFile = properties.getProperty(KEY_FILE);
+        if (keyFile == null || keyFile.isBlank()) {
+            return null;
+        }
+        try {
+            return EncryptionKey.load(Path.of(keyFile.trim()));
+        } catch (IOException e) {
+            logger.error("Could not read key file {}!", keyFile);
+            throw new TransportException(String.format("Could not read key file %s!", keyFile), e);
+        } catch (IllegalArgumentException e) {
+            logger.error("Key file {} is too short!", keyFile);
+            throw e;
+        }
+    }
+
+    private static boolean parseBoolean(Properties properties, String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        if (!value.trim().equalsIgnoreCase("true") && !value.trim().equalsIgnoreCase("false")) {
+            logger.error("Invalid value {} of {}!", value, key);
+            throw new IllegalArgumentException(String.format("Invalid value %s of %s!", value, key));
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+}
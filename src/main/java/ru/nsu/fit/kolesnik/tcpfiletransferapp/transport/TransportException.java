@@ -0,0 +1,14 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.transport;
+
+import java.io.Serial;
+
+public class TransportException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public TransportException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,110 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta.BlockSignatures;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaScannerTest {
+
+    private static final int BLOCK_SIZE = BlockSignatures.MIN_BLOCK_SIZE;
+    private static final int BLOCKS_NUMBER = 16;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void findsShiftedBasis() throws IOException {
+        byte[] basis = randomBytes(BLOCK_SIZE * BLOCKS_NUMBER, 1);
+        byte[] file = new byte[basis.length + 100];
+        System.arraycopy(randomBytes(100, 2), 0, file, 0, 100);
+        System.arraycopy(basis, 0, file, 100, basis.length);
+        List<BlockMatch> matches = scan(basis, file);
+        assertEquals(1, matches.size());
+        assertMatch(matches.getFirst(), 100, 0, basis.length);
+    }
+
+    @Test
+    void skipsModifiedBlock() throws IOException {
+        byte[] basis = randomBytes(BLOCK_SIZE * BLOCKS_NUMBER, 1);
+        byte[] file = basis.clone();
+        file[BLOCK_SIZE * 5 + 10] ^= 1;
+        List<BlockMatch> matches = scan(basis, file);
+        assertEquals(2, matches.size());
+        assertMatch(matches.get(0), 0, 0, BLOCK_SIZE * 5);
+        assertMatch(matches.get(1), BLOCK_SIZE * 6, BLOCK_SIZE * 6, BLOCK_SIZE * (BLOCKS_NUMBER - 6));
+    }
+
+    @Test
+    void findsReorderedBlocks() throws IOException {
+        byte[] basis = randomBytes(BLOCK_SIZE * BLOCKS_NUMBER, 1);
+        byte[] file = new byte[basis.length];
+        int half = basis.length / 2;
+        System.arraycopy(basis, half, file, 0, half);
+        System.arraycopy(basis, 0, file, half, half);
+        List<BlockMatch> matches = scan(basis, file);
+        assertEquals(2, matches.size());
+        assertMatch(matches.get(0), 0, half, half);
+        assertMatch(matches.get(1), half, 0, half);
+    }
+
+    @Test
+    void findsNothingInUnrelatedFile() throws IOException {
+        byte[] basis = randomBytes(BLOCK_SIZE * BLOCKS_NUMBER, 1);
+        assertTrue(scan(basis, randomBytes(basis.length, 2)).isEmpty());
+    }
+
+    @Test
+    void scansOnlyRequestedRange() throws IOException {
+        byte[] basis = randomBytes(BLOCK_SIZE * BLOCKS_NUMBER, 1);
+        BlockSignatures signatures = computeSignatures(basis);
+        try (FileChannel fileChannel = open(basis, "file.bin")) {
+            List<BlockMatch> matches = new DeltaScanner(signatures).scan(fileChannel, BLOCK_SIZE * 4L,
+                    BLOCK_SIZE * 8L);
+            assertEquals(1, matches.size());
+            assertMatch(matches.getFirst(), BLOCK_SIZE * 4, BLOCK_SIZE * 4, BLOCK_SIZE * 8);
+        }
+    }
+
+    private List<BlockMatch> scan(byte[] basis, byte[] file) throws IOException {
+        BlockSignatures signatures = computeSignatures(basis);
+        try (FileChannel fileChannel = open(file, "file.bin")) {
+            return new DeltaScanner(signatures).scan(fileChannel, 0, file.length);
+        }
+    }
+
+    private BlockSignatures computeSignatures(byte[] basis) throws IOException {
+        try (FileChannel basisChannel = open(basis, "basis.bin")) {
+            return BlockSignatures.compute(basisChannel, BLOCK_SIZE);
+        }
+    }
+
+    private FileChannel open(byte[] content, String fileName) throws IOException {
+        Path path = directory.resolve(fileName);
+        Files.write(path, content);
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertMatch(BlockMatch match, long position, long basisOffset, long length) {
+        assertEquals(position, match.getPosition());
+        assertEquals(basisOffset, match.getBasisOffset());
+        assertEquals(length, match.getLength());
+    }
+
+}
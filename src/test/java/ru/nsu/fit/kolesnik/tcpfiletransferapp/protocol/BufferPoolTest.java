@@ -0,0 +1,42 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool bufferPool = new BufferPool(1024, 2048);
+        ByteBuffer buffer = bufferPool.acquire();
+        bufferPool.release(buffer);
+        assertSame(buffer, bufferPool.acquire());
+    }
+
+    @Test
+    void dropsBuffersOverPooledBytesLimit() {
+        BufferPool bufferPool = new BufferPool(1024, 2048);
+        ByteBuffer firstBuffer = bufferPool.acquire();
+        ByteBuffer secondBuffer = bufferPool.acquire();
+        ByteBuffer thirdBuffer = bufferPool.acquire();
+        bufferPool.release(firstBuffer);
+        bufferPool.release(secondBuffer);
+        bufferPool.release(thirdBuffer);
+        assertSame(firstBuffer, bufferPool.acquire());
+        assertSame(secondBuffer, bufferPool.acquire());
+        assertNotSame(thirdBuffer, bufferPool.acquire());
+    }
+
+    @Test
+    void poolsOneBufferBiggerThanLimit() {
+        BufferPool bufferPool = new BufferPool(4096, 1024);
+        ByteBuffer buffer = bufferPool.acquire();
+        bufferPool.release(buffer);
+        assertSame(buffer, bufferPool.acquire());
+    }
+
+}
@@ -0,0 +1,148 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileTransferMessageCodecTest {
+
+    private static final List<FileTransferMessage> CONTROL_MESSAGES = List.of(
+            FileTransferMessage.init("файл.bin", 1048576, 42, new byte[32], 4096, 8192, 4),
+            FileTransferMessage.fin(0xCAFEBABE),
+            FileTransferMessage.success(),
+            FileTransferMessage.failed(),
+            FileTransferMessage.missing(),
+            FileTransferMessage.hello("zstd,deflate", 1048576, new byte[]{1, 2, 3, 4}),
+            FileTransferMessage.resume(42, new byte[32], 1048576, 0, 1048576),
+            FileTransferMessage.offset(42, 1048576, 65536),
+            FileTransferMessage.lookup("a.txt", 1048576, new byte[32]),
+            FileTransferMessage.basis("a.txt", 1048576, 4096),
+            FileTransferMessage.copy(8192, 16384),
+            FileTransferMessage.get("a.txt", 100, 200),
+            FileTransferMessage.file("a.txt", 1048576, 100, 200),
+            FileTransferMessage.busy(1000, 3));
+
+    @Test
+    void decodesEncodedControlMessages() throws IOException {
+        for (FileTransferMessage message : CONTROL_MESSAGES) {
+            byte[] bytes = message.getBytes();
+            assertEquals(FileTransferMessageCodec.getEncodedSize(message), bytes.length);
+            ByteBuffer source = ByteBuffer.wrap(bytes);
+            FileTransferFrame frame = new FileTransferFrame();
+            assertTrue(FileTransferMessageCodec.decodeFrameHeader(source, frame));
+            assertEquals(message.getType(), frame.getType());
+            assertFalse(source.hasRemaining());
+            assertArrayEquals(bytes, frame.toMessage().getBytes());
+        }
+    }
+
+    @Test
+    void receivesEncodedControlMessages() throws IOException {
+        for (FileTransferMessage message : CONTROL_MESSAGES) {
+            byte[] bytes = message.getBytes();
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(bytes));
+            FileTransferFrame frame = new FileTransferFrame();
+            FileTransferMessageCodec.receiveFrameHeader(inputStream, frame);
+            assertEquals(message.getType(), frame.getType());
+            assertEquals(-1, inputStream.read());
+            assertArrayEquals(bytes, frame.toMessage().getBytes());
+        }
+    }
+
+    @Test
+    void waitsForWholeControlMessage() throws IOException {
+        for (FileTransferMessage message : CONTROL_MESSAGES) {
+            byte[] bytes = message.getBytes();
+            for (int length = 0; length < bytes.length; length++) {
+                ByteBuffer source = ByteBuffer.wrap(bytes, 0, length);
+                assertFalse(FileTransferMessageCodec.decodeFrameHeader(source, new FileTransferFrame()));
+                assertEquals(0, source.position());
+            }
+        }
+    }
+
+    @Test
+    void decodesDataFrameHeaders() throws IOException {
+        ByteBuffer source = ByteBuffer.allocate(FileTransferMessageCodec.DATA_HEADER_SIZE
+                + FileTransferMessageCodec.COMPRESSED_HEADER_SIZE + FileTransferMessageCodec.SEALED_HEADER_SIZE
+                + FileTransferMessageCodec.BODY_HEADER_SIZE);
+        FileTransferMessageCodec.encodeDataHeader(100, 7, source);
+        FileTransferMessageCodec.encodeCompressedHeader(200, 50, 8, source);
+        FileTransferMessageCodec.encodeSealedHeader(300, true, 316, source);
+        FileTransferMessageCodec.encodeBodyHeader(1L << 33, source);
+        source.flip();
+        FileTransferFrame frame = new FileTransferFrame();
+
+        assertTrue(FileTransferMessageCodec.decodeFrameHeader(source, frame));
+        assertEquals(FileTransferMessageType.DATA, frame.getType());
+        assertEquals(100, frame.getDataSize());
+        assertEquals(7, frame.getChecksum());
+
+        assertTrue(FileTransferMessageCodec.decodeFrameHeader(source, frame));
+        assertEquals(FileTransferMessageType.COMPRESSED, frame.getType());
+        assertEquals(200, frame.getRawDataSize());
+        assertEquals(50, frame.getDataSize());
+        assertEquals(8, frame.getChecksum());
+
+        assertTrue(FileTransferMessageCodec.decodeFrameHeader(source, frame));
+        assertEquals(FileTransferMessageType.SEALED, frame.getType());
+        assertEquals(300, frame.getRawDataSize());
+        assertEquals(316, frame.getDataSize());
+        assertTrue(frame.isCompressed());
+
+        assertTrue(FileTransferMessageCodec.decodeFrameHeader(source, frame));
+        assertEquals(FileTransferMessageType.BODY, frame.getType());
+        assertEquals(1L << 33, frame.getBodySize());
+        assertFalse(source.hasRemaining());
+    }
+
+    @Test
+    void rejectsUnknownSealedFlags() {
+        ByteBuffer source = ByteBuffer.allocate(FileTransferMessageCodec.SEALED_HEADER_SIZE)
+                .putInt(FileTransferMessageType.SEALED.ordinal())
+                .putInt(300)
+                .putInt(316)
+                .putInt(2)
+                .flip();
+        assertThrows(IOException.class, () -> FileTransferMessageCodec.decodeFrameHeader(source,
+                new FileTransferFrame()));
+    }
+
+    @Test
+    void receivesDataMessages() throws IOException {
+        byte[] data = {1, 2, 3, 4, 5};
+        byte[] bytes = FileTransferMessage.data(data.length, 9, data).getBytes();
+        FileTransferMessage message = FileTransferMessage.receiveFileTransferMessage(
+                new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertEquals(FileTransferMessageType.DATA, message.getType());
+        assertEquals(9, message.getChecksum());
+        assertArrayEquals(data, message.getData());
+    }
+
+    @Test
+    void receivesDataMessagesIntoSuppliedBuffer() throws IOException {
+        byte[] data = {1, 2, 3, 4, 5};
+        byte[] bytes = FileTransferMessage.signatures(data.length, 9, data).getBytes();
+        byte[] dataBuffer = new byte[16];
+        FileTransferMessage message = FileTransferMessage.receiveFileTransferMessage(
+                new DataInputStream(new ByteArrayInputStream(bytes)), dataBuffer);
+        assertEquals(FileTransferMessageType.SIGNATURES, message.getType());
+        assertSame(dataBuffer, message.getData());
+        assertEquals(data.length, message.getDataSize());
+        assertArrayEquals(data, Arrays.copyOf(message.getData(), message.getDataSize()));
+        assertArrayEquals(bytes, message.getBytes());
+    }
+
+}
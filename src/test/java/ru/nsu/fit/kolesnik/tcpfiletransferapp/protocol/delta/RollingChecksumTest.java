@@ -0,0 +1,47 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.delta;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class RollingChecksumTest {
+
+    private static final int WINDOW_SIZE = 4096;
+
+    @Test
+    void rollsToChecksumOfShiftedWindow() {
+        byte[] data = new byte[WINDOW_SIZE * 4];
+        new Random(1).nextBytes(data);
+        RollingChecksum rollingChecksum = new RollingChecksum();
+        RollingChecksum windowChecksum = new RollingChecksum();
+        rollingChecksum.reset(data, 0, WINDOW_SIZE);
+        for (int offset = 1; offset + WINDOW_SIZE <= data.length; offset++) {
+            rollingChecksum.roll(data[offset - 1], data[offset + WINDOW_SIZE - 1]);
+            windowChecksum.reset(data, offset, WINDOW_SIZE);
+            assertEquals(windowChecksum.getValue(), rollingChecksum.getValue());
+        }
+    }
+
+    @Test
+    void dependsOnByteOrder() {
+        byte[] data = {1, 2, 3, 4};
+        byte[] swappedData = {2, 1, 3, 4};
+        RollingChecksum checksum = new RollingChecksum();
+        RollingChecksum swappedChecksum = new RollingChecksum();
+        checksum.reset(data, 0, data.length);
+        swappedChecksum.reset(swappedData, 0, swappedData.length);
+        assertNotEquals(checksum.getValue(), swappedChecksum.getValue());
+    }
+
+    @Test
+    void treatsBytesAsUnsigned() {
+        byte[] data = {(byte) 0xFF, (byte) 0x80};
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, 0, data.length);
+        assertEquals((0xFF + 0x80) | (0xFF + 0xFF + 0x80) << 16, checksum.getValue());
+    }
+
+}
@@ -0,0 +1,171 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.encryption;
+
+import org.junit.jupiter.api.Test;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameCipherTest {
+
+    private static final byte[] SESSION_KEY = randomBytes(16, 1);
+
+    @Test
+    void opensSealedData() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        FrameCipher serverCipher = new FrameCipher(SESSION_KEY, false);
+        for (int size : new int[]{0, 1, 32768, 262145, 1048576}) {
+            byte[] data = randomBytes(size, size);
+            ByteBuffer sealedData = seal(clientCipher, data);
+            assertEquals(size + FrameCipher.TAG_SIZE, sealedData.remaining());
+            assertFalse(size > 0 && Arrays.equals(data, 0, size, sealedData.array(), 0, size));
+            serverCipher.open(size, false, sealedData);
+            assertEquals(ByteBuffer.wrap(data), sealedData);
+        }
+    }
+
+    @Test
+    void opensSealedDataInDirectBuffers() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        FrameCipher serverCipher = new FrameCipher(SESSION_KEY, false);
+        for (int size : new int[]{4096, 1048576}) {
+            byte[] data = randomBytes(size, size);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size + FrameCipher.TAG_SIZE);
+            buffer.put(data).flip();
+            serverCipher.seal(size, false, buffer);
+            clientCipher.open(size, false, buffer);
+            assertEquals(ByteBuffer.wrap(data), buffer);
+        }
+    }
+
+    @Test
+    void rejectsTamperedData() throws Exception {
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(new FrameCipher(SESSION_KEY, true), data);
+        sealedData.put(10, (byte) (sealedData.get(10) ^ 1));
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).open(data.length, false, sealedData));
+    }
+
+    @Test
+    void rejectsTamperedHeader() throws Exception {
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(new FrameCipher(SESSION_KEY, true), data);
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).open(data.length - 1,
+                false, sealedData));
+    }
+
+    @Test
+    void rejectsTamperedCompressedFlag() throws Exception {
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(new FrameCipher(SESSION_KEY, true), data);
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).open(data.length, true,
+                sealedData));
+    }
+
+    @Test
+    void rejectsReplayedData() throws Exception {
+        FrameCipher serverCipher = new FrameCipher(SESSION_KEY, false);
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(new FrameCipher(SESSION_KEY, true), data);
+        ByteBuffer replayedData = ByteBuffer.wrap(sealedData.array().clone());
+        serverCipher.open(data.length, false, sealedData);
+        assertThrows(IOException.class, () -> serverCipher.open(data.length, false, replayedData));
+    }
+
+    @Test
+    void rejectsReorderedData() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        byte[] data = randomBytes(1024, 2);
+        seal(clientCipher, data);
+        ByteBuffer secondSealedData = seal(clientCipher, data);
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).open(data.length,
+                false, secondSealedData));
+    }
+
+    @Test
+    void rejectsReflectedData() throws Exception {
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(new FrameCipher(SESSION_KEY, true), data);
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, true).open(data.length, false, sealedData));
+    }
+
+    @Test
+    void opensSealedMessages() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        FrameCipher serverCipher = new FrameCipher(SESSION_KEY, false);
+        FileTransferMessage message = FileTransferMessage.copy(4096, 8192);
+        byte[] sealedMessage = clientCipher.sealMessage(message);
+        byte[] encodedMessage = message.getBytes();
+        assertEquals(encodedMessage.length + FrameCipher.TAG_SIZE, sealedMessage.length);
+        assertArrayEquals(encodedMessage, Arrays.copyOf(sealedMessage, encodedMessage.length));
+        ByteBuffer tag = ByteBuffer.wrap(sealedMessage, encodedMessage.length, FrameCipher.TAG_SIZE);
+        serverCipher.openMessage(encodedMessage, tag);
+        assertFalse(tag.hasRemaining());
+    }
+
+    @Test
+    void rejectsTamperedMessage() throws Exception {
+        byte[] sealedMessage = new FrameCipher(SESSION_KEY, true).sealMessage(FileTransferMessage.copy(4096, 8192));
+        byte[] forgedMessage = FileTransferMessage.copy(4096, 8193).getBytes();
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).openMessage(forgedMessage,
+                ByteBuffer.wrap(sealedMessage, forgedMessage.length, FrameCipher.TAG_SIZE)));
+    }
+
+    @Test
+    void rejectsMissingMessageTag() throws Exception {
+        byte[] encodedMessage = FileTransferMessage.success().getBytes();
+        assertThrows(IOException.class, () -> new FrameCipher(SESSION_KEY, false).openMessage(encodedMessage,
+                ByteBuffer.allocate(FrameCipher.TAG_SIZE - 1)));
+    }
+
+    @Test
+    void ordersMessagesWithData() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        FrameCipher serverCipher = new FrameCipher(SESSION_KEY, false);
+        byte[] data = randomBytes(1024, 2);
+        ByteBuffer sealedData = seal(clientCipher, data);
+        FileTransferMessage message = FileTransferMessage.fin(7);
+        byte[] sealedMessage = clientCipher.sealMessage(message);
+        byte[] encodedMessage = message.getBytes();
+        assertThrows(IOException.class, () -> serverCipher.openMessage(encodedMessage,
+                ByteBuffer.wrap(sealedMessage, encodedMessage.length, FrameCipher.TAG_SIZE)));
+        assertThrows(IOException.class, () -> serverCipher.open(data.length, false, sealedData));
+    }
+
+    @Test
+    void confirmsSessionKey() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(SESSION_KEY, true);
+        byte[] confirmation = new FrameCipher(SESSION_KEY, false).sealKeyConfirmation();
+        clientCipher.openKeyConfirmation(ByteBuffer.wrap(confirmation, confirmation.length - FrameCipher.TAG_SIZE,
+                FrameCipher.TAG_SIZE).slice());
+    }
+
+    @Test
+    void rejectsDifferentSessionKey() throws Exception {
+        FrameCipher clientCipher = new FrameCipher(randomBytes(16, 3), true);
+        byte[] confirmation = new FrameCipher(SESSION_KEY, false).sealKeyConfirmation();
+        assertThrows(IOException.class, () -> clientCipher.openKeyConfirmation(ByteBuffer.wrap(confirmation,
+                confirmation.length - FrameCipher.TAG_SIZE, FrameCipher.TAG_SIZE).slice()));
+    }
+
+    private static ByteBuffer seal(FrameCipher frameCipher, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + FrameCipher.TAG_SIZE);
+        buffer.put(data).flip();
+        frameCipher.seal(data.length, false, buffer);
+        return buffer;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+}
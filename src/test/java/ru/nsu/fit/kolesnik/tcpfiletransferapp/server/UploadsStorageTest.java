@@ -0,0 +1,73 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadsStorageTest {
+
+    @TempDir
+    private Path uploadsPath;
+
+    @Test
+    void rejectsStoredCopyNames() throws IOException {
+        UploadsStorage uploadsStorage = openStorage();
+        assertTrue(uploadsStorage.isPlainFileName("report.txt"));
+        assertTrue(uploadsStorage.isPlainFileName("copy_report.txt"));
+        assertTrue(uploadsStorage.isPlainFileName("copyx_report.txt"));
+        assertFalse(uploadsStorage.isPlainFileName("copy3_report.txt"));
+        assertFalse(uploadsStorage.isPlainFileName("copy0_report.txt"));
+    }
+
+    @Test
+    void findsLatestCopiesAfterRestart() throws IOException {
+        UploadsStorage uploadsStorage = openStorage();
+        store(uploadsStorage, 1, "report.txt", "first");
+        store(uploadsStorage, 2, "copy_report.txt", "client copy");
+        store(uploadsStorage, 3, "report.txt", "second");
+        uploadsStorage = openStorage();
+        assertEquals("second", Files.readString(uploadsStorage.findStoredFile("report.txt")));
+        assertEquals("client copy", Files.readString(uploadsStorage.findStoredFile("copy_report.txt")));
+        store(uploadsStorage, 4, "report.txt", "third");
+        assertEquals("third", Files.readString(uploadsStorage.findStoredFile("report.txt")));
+    }
+
+    @Test
+    void leavesNoFileWhenCommitFails() throws IOException {
+        UploadsStorage uploadsStorage = openStorage();
+        Path partFilePath = uploadsStorage.createPartFile(1, 0);
+        uploadsStorage.writeFinished(partFilePath);
+        Files.delete(partFilePath);
+        assertThrows(IOException.class, () -> uploadsStorage.commitPartFile(partFilePath, "report.txt"));
+        assertNull(uploadsStorage.findStoredFile("report.txt"));
+        store(uploadsStorage, 2, "report.txt", "first");
+        assertEquals("first", Files.readString(uploadsStorage.findStoredFile("report.txt")));
+    }
+
+    private UploadsStorage openStorage() throws IOException {
+        UploadsStorage uploadsStorage = new UploadsStorage(List.of(
+                Path.of("").toAbsolutePath().relativize(uploadsPath).toString()));
+        uploadsStorage.createUploadsDirectories();
+        uploadsStorage.indexStoredFiles();
+        return uploadsStorage;
+    }
+
+    private static void store(UploadsStorage uploadsStorage, long transferId, String fileName, String content)
+            throws IOException {
+        Path partFilePath = uploadsStorage.createPartFile(transferId, content.length());
+        Files.writeString(partFilePath, content);
+        uploadsStorage.writeFinished(partFilePath);
+        uploadsStorage.commitPartFile(partFilePath, fileName);
+    }
+
+}
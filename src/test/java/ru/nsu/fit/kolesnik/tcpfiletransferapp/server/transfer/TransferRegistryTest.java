@@ -0,0 +1,97 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.protocol.FileTransferMessage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.ContentStore;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.UploadsStorage;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.delta.BasisSigner;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.disk.DiskWriters;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.download.MappedFileCache;
+import ru.nsu.fit.kolesnik.tcpfiletransferapp.server.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TransferRegistryTest {
+
+    private static final String FILE_NAME = "report.txt";
+    private static final long FILE_SIZE = 1048576;
+    private static final long TRANSFER_ID = 42;
+    private static final long RECEIVED_SIZE = 65536;
+
+    @TempDir
+    private Path uploadsPath;
+    private DiskWriters diskWriters;
+    private BasisSigner basisSigner;
+    private TransferRegistry transferRegistry;
+
+    @BeforeEach
+    void startRegistry() throws IOException {
+        UploadsStorage uploadsStorage = new UploadsStorage(List.of(
+                Path.of("").toAbsolutePath().relativize(uploadsPath).toString()));
+        uploadsStorage.createUploadsDirectories();
+        uploadsStorage.indexStoredFiles();
+        ServerMetrics metrics = new ServerMetrics();
+        diskWriters = new DiskWriters(metrics);
+        basisSigner = new BasisSigner(uploadsStorage);
+        transferRegistry = new TransferRegistry(uploadsStorage, diskWriters,
+                new ContentStore(uploadsStorage, false), basisSigner, new MappedFileCache(0, metrics));
+    }
+
+    @AfterEach
+    void stopRegistry() {
+        transferRegistry.stop();
+        basisSigner.stop();
+        diskWriters.stop();
+    }
+
+    @Test
+    void resumesAfterRestart() throws IOException {
+        byte[] contentDigest = digest(1);
+        interruptTransfer(contentDigest);
+        restartRegistry();
+        assertEquals(RECEIVED_SIZE, transferRegistry.getResumeOffset(
+                FileTransferMessage.resume(TRANSFER_ID, contentDigest, FILE_SIZE, 0, FILE_SIZE)));
+        Transfer transfer = transferRegistry.join(FileTransferMessage.init(FILE_NAME, FILE_SIZE, TRANSFER_ID,
+                contentDigest, RECEIVED_SIZE, FILE_SIZE - RECEIVED_SIZE, 1));
+        assertEquals(RECEIVED_SIZE, transfer.getReceivedRangeEnd(0));
+        transferRegistry.fail(transfer, RECEIVED_SIZE, RECEIVED_SIZE);
+    }
+
+    @Test
+    void restartsTransferOfChangedContent() throws IOException {
+        interruptTransfer(digest(1));
+        restartRegistry();
+        byte[] changedContentDigest = digest(2);
+        assertEquals(0, transferRegistry.getResumeOffset(
+                FileTransferMessage.resume(TRANSFER_ID, changedContentDigest, FILE_SIZE, 0, FILE_SIZE)));
+        Transfer transfer = transferRegistry.join(FileTransferMessage.init(FILE_NAME, FILE_SIZE, TRANSFER_ID,
+                changedContentDigest, 0, FILE_SIZE, 1));
+        assertEquals(0, transfer.getReceivedRangeEnd(0));
+        transferRegistry.fail(transfer, 0, 0);
+    }
+
+    private void interruptTransfer(byte[] contentDigest) throws IOException {
+        Transfer transfer = transferRegistry.join(FileTransferMessage.init(FILE_NAME, FILE_SIZE, TRANSFER_ID,
+                contentDigest, 0, FILE_SIZE, 1));
+        transferRegistry.fail(transfer, 0, RECEIVED_SIZE);
+    }
+
+    private void restartRegistry() throws IOException {
+        stopRegistry();
+        startRegistry();
+    }
+
+    private static byte[] digest(int seed) {
+        byte[] contentDigest = new byte[32];
+        contentDigest[0] = (byte) seed;
+        return contentDigest;
+    }
+
+}
@@ -0,0 +1,76 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.server.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TransferTest {
+
+    @Test
+    void addsDisjointRanges() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 10, 20);
+        Transfer.addReceivedRange(ranges, 30, 40);
+        assertEquals(Map.of(10L, 20L, 30L, 40L), ranges);
+    }
+
+    @Test
+    void ignoresEmptyRanges() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 10, 10);
+        Transfer.addReceivedRange(ranges, 20, 15);
+        assertEquals(Map.of(), ranges);
+    }
+
+    @Test
+    void mergesAdjacentRanges() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 0, 10);
+        Transfer.addReceivedRange(ranges, 20, 30);
+        Transfer.addReceivedRange(ranges, 10, 20);
+        assertEquals(Map.of(0L, 30L), ranges);
+    }
+
+    @Test
+    void mergesOverlappingRanges() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 10, 20);
+        Transfer.addReceivedRange(ranges, 30, 40);
+        Transfer.addReceivedRange(ranges, 50, 60);
+        Transfer.addReceivedRange(ranges, 15, 55);
+        assertEquals(Map.of(10L, 60L), ranges);
+    }
+
+    @Test
+    void keepsRangeCoveringAddedRange() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 0, 100);
+        Transfer.addReceivedRange(ranges, 20, 30);
+        assertEquals(Map.of(0L, 100L), ranges);
+    }
+
+    @Test
+    void findsEndOfRangeContainingOffset() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        Transfer.addReceivedRange(ranges, 0, 100);
+        Transfer.addReceivedRange(ranges, 200, 300);
+        assertEquals(100, Transfer.getReceivedRangeEnd(ranges, 0));
+        assertEquals(100, Transfer.getReceivedRangeEnd(ranges, 50));
+        assertEquals(100, Transfer.getReceivedRangeEnd(ranges, 100));
+        assertEquals(300, Transfer.getReceivedRangeEnd(ranges, 250));
+    }
+
+    @Test
+    void returnsOffsetOutsideOfRanges() {
+        NavigableMap<Long, Long> ranges = new TreeMap<>();
+        assertEquals(50, Transfer.getReceivedRangeEnd(ranges, 50));
+        Transfer.addReceivedRange(ranges, 100, 200);
+        assertEquals(50, Transfer.getReceivedRangeEnd(ranges, 50));
+        assertEquals(250, Transfer.getReceivedRangeEnd(ranges, 250));
+    }
+
+}
@@ -0,0 +1,72 @@
+package ru.nsu.fit.kolesnik.tcpfiletransferapp.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    private static final long RATE = 1048576;
+
+    @Test
+    void rejectsNegativeRate() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(-1));
+        TokenBucket rateLimiter = new TokenBucket(RATE);
+        assertThrows(IllegalArgumentException.class, () -> rateLimiter.setRate(-1));
+        assertEquals(RATE, rateLimiter.getRate());
+    }
+
+    @Test
+    void doesNotLimitZeroRate() {
+        TokenBucket rateLimiter = new TokenBucket(0);
+        assertEquals(0, rateLimiter.reserve(Long.MAX_VALUE / 2));
+        assertEquals(0, rateLimiter.reserve(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    void doesNotDelayEmptyReservations() {
+        TokenBucket rateLimiter = new TokenBucket(RATE);
+        assertEquals(0, rateLimiter.reserve(0));
+        assertEquals(0, rateLimiter.reserve(-RATE));
+    }
+
+    @Test
+    void allowsShortBursts() {
+        TokenBucket rateLimiter = new TokenBucket(RATE);
+        assertEquals(0, rateLimiter.reserve(RATE / 100));
+    }
+
+    @Test
+    void delaysReservationsBeyondRate() {
+        TokenBucket rateLimiter = new TokenBucket(RATE);
+        long firstDelayNanos = rateLimiter.reserve(RATE);
+        assertTrue(firstDelayNanos > TimeUnit.MILLISECONDS.toNanos(900), String.valueOf(firstDelayNanos));
+        assertTrue(firstDelayNanos <= TimeUnit.SECONDS.toNanos(1), String.valueOf(firstDelayNanos));
+        long secondDelayNanos = rateLimiter.reserve(RATE);
+        assertTrue(secondDelayNanos > TimeUnit.MILLISECONDS.toNanos(1900), String.valueOf(secondDelayNanos));
+    }
+
+    @Test
+    void appliesChangedRate() {
+        TokenBucket rateLimiter = new TokenBucket(RATE);
+        rateLimiter.setRate(RATE * 10);
+        assertTrue(rateLimiter.reserve(RATE) < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void stopsPauseOnInterrupt() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(InterruptedIOException.class, () -> TokenBucket.pause(TimeUnit.SECONDS.toNanos(10)));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+}